@@ -1,6 +1,14 @@
 package com.joejoe2.chat.config;
 
+import com.joejoe2.chat.service.cache.TwoTierCache;
+import com.joejoe2.chat.service.cache.TwoTierCacheManager;
+import com.joejoe2.chat.service.nats.NatsService;
+import com.joejoe2.chat.utils.ChannelSubject;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
@@ -12,11 +20,27 @@ import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSeriali
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+/**
+ * caches with a bounded local tier in front of redis, evictions are broadcast by nats so other
+ * nodes drop their local copies
+ */
 @Configuration
 @EnableCaching
 public class CacheConfig {
+  /** distinguish invalidations of this node from others */
+  private final String origin = UUID.randomUUID().toString();
+
+  @Value("${chat.cache.local.max-size:10000}")
+  private int localMaxSize;
+
+  @Value("${chat.cache.local.ttl:30s}")
+  private Duration localTtl;
+
   @Bean
-  public CacheManager cacheManager(RedisConnectionFactory lettuceConnectionFactory) {
+  public CacheManager cacheManager(
+      RedisConnectionFactory lettuceConnectionFactory,
+      NatsService natsService,
+      MeterRegistry meterRegistry) {
     RedisCacheConfiguration defaultCacheConfig = RedisCacheConfiguration.defaultCacheConfig();
     defaultCacheConfig =
         defaultCacheConfig
@@ -29,8 +53,33 @@ public class CacheConfig {
                     new GenericJackson2JsonRedisSerializer()))
             .disableCachingNullValues();
 
-    return RedisCacheManager.builder(lettuceConnectionFactory)
-        .cacheDefaults(defaultCacheConfig)
-        .build();
+    RedisCacheManager redisCacheManager =
+        RedisCacheManager.builder(lettuceConnectionFactory)
+            .cacheDefaults(defaultCacheConfig)
+            .build();
+    redisCacheManager.afterPropertiesSet();
+
+    TwoTierCacheManager cacheManager =
+        new TwoTierCacheManager(
+            redisCacheManager,
+            localMaxSize,
+            localTtl.toNanos(),
+            invalidation ->
+                natsService.publish(
+                    ChannelSubject.CACHE_INVALIDATION,
+                    origin
+                        + "\n"
+                        + invalidation.cache()
+                        + (invalidation.key() == null ? "" : "\n" + invalidation.key())),
+            meterRegistry);
+    natsService.subscribe(
+        ChannelSubject.CACHE_INVALIDATION,
+        msg -> {
+          String[] parts = new String(msg.getData(), StandardCharsets.UTF_8).split("\n", 3);
+          if (parts.length < 2 || origin.equals(parts[0])) return;
+          cacheManager.invalidateLocal(
+              new TwoTierCache.Invalidation(parts[1], parts.length == 3 ? parts[2] : null));
+        });
+    return cacheManager;
   }
 }
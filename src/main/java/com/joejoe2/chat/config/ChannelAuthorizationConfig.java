@@ -0,0 +1,87 @@
+package com.joejoe2.chat.config;
+
+import com.joejoe2.chat.repository.channel.GroupChannelRepository;
+import com.joejoe2.chat.repository.channel.PrivateChannelRepository;
+import com.joejoe2.chat.service.channel.ChannelAuthorizationIndex;
+import com.joejoe2.chat.service.nats.NatsService;
+import com.joejoe2.chat.utils.ChannelSubject;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/** node-local authorization indexes of the message write path, invalidated across nodes by nats */
+@Configuration
+public class ChannelAuthorizationConfig {
+  private static final Logger logger = LoggerFactory.getLogger(ChannelAuthorizationConfig.class);
+
+  @Value("${chat.channel.auth.max-channels:10000}")
+  private int maxChannels;
+
+  @Value("${chat.channel.auth.ttl:60s}")
+  private Duration ttl;
+
+  @Bean
+  ChannelAuthorizationIndex groupAuthorizationIndex(
+      GroupChannelRepository channelRepository, NatsService natsService) {
+    return index(
+        new ChannelAuthorizationIndex.Loader() {
+          @Override
+          public Collection<UUID> members(UUID channelId) {
+            return channelRepository.findMemberIds(channelId);
+          }
+
+          @Override
+          public Collection<UUID> restricted(UUID channelId) {
+            return channelRepository.findBannedIds(channelId);
+          }
+        },
+        ChannelSubject.GROUP_CHANNEL_AUTH_INVALIDATION,
+        natsService);
+  }
+
+  @Bean
+  ChannelAuthorizationIndex privateAuthorizationIndex(
+      PrivateChannelRepository channelRepository, NatsService natsService) {
+    return index(
+        new ChannelAuthorizationIndex.Loader() {
+          @Override
+          public Collection<UUID> members(UUID channelId) {
+            return channelRepository.findMemberIds(channelId);
+          }
+
+          @Override
+          public Collection<UUID> restricted(UUID channelId) {
+            return channelRepository.findBlockedByIds(channelId);
+          }
+        },
+        ChannelSubject.PRIVATE_CHANNEL_AUTH_INVALIDATION,
+        natsService);
+  }
+
+  private ChannelAuthorizationIndex index(
+      ChannelAuthorizationIndex.Loader loader, String subject, NatsService natsService) {
+    ChannelAuthorizationIndex index =
+        new ChannelAuthorizationIndex(
+            loader,
+            channelId -> natsService.publish(subject, channelId.toString()),
+            maxChannels,
+            ttl.toNanos());
+    natsService.subscribe(
+        subject,
+        msg -> {
+          try {
+            index.invalidateLocal(
+                UUID.fromString(new String(msg.getData(), StandardCharsets.UTF_8)));
+          } catch (IllegalArgumentException e) {
+            logger.warn("invalid invalidation on {}", subject);
+          }
+        });
+    return index;
+  }
+}
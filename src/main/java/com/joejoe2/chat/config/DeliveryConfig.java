@@ -0,0 +1,206 @@
+package com.joejoe2.chat.config;
+
+import com.joejoe2.chat.service.subscription.DeliveryLatency;
+import com.joejoe2.chat.service.subscription.HeartbeatWheel;
+import com.joejoe2.chat.service.subscription.OutboundQueueOptions;
+import com.joejoe2.chat.service.subscription.SlowConsumerPolicy;
+import com.joejoe2.chat.service.subscription.StripedExecutor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class DeliveryConfig {
+  /** how socket writes of subscribers are executed */
+  public enum ExecutorType {
+    /** a fixed pool of platform threads */
+    FIXED,
+    /** a new virtual thread per drain task, requires java 21 */
+    VIRTUAL
+  }
+
+  @Value("${chat.subscriber.queue.capacity:256}")
+  private int queueCapacity;
+
+  @Value("${chat.subscriber.queue.policy:DROP_OLDEST}")
+  private SlowConsumerPolicy slowConsumerPolicy;
+
+  @Value("${chat.subscriber.batch.max-window:5ms}")
+  private Duration maxBatchWindow;
+
+  @Value("${chat.subscriber.batch.saturation-rate:1000}")
+  private double batchSaturationRate;
+
+  @Value("${chat.subscriber.write.timeout:5s}")
+  private Duration writeTimeout;
+
+  @Value("${chat.delivery.executor.type:FIXED}")
+  private ExecutorType executorType;
+
+  @Value("${chat.delivery.executor.size:16}")
+  private int executorSize;
+
+  @Value("${chat.delivery.sse-executor.size:64}")
+  private int sseExecutorSize;
+
+  @Value("${chat.group.membership-view.loaders:4}")
+  private int membershipLoaders;
+
+  @Value("${chat.delivery.fanout.stripes:0}")
+  private int fanOutStripes;
+
+  @Value("${chat.heartbeat.interval:30s}")
+  private Duration heartbeatInterval;
+
+  @Value("${chat.heartbeat.ticks:30}")
+  private int heartbeatTicks;
+
+  @Value("${chat.heartbeat.timeout:10s}")
+  private Duration heartbeatTimeout;
+
+  @Value("${chat.metrics.latency.enabled:true}")
+  private boolean latencyEnabled;
+
+  @Value("${chat.node.id:${random.uuid}}")
+  private String nodeId;
+
+  /** latency of messages from the publish to the socket write, see {@link DeliveryLatency} */
+  @Bean
+  DeliveryLatency deliveryLatency(MeterRegistry meterRegistry) {
+    return new DeliveryLatency(latencyEnabled, nodeId, meterRegistry);
+  }
+
+  /** timer of delayed drains and write timeouts of outbound queues */
+  @Bean(value = "batchTimer", destroyMethod = "shutdown")
+  ScheduledExecutorService batchTimer() {
+    return Executors.newSingleThreadScheduledExecutor(threadFactory("chat-batch-timer-"));
+  }
+
+  /** timer of the heartbeat wheel, its thread is only started if heartbeats are enabled */
+  @Bean(value = "heartbeatTimer", destroyMethod = "shutdown")
+  ScheduledExecutorService heartbeatTimer() {
+    return Executors.newSingleThreadScheduledExecutor(threadFactory("chat-heartbeat-"));
+  }
+
+  @Bean
+  OutboundQueueOptions outboundQueueOptions(
+      MeterRegistry meterRegistry,
+      DeliveryLatency deliveryLatency,
+      @Qualifier("batchTimer") ScheduledExecutorService batchTimer,
+      @Qualifier("heartbeatTimer") ScheduledExecutorService heartbeatTimer) {
+    return new OutboundQueueOptions(
+        queueCapacity,
+        slowConsumerPolicy,
+        maxBatchWindow,
+        batchSaturationRate,
+        batchTimer,
+        heartbeatInterval.isZero()
+            ? null
+            : new HeartbeatWheel(
+                heartbeatInterval, heartbeatTicks, heartbeatTimeout, heartbeatTimer, meterRegistry),
+        deliveryLatency,
+        writeTimeout,
+        meterRegistry);
+  }
+
+  /**
+   * executor shared by all channel services to write messages to subscribers, websocket writes do
+   * not block it. The size is ignored for {@link ExecutorType#VIRTUAL}.
+   */
+  @Bean(value = "deliveryExecutor", destroyMethod = "shutdown")
+  ExecutorService deliveryExecutor(MeterRegistry meterRegistry) {
+    return monitoredExecutor(meterRegistry, "chat.delivery", executorSize, "chat-delivery-");
+  }
+
+  /**
+   * blocking sse writes run on their own executor, so stalled sse clients never hold threads of the
+   * delivery executor. The size bounds concurrent sse writes and is ignored for {@link
+   * ExecutorType#VIRTUAL}.
+   */
+  @Bean(value = "sseWriteExecutor", destroyMethod = "shutdown")
+  ExecutorService sseWriteExecutor(MeterRegistry meterRegistry) {
+    return monitoredExecutor(meterRegistry, "chat.sse.write", sseExecutorSize, "chat-sse-write-");
+  }
+
+  private ExecutorService monitoredExecutor(
+      MeterRegistry meterRegistry, String name, int size, String threadPrefix) {
+    ExecutorService executor = newExecutor(executorType, size, threadPrefix);
+    Tags tags = Tags.of("type", executorType.name().toLowerCase());
+    // virtual threads are unbounded, there is no size to report
+    if (executorType == ExecutorType.FIXED)
+      Gauge.builder(name + ".executor.size", () -> size)
+          .description("max number of concurrent socket writes")
+          .tags(tags)
+          .register(meterRegistry);
+    return ExecutorServiceMetrics.monitor(meterRegistry, executor, name, tags);
+  }
+
+  static ExecutorService newExecutor(ExecutorType type, int size, String threadPrefix) {
+    return switch (type) {
+      case FIXED -> Executors.newFixedThreadPool(size, threadFactory(threadPrefix));
+      case VIRTUAL -> newVirtualThreadPerTaskExecutor();
+    };
+  }
+
+  /**
+   * fan-out of messages from nats to the outbound queues of subscribers, tasks of the same channel
+   * or user run in order while different keys are spread across cores. The number of stripes
+   * defaults to the number of processors.
+   */
+  @Bean
+  StripedExecutor fanOutExecutor(MeterRegistry meterRegistry) {
+    int stripes = fanOutStripes > 0 ? fanOutStripes : Runtime.getRuntime().availableProcessors();
+    ExecutorService executor =
+        ExecutorServiceMetrics.monitor(
+            meterRegistry,
+            Executors.newFixedThreadPool(stripes, threadFactory("chat-fanout-")),
+            "chat.fanout");
+    return new StripedExecutor(stripes, executor);
+  }
+
+  /**
+   * loads of members of group channels missing in the membership view, they block on redis or the
+   * db, so they never run on the fan-out stripes or the delivery executor
+   */
+  @Bean(value = "membershipLoadExecutor", destroyMethod = "shutdown")
+  ExecutorService membershipLoadExecutor(MeterRegistry meterRegistry) {
+    return ExecutorServiceMetrics.monitor(
+        meterRegistry,
+        Executors.newFixedThreadPool(membershipLoaders, threadFactory("chat-membership-load-")),
+        "chat.membership.load");
+  }
+
+  private static ThreadFactory threadFactory(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * the source level is still 17, so virtual threads are looked up at runtime and are only
+   * available when running on java 21 or later(see the java21 maven profile)
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(
+          "chat.delivery.executor.type=VIRTUAL requires java 21 or later !", e);
+    }
+  }
+}
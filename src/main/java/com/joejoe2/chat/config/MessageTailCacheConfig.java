@@ -0,0 +1,46 @@
+package com.joejoe2.chat.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.joejoe2.chat.data.message.GroupMessageDto;
+import com.joejoe2.chat.data.message.PrivateMessageDto;
+import com.joejoe2.chat.data.message.PublicMessageDto;
+import com.joejoe2.chat.service.message.MessageTailCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/** node-local caches of the newest messages of channels, shared by channel and message services */
+@Configuration
+public class MessageTailCacheConfig {
+  @Value("${chat.message.tail.size:0}")
+  private int size;
+
+  @Value("${chat.message.tail.max-channels:10000}")
+  private int maxChannels;
+
+  @Value("${chat.message.tail.max-age:60s}")
+  private Duration maxAge;
+
+  @Bean
+  MessageTailCache<PublicMessageDto> publicMessageTailCache(
+      ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+    return new MessageTailCache<>(
+        "public", PublicMessageDto.class, objectMapper, size, maxChannels, maxAge, meterRegistry);
+  }
+
+  @Bean
+  MessageTailCache<PrivateMessageDto> privateMessageTailCache(
+      ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+    return new MessageTailCache<>(
+        "private", PrivateMessageDto.class, objectMapper, size, maxChannels, maxAge, meterRegistry);
+  }
+
+  @Bean
+  MessageTailCache<GroupMessageDto> groupMessageTailCache(
+      ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+    return new MessageTailCache<>(
+        "group", GroupMessageDto.class, objectMapper, size, maxChannels, maxAge, meterRegistry);
+  }
+}
@@ -0,0 +1,121 @@
+package com.joejoe2.chat.config;
+
+import com.joejoe2.chat.models.GroupMessage;
+import com.joejoe2.chat.models.PrivateMessage;
+import com.joejoe2.chat.models.PublicMessage;
+import com.joejoe2.chat.models.TimeStampBase;
+import com.joejoe2.chat.repository.channel.GroupChannelRepository;
+import com.joejoe2.chat.repository.channel.PrivateChannelRepository;
+import com.joejoe2.chat.repository.message.MessageBatchRepository;
+import com.joejoe2.chat.service.message.MessageAckMode;
+import com.joejoe2.chat.service.message.MessageWriter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/** group commit writers of new messages, one per channel type */
+@Configuration
+public class MessageWriterConfig {
+  @Value("${chat.message.write.ack:DURABLE}")
+  private MessageAckMode ackMode;
+
+  @Value("${chat.message.write.window:2ms}")
+  private Duration window;
+
+  @Value("${chat.message.write.max-batch:256}")
+  private int maxBatch;
+
+  @Value("${chat.message.write.queue-capacity:10000}")
+  private int capacity;
+
+  @Bean
+  MessageWriter<PublicMessage> publicMessageWriter(
+      MessageBatchRepository batchRepository,
+      PlatformTransactionManager transactionManager,
+      MeterRegistry meterRegistry) {
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    return new MessageWriter<>(
+        "public",
+        messages ->
+            transaction.executeWithoutResult(
+                status -> batchRepository.insertPublicMessages(messages)),
+        ackMode,
+        window,
+        maxBatch,
+        capacity,
+        meterRegistry);
+  }
+
+  @Bean
+  MessageWriter<PrivateMessage> privateMessageWriter(
+      MessageBatchRepository batchRepository,
+      PrivateChannelRepository channelRepository,
+      PlatformTransactionManager transactionManager,
+      MeterRegistry meterRegistry) {
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    return new MessageWriter<>(
+        "private",
+        messages ->
+            transaction.executeWithoutResult(
+                status -> {
+                  batchRepository.insertPrivateMessages(messages);
+                  lastMessages(messages, message -> message.getChannel().getId())
+                      .forEach(
+                          (id, message) ->
+                              channelRepository.advanceLastMessage(
+                                  id, message.getId(), message.getUpdateAt()));
+                }),
+        ackMode,
+        window,
+        maxBatch,
+        capacity,
+        meterRegistry);
+  }
+
+  @Bean
+  MessageWriter<GroupMessage> groupMessageWriter(
+      MessageBatchRepository batchRepository,
+      GroupChannelRepository channelRepository,
+      PlatformTransactionManager transactionManager,
+      MeterRegistry meterRegistry) {
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    return new MessageWriter<>(
+        "group",
+        messages ->
+            transaction.executeWithoutResult(
+                status -> {
+                  batchRepository.insertGroupMessages(messages);
+                  lastMessages(messages, message -> message.getChannel().getId())
+                      .forEach(
+                          (id, message) ->
+                              channelRepository.advanceLastMessage(
+                                  id, message.getId(), message.getUpdateAt()));
+                }),
+        ackMode,
+        window,
+        maxBatch,
+        capacity,
+        meterRegistry);
+  }
+
+  /** the newest message of each channel in a batch, so each channel is updated once per batch */
+  private static <T extends TimeStampBase> Map<UUID, T> lastMessages(
+      List<T> messages, Function<T, UUID> channelOf) {
+    Map<UUID, T> last = new LinkedHashMap<>();
+    for (T message : messages)
+      last.merge(
+          channelOf.apply(message),
+          message,
+          (a, b) -> b.getUpdateAt().isBefore(a.getUpdateAt()) ? a : b);
+    return last;
+  }
+}
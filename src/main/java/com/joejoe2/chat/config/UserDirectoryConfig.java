@@ -0,0 +1,29 @@
+package com.joejoe2.chat.config;
+
+import com.joejoe2.chat.repository.user.UserRepository;
+import com.joejoe2.chat.service.user.UserDirectory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/** node-local directory of existing users for the auth filter and services */
+@Configuration
+public class UserDirectoryConfig {
+  @Value("${chat.user.directory.max-users:10000}")
+  private int maxUsers;
+
+  @Value("${chat.user.directory.ttl:10m}")
+  private Duration ttl;
+
+  @Bean
+  UserDirectory userDirectory(UserRepository userRepository, MeterRegistry meterRegistry) {
+    UserDirectory directory = new UserDirectory(userRepository::findById, maxUsers, ttl.toNanos());
+    Gauge.builder("chat.user.directory.size", directory, UserDirectory::size)
+        .description("users in the node-local directory")
+        .register(meterRegistry);
+    return directory;
+  }
+}
@@ -1,5 +1,6 @@
 package com.joejoe2.chat.config;
 
+import com.joejoe2.chat.controller.ChannelWSHandler;
 import com.joejoe2.chat.controller.GroupChannelWSHandler;
 import com.joejoe2.chat.controller.PrivateChannelWSHandler;
 import com.joejoe2.chat.controller.PublicChannelWSHandler;
@@ -15,16 +16,19 @@ public class WebSocketConfig implements WebSocketConfigurer {
   private final PublicChannelWSHandler publicChannelWSHandler;
   private final PrivateChannelWSHandler privateChannelWSHandler;
   private final GroupChannelWSHandler groupChannelWSHandler;
+  private final ChannelWSHandler channelWSHandler;
   private final AuthenticatedHandshakeInterceptor authenticatedHandshakeInterceptor;
 
   public WebSocketConfig(
       PublicChannelWSHandler publicChannelWSHandler,
       PrivateChannelWSHandler privateChannelWSHandler,
       GroupChannelWSHandler groupChannelWSHandler,
+      ChannelWSHandler channelWSHandler,
       AuthenticatedHandshakeInterceptor authenticatedHandshakeInterceptor) {
     this.publicChannelWSHandler = publicChannelWSHandler;
     this.privateChannelWSHandler = privateChannelWSHandler;
     this.groupChannelWSHandler = groupChannelWSHandler;
+    this.channelWSHandler = channelWSHandler;
     this.authenticatedHandshakeInterceptor = authenticatedHandshakeInterceptor;
   }
 
@@ -34,6 +38,7 @@ public class WebSocketConfig implements WebSocketConfigurer {
         .addHandler(publicChannelWSHandler, "/ws/channel/public/subscribe")
         .addHandler(privateChannelWSHandler, "/ws/channel/private/subscribe")
         .addHandler(groupChannelWSHandler, "/ws/channel/group/subscribe")
+        .addHandler(channelWSHandler, "/ws/channel/subscribe")
         .addInterceptors(authenticatedHandshakeInterceptor)
         .setAllowedOrigins("*");
   }
@@ -0,0 +1,54 @@
+package com.joejoe2.chat.config;
+
+import com.joejoe2.chat.service.subscription.DeflateGuard;
+import com.joejoe2.chat.service.subscription.DeflateHandshake;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.undertow.websockets.jsr.WebSocketDeploymentInfo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.undertow.UndertowServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/** permessage-deflate of websocket endpoints on undertow, disabled by default */
+@Configuration
+public class WebSocketDeflateConfig {
+  @Value("${chat.ws.deflate.enabled:false}")
+  private boolean enabled;
+
+  @Value("${chat.ws.deflate.level:6}")
+  private int level;
+
+  @Value("${chat.ws.deflate.context-takeover:true}")
+  private boolean contextTakeover;
+
+  @Value("${chat.ws.deflate.min-size:256}")
+  private int minSize;
+
+  @Value("${chat.ws.deflate.max-cpu-load:0.8}")
+  private double maxCpuLoad;
+
+  /**
+   * install the extension into the websocket deployment created by spring boot, customizers without
+   * order run after the one of spring boot
+   */
+  @Bean
+  WebServerFactoryCustomizer<UndertowServletWebServerFactory> webSocketDeflateCustomizer(
+      MeterRegistry meterRegistry) {
+    return factory -> {
+      if (!enabled) return;
+      DeflateHandshake handshake =
+          new DeflateHandshake(
+              level, contextTakeover, new DeflateGuard(minSize, maxCpuLoad, meterRegistry));
+      factory.addDeploymentInfoCustomizers(
+          deploymentInfo -> {
+            WebSocketDeploymentInfo webSocketDeploymentInfo =
+                (WebSocketDeploymentInfo)
+                    deploymentInfo
+                        .getServletContextAttributes()
+                        .get(WebSocketDeploymentInfo.ATTRIBUTE_NAME);
+            if (webSocketDeploymentInfo != null) webSocketDeploymentInfo.addExtension(handshake);
+          });
+    };
+  }
+}
@@ -0,0 +1,235 @@
+package com.joejoe2.chat.controller;
+
+import com.joejoe2.chat.data.channel.ChannelCommandResponse;
+import com.joejoe2.chat.data.channel.request.ChannelCommand;
+import com.joejoe2.chat.exception.ChannelDoesNotExist;
+import com.joejoe2.chat.exception.UserDoesNotExist;
+import com.joejoe2.chat.service.channel.GroupChannelService;
+import com.joejoe2.chat.service.channel.PrivateChannelService;
+import com.joejoe2.chat.service.channel.PublicChannelService;
+import com.joejoe2.chat.service.subscription.OutboundQueueOptions;
+import com.joejoe2.chat.service.subscription.SourceTaggedSubscriber;
+import com.joejoe2.chat.service.subscription.WebSocketSubscriber;
+import com.joejoe2.chat.utils.AuthUtil;
+import com.joejoe2.chat.utils.FrameUtil;
+import com.joejoe2.chat.utils.WebSocketUtil;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+/**
+ * Multiplexed websocket connection, the client subscribes or unsubscribes any mix of public
+ * channels and its private/group streams by control frames:
+ *
+ * <pre>{"action":"subscribe","type":"public","channelId":"..."}
+ * {"action":"unsubscribe","type":"private"}</pre>
+ *
+ * <p>Messages can also be published on the connection by publish commands of {@link
+ * WSCommandHandler}.
+ *
+ * <p>Each frame sent to the client is a json array of messages tagged with their source, ex.
+ * {"source":"public","channelId":"...","message":{...}}, and results of control frames, ex.
+ * {"event":"subscribed","type":"public","channelId":"..."}. All sources of the connection share one
+ * outbound queue, so messages and results are written in order.
+ */
+@Component
+public class ChannelWSHandler extends TextWebSocketHandler {
+  private static final Logger logger = LoggerFactory.getLogger(ChannelWSHandler.class);
+  private static final String CONNECTION = "multiplexedConnection";
+  private static final String PUBLIC = WSCommandHandler.PUBLIC,
+      PRIVATE = WSCommandHandler.PRIVATE,
+      GROUP = WSCommandHandler.GROUP;
+
+  private final PublicChannelService publicChannelService;
+  private final PrivateChannelService privateChannelService;
+  private final GroupChannelService groupChannelService;
+  private final OutboundQueueOptions outboundQueueOptions;
+  private final Executor sendingScheduler;
+  private final WSCommandHandler commandHandler;
+  private final int maxSubscriptions;
+
+  private record Subscription(String type, UUID key, SourceTaggedSubscriber subscriber) {}
+
+  /** state of a connection, guarded by itself */
+  private static class MultiplexedConnection {
+    final String userId;
+    final WebSocketSubscriber subscriber;
+    final Map<String, Subscription> subscriptions = new HashMap<>();
+    boolean closed = false;
+
+    MultiplexedConnection(String userId, WebSocketSubscriber subscriber) {
+      this.userId = userId;
+      this.subscriber = subscriber;
+    }
+  }
+
+  public ChannelWSHandler(
+      PublicChannelService publicChannelService,
+      PrivateChannelService privateChannelService,
+      GroupChannelService groupChannelService,
+      OutboundQueueOptions outboundQueueOptions,
+      @Qualifier("deliveryExecutor") Executor sendingScheduler,
+      WSCommandHandler commandHandler,
+      @Value("${chat.ws.multiplex.max-subscriptions:64}") int maxSubscriptions) {
+    this.publicChannelService = publicChannelService;
+    this.privateChannelService = privateChannelService;
+    this.groupChannelService = groupChannelService;
+    this.outboundQueueOptions = outboundQueueOptions;
+    this.sendingScheduler = sendingScheduler;
+    this.commandHandler = commandHandler;
+    this.maxSubscriptions = maxSubscriptions;
+  }
+
+  @Override
+  public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+    try {
+      String userId = AuthUtil.currentUserDetail(session).getId();
+      WebSocketSubscriber subscriber =
+          new WebSocketSubscriber(session, outboundQueueOptions, sendingScheduler);
+      session.getAttributes().put(CONNECTION, new MultiplexedConnection(userId, subscriber));
+      WebSocketUtil.setSubscriber(session, subscriber);
+      WebSocketUtil.sendConnectMessage(session);
+      subscriber.startHeartbeat();
+    } catch (Exception e) {
+      session.close(CloseStatus.SERVER_ERROR);
+    }
+  }
+
+  @Override
+  protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+    MultiplexedConnection connection =
+        (MultiplexedConnection) session.getAttributes().get(CONNECTION);
+    if (connection == null) return;
+    ChannelCommand command = commandHandler.parse(message.getPayload());
+    commandHandler.reply(
+        connection.subscriber,
+        command == null
+            ? WSCommandHandler.error(null, "invalid command !")
+            : handleCommand(connection, command));
+  }
+
+  private ChannelCommandResponse handleCommand(
+      MultiplexedConnection connection, ChannelCommand command) {
+    String type = command.getType();
+    if (!PUBLIC.equals(type) && !PRIVATE.equals(type) && !GROUP.equals(type))
+      return WSCommandHandler.error(command, "unknown type !");
+    try {
+      if ("subscribe".equals(command.getAction())) return subscribe(connection, command);
+      if ("unsubscribe".equals(command.getAction())) return unsubscribe(connection, command);
+      if ("publish".equals(command.getAction()))
+        return commandHandler.publish(connection.userId, command);
+      return WSCommandHandler.error(command, "unknown action !");
+    } catch (IllegalArgumentException | ChannelDoesNotExist | UserDoesNotExist e) {
+      return WSCommandHandler.error(command, e.getMessage());
+    } catch (Exception e) {
+      logger.error("cannot handle command of user {}", connection.userId, e);
+      return WSCommandHandler.error(command, "internal server error !");
+    }
+  }
+
+  private ChannelCommandResponse subscribe(MultiplexedConnection connection, ChannelCommand command)
+      throws ChannelDoesNotExist, UserDoesNotExist {
+    String id = subscriptionId(command);
+    synchronized (connection) {
+      if (connection.closed) return null;
+      if (connection.subscriptions.containsKey(id))
+        return WSCommandHandler.result("subscribed", command);
+      if (connection.subscriptions.size() >= maxSubscriptions)
+        return WSCommandHandler.error(command, "too many subscriptions !");
+      Subscription subscription =
+          switch (command.getType()) {
+            case PUBLIC -> {
+              UUID channelId = UUID.fromString(command.getChannelId());
+              SourceTaggedSubscriber subscriber =
+                  new SourceTaggedSubscriber(
+                      FrameUtil.sourceTag(PUBLIC, channelId), connection.subscriber);
+              yield new Subscription(
+                  PUBLIC,
+                  publicChannelService.addSubscriber(subscriber, command.getChannelId()),
+                  subscriber);
+            }
+            case PRIVATE -> {
+              SourceTaggedSubscriber subscriber =
+                  new SourceTaggedSubscriber(
+                      FrameUtil.sourceTag(PRIVATE, null), connection.subscriber);
+              yield new Subscription(
+                  PRIVATE,
+                  privateChannelService.addSubscriber(subscriber, connection.userId),
+                  subscriber);
+            }
+            default -> {
+              SourceTaggedSubscriber subscriber =
+                  new SourceTaggedSubscriber(
+                      FrameUtil.sourceTag(GROUP, null), connection.subscriber);
+              yield new Subscription(
+                  GROUP,
+                  groupChannelService.addSubscriber(subscriber, connection.userId),
+                  subscriber);
+            }
+          };
+      connection.subscriptions.put(id, subscription);
+    }
+    return WSCommandHandler.result("subscribed", command);
+  }
+
+  private ChannelCommandResponse unsubscribe(
+      MultiplexedConnection connection, ChannelCommand command) {
+    String id = subscriptionId(command);
+    synchronized (connection) {
+      if (connection.closed) return null;
+      Subscription subscription = connection.subscriptions.remove(id);
+      if (subscription != null) removeSubscription(subscription);
+    }
+    return WSCommandHandler.result("unsubscribed", command);
+  }
+
+  private void removeSubscription(Subscription subscription) {
+    switch (subscription.type) {
+      case PUBLIC -> publicChannelService.removeSubscriber(
+          subscription.subscriber, subscription.key);
+      case PRIVATE -> privateChannelService.removeSubscriber(
+          subscription.subscriber, subscription.key);
+      default -> groupChannelService.removeSubscriber(subscription.subscriber, subscription.key);
+    }
+  }
+
+  private static String subscriptionId(ChannelCommand command) {
+    if (!PUBLIC.equals(command.getType())) return command.getType();
+    if (command.getChannelId() == null)
+      throw new IllegalArgumentException("channelId is missing !");
+    return PUBLIC + ":" + UUID.fromString(command.getChannelId());
+  }
+
+  @Override
+  protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+    WebSocketUtil.handlePong(session);
+  }
+
+  @Override
+  public void handleTransportError(WebSocketSession session, Throwable exception) {
+    WebSocketUtil.handleTransportError(session, exception);
+  }
+
+  @Override
+  public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+    MultiplexedConnection connection =
+        (MultiplexedConnection) session.getAttributes().get(CONNECTION);
+    if (connection == null) return;
+    synchronized (connection) {
+      connection.closed = true;
+      connection.subscriptions.values().forEach(this::removeSubscription);
+      connection.subscriptions.clear();
+    }
+  }
+}
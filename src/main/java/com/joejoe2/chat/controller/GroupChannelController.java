@@ -32,6 +32,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
@@ -134,6 +135,51 @@ public class GroupChannelController {
     }
   }
 
+  @Operation(summary = "get messages in group channel after the sequence number")
+  @AuthenticatedApi
+  @SecurityRequirement(name = "jwt")
+  @ApiResponses(
+      value = {
+        @ApiResponse(
+            responseCode = "403",
+            description = "current user is not a member" + " of target channel",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = ErrorMessageResponse.class))),
+        @ApiResponse(
+            responseCode = "404",
+            description = "target channel is not exist",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = ErrorMessageResponse.class))),
+        @ApiResponse(
+            responseCode = "200",
+            description = "messages in ascending order of seq",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = SliceOfMessage.class))),
+      })
+  @RequestMapping(path = "/getMessagesAfter", method = RequestMethod.GET)
+  public ResponseEntity<Object> getMessagesAfter(
+      @ParameterObject @Valid ChannelPageRequestWithAfter request) throws UserDoesNotExist {
+    try {
+      SliceList<GroupMessageDto> sliceList =
+          messageService.getMessagesAfter(
+              AuthUtil.currentUserDetail().getId(),
+              request.getChannelId(),
+              request.getAfter(),
+              request.getPageRequest());
+      return ResponseEntity.ok(new SliceOfMessage<>(sliceList));
+    } catch (ChannelDoesNotExist e) {
+      return new ResponseEntity<>(new ErrorMessageResponse(e.getMessage()), HttpStatus.NOT_FOUND);
+    } catch (InvalidOperation e) {
+      return new ResponseEntity<>(new ErrorMessageResponse(e.getMessage()), HttpStatus.FORBIDDEN);
+    }
+  }
+
   @Operation(summary = "create a group channel")
   @AuthenticatedApi
   @SecurityRequirement(name = "jwt")
@@ -606,8 +652,10 @@ public class GroupChannelController {
                         @ArraySchema(schema = @Schema(implementation = GroupMessageDto.class)))),
       })
   @RequestMapping(path = "/subscribe", method = RequestMethod.GET)
-  public Object subscribe(@ParameterObject @Valid SubscribeRequest request)
+  public Object subscribe(
+      @ParameterObject @Valid SubscribeRequest request,
+      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId)
       throws UserDoesNotExist {
-    return channelService.subscribe(AuthUtil.currentUserDetail().getId());
+    return channelService.subscribe(AuthUtil.currentUserDetail().getId(), lastEventId);
   }
 }
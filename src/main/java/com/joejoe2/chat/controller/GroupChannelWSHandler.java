@@ -6,35 +6,49 @@ import com.joejoe2.chat.utils.AuthUtil;
 import com.joejoe2.chat.utils.WebSocketUtil;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 @Component
 public class GroupChannelWSHandler extends TextWebSocketHandler {
   private final GroupChannelService channelService;
+  private final WSCommandHandler commandHandler;
 
-  public GroupChannelWSHandler(GroupChannelService channelService) {
+  public GroupChannelWSHandler(
+      GroupChannelService channelService, WSCommandHandler commandHandler) {
     this.channelService = channelService;
+    this.commandHandler = commandHandler;
   }
 
   @Override
   public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-    WebSocketSession webSocketSession =
-        new ConcurrentWebSocketSessionDecorator(session, 5000, 1024 * 512);
     try {
       channelService.subscribe(
-          webSocketSession, AuthUtil.currentUserDetail(webSocketSession).getId());
+          session,
+          AuthUtil.currentUserDetail(session).getId(),
+          (String) session.getAttributes().get("lastMessageId"));
     } catch (IllegalArgumentException | UserDoesNotExist e) {
-      webSocketSession.close(CloseStatus.BAD_DATA);
+      session.close(CloseStatus.BAD_DATA);
     } catch (Exception e) {
-      webSocketSession.close(CloseStatus.SERVER_ERROR);
+      session.close(CloseStatus.SERVER_ERROR);
     }
   }
 
+  @Override
+  protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+    commandHandler.handlePublish(session, message, WSCommandHandler.GROUP, null);
+  }
+
+  @Override
+  protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+    WebSocketUtil.handlePong(session);
+  }
+
   @Override
   public void handleTransportError(WebSocketSession session, Throwable exception) {
-    exception.printStackTrace();
+    WebSocketUtil.handleTransportError(session, exception);
   }
 
   @Override
@@ -8,6 +8,7 @@ import com.joejoe2.chat.data.SliceList;
 import com.joejoe2.chat.data.channel.SliceOfPrivateChannel;
 import com.joejoe2.chat.data.channel.profile.PrivateChannelProfile;
 import com.joejoe2.chat.data.channel.request.ChannelBlockRequest;
+import com.joejoe2.chat.data.channel.request.ChannelPageRequestWithAfter;
 import com.joejoe2.chat.data.channel.request.ChannelRequest;
 import com.joejoe2.chat.data.channel.request.CreatePrivateChannelRequest;
 import com.joejoe2.chat.data.channel.request.SubscribeRequest;
@@ -31,6 +32,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
@@ -132,6 +134,51 @@ public class PrivateChannelController {
     return ResponseEntity.ok(new SliceOfMessage<>(sliceList));
   }
 
+  @Operation(summary = "get messages in private channel after the sequence number")
+  @AuthenticatedApi
+  @SecurityRequirement(name = "jwt")
+  @ApiResponses(
+      value = {
+        @ApiResponse(
+            responseCode = "403",
+            description = "current user is not a member" + " of target channel",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = ErrorMessageResponse.class))),
+        @ApiResponse(
+            responseCode = "404",
+            description = "target channel is not exist",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = ErrorMessageResponse.class))),
+        @ApiResponse(
+            responseCode = "200",
+            description = "messages in ascending order of seq",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = SliceOfMessage.class))),
+      })
+  @RequestMapping(path = "/getMessagesAfter", method = RequestMethod.GET)
+  public ResponseEntity<Object> getMessagesAfter(
+      @ParameterObject @Valid ChannelPageRequestWithAfter request) throws UserDoesNotExist {
+    try {
+      SliceList<PrivateMessageDto> sliceList =
+          messageService.getMessagesAfter(
+              AuthUtil.currentUserDetail().getId(),
+              request.getChannelId(),
+              request.getAfter(),
+              request.getPageRequest());
+      return ResponseEntity.ok(new SliceOfMessage<>(sliceList));
+    } catch (ChannelDoesNotExist e) {
+      return new ResponseEntity<>(new ErrorMessageResponse(e.getMessage()), HttpStatus.NOT_FOUND);
+    } catch (InvalidOperation e) {
+      return new ResponseEntity<>(new ErrorMessageResponse(e.getMessage()), HttpStatus.FORBIDDEN);
+    }
+  }
+
   @Operation(summary = "create public channel")
   @AuthenticatedApi
   @SecurityRequirement(name = "jwt")
@@ -246,9 +293,11 @@ public class PrivateChannelController {
                         @ArraySchema(schema = @Schema(implementation = PrivateMessageDto.class)))),
       })
   @RequestMapping(path = "/subscribe", method = RequestMethod.GET)
-  public Object subscribe(@ParameterObject @Valid SubscribeRequest request)
+  public Object subscribe(
+      @ParameterObject @Valid SubscribeRequest request,
+      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId)
       throws UserDoesNotExist {
-    return channelService.subscribe(AuthUtil.currentUserDetail().getId());
+    return channelService.subscribe(AuthUtil.currentUserDetail().getId(), lastEventId);
   }
 
   @Operation(summary = "set block state of private channel")
@@ -5,6 +5,7 @@ import com.joejoe2.chat.data.*;
 import com.joejoe2.chat.data.channel.PageOfChannel;
 import com.joejoe2.chat.data.channel.profile.PublicChannelProfile;
 import com.joejoe2.chat.data.channel.request.ChannelPageRequest;
+import com.joejoe2.chat.data.channel.request.ChannelPageRequestWithAfter;
 import com.joejoe2.chat.data.channel.request.ChannelPageRequestWithSince;
 import com.joejoe2.chat.data.channel.request.ChannelRequest;
 import com.joejoe2.chat.data.channel.request.CreateChannelByNameRequest;
@@ -31,6 +32,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
@@ -144,6 +146,39 @@ public class PublicChannelController {
     }
   }
 
+  @Operation(summary = "get messages in public channel after the sequence number")
+  @AuthenticatedApi
+  @SecurityRequirement(name = "jwt")
+  @ApiResponses(
+      value = {
+        @ApiResponse(
+            responseCode = "404",
+            description = "target channel is not exist",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = ErrorMessageResponse.class))),
+        @ApiResponse(
+            responseCode = "200",
+            description = "messages in ascending order of seq",
+            content =
+                @Content(
+                    mediaType = "application/json",
+                    schema = @Schema(implementation = SliceOfMessage.class))),
+      })
+  @RequestMapping(path = "/getMessagesAfter", method = RequestMethod.GET)
+  public ResponseEntity<Object> getMessagesAfter(
+      @ParameterObject @Valid ChannelPageRequestWithAfter request) {
+    try {
+      SliceList<PublicMessageDto> sliceList =
+          messageService.getMessagesAfter(
+              request.getChannelId(), request.getAfter(), request.getPageRequest());
+      return ResponseEntity.ok(new SliceOfMessage<>(sliceList));
+    } catch (ChannelDoesNotExist e) {
+      return new ResponseEntity<>(new ErrorMessageResponse(e.getMessage()), HttpStatus.NOT_FOUND);
+    }
+  }
+
   @Operation(summary = "create public channel")
   @AuthenticatedApi
   @SecurityRequirement(name = "jwt")
@@ -246,9 +281,11 @@ public class PublicChannelController {
                         @ArraySchema(schema = @Schema(implementation = PublicMessageDto.class)))),
       })
   @RequestMapping(path = "/subscribe", method = RequestMethod.GET)
-  public Object subscribe(@ParameterObject @Valid SubscribeChannelRequest request) {
+  public Object subscribe(
+      @ParameterObject @Valid SubscribeChannelRequest request,
+      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
     try {
-      return channelService.subscribe(request.getChannelId());
+      return channelService.subscribe(request.getChannelId(), lastEventId);
     } catch (ChannelDoesNotExist e) {
       return new ResponseEntity<>(new ErrorMessageResponse(e.getMessage()), HttpStatus.NOT_FOUND);
     }
@@ -5,35 +5,52 @@ import com.joejoe2.chat.service.channel.PublicChannelService;
 import com.joejoe2.chat.utils.WebSocketUtil;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 @Component
 public class PublicChannelWSHandler extends TextWebSocketHandler {
   private final PublicChannelService channelService;
+  private final WSCommandHandler commandHandler;
 
-  public PublicChannelWSHandler(PublicChannelService channelService) {
+  public PublicChannelWSHandler(
+      PublicChannelService channelService, WSCommandHandler commandHandler) {
     this.channelService = channelService;
+    this.commandHandler = commandHandler;
   }
 
   @Override
   public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-    WebSocketSession webSocketSession =
-        new ConcurrentWebSocketSessionDecorator(session, 5000, 1024 * 512);
     try {
-      String channelId = (String) webSocketSession.getAttributes().getOrDefault("channelId", "");
-      channelService.subscribe(webSocketSession, channelId);
+      String channelId = (String) session.getAttributes().getOrDefault("channelId", "");
+      channelService.subscribe(
+          session, channelId, (String) session.getAttributes().get("lastMessageId"));
     } catch (IllegalArgumentException | ChannelDoesNotExist e) {
-      webSocketSession.close(CloseStatus.BAD_DATA);
+      session.close(CloseStatus.BAD_DATA);
     } catch (Exception e) {
-      webSocketSession.close(CloseStatus.SERVER_ERROR);
+      session.close(CloseStatus.SERVER_ERROR);
     }
   }
 
+  @Override
+  protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+    commandHandler.handlePublish(
+        session,
+        message,
+        WSCommandHandler.PUBLIC,
+        (String) session.getAttributes().get("channelId"));
+  }
+
+  @Override
+  protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+    WebSocketUtil.handlePong(session);
+  }
+
   @Override
   public void handleTransportError(WebSocketSession session, Throwable exception) {
-    exception.printStackTrace();
+    WebSocketUtil.handleTransportError(session, exception);
   }
 
   @Override
@@ -0,0 +1,177 @@
+package com.joejoe2.chat.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.joejoe2.chat.data.channel.ChannelCommandResponse;
+import com.joejoe2.chat.data.channel.request.ChannelCommand;
+import com.joejoe2.chat.data.message.GroupMessageDto;
+import com.joejoe2.chat.data.message.PrivateMessageDto;
+import com.joejoe2.chat.data.message.PublicMessageDto;
+import com.joejoe2.chat.exception.BlockedException;
+import com.joejoe2.chat.exception.ChannelDoesNotExist;
+import com.joejoe2.chat.exception.InvalidOperation;
+import com.joejoe2.chat.exception.UserDoesNotExist;
+import com.joejoe2.chat.service.message.GroupMessageService;
+import com.joejoe2.chat.service.message.PrivateMessageService;
+import com.joejoe2.chat.service.message.PublicMessageService;
+import com.joejoe2.chat.service.subscription.SharedFrame;
+import com.joejoe2.chat.service.subscription.Subscriber;
+import com.joejoe2.chat.utils.AuthUtil;
+import com.joejoe2.chat.utils.WebSocketUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Parse command frames of websocket connections and reply results, publish commands reuse the same
+ * createMessage + deliverMessage path as the publishMessage apis, but the user is authenticated
+ * once per connection instead of once per message:
+ *
+ * <pre>{"action":"publish","id":"1","type":"public","channelId":"...","message":"hi"}</pre>
+ *
+ * <p>is answered by {"event":"ack","id":"1",...,"data":{message}} or {"event":"error","id":"1",
+ * ...,"message":"reason"}.
+ */
+@Component
+public class WSCommandHandler {
+  private static final Logger logger = LoggerFactory.getLogger(WSCommandHandler.class);
+  static final String PUBLIC = "public", PRIVATE = "private", GROUP = "group";
+
+  private final PublicMessageService publicMessageService;
+  private final PrivateMessageService privateMessageService;
+  private final GroupMessageService groupMessageService;
+  private final ObjectMapper objectMapper;
+
+  public WSCommandHandler(
+      PublicMessageService publicMessageService,
+      PrivateMessageService privateMessageService,
+      GroupMessageService groupMessageService,
+      ObjectMapper objectMapper) {
+    this.publicMessageService = publicMessageService;
+    this.privateMessageService = privateMessageService;
+    this.groupMessageService = groupMessageService;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * parse the command frame
+   *
+   * @param payload text of the frame
+   * @return command or null if it is not a valid command
+   */
+  ChannelCommand parse(String payload) {
+    try {
+      return objectMapper.readValue(payload, ChannelCommand.class);
+    } catch (JsonProcessingException e) {
+      return null;
+    }
+  }
+
+  /**
+   * handle the publish command of the user
+   *
+   * @param userId id of the user of the connection
+   * @param command publish command, its type is one of public, private or group
+   * @return ack or error
+   */
+  ChannelCommandResponse publish(String userId, ChannelCommand command) {
+    try {
+      Object message =
+          switch (command.getType()) {
+            case PUBLIC -> {
+              PublicMessageDto dto =
+                  publicMessageService.createMessage(
+                      userId, command.getChannelId(), command.getMessage());
+              publicMessageService.deliverMessage(dto);
+              yield dto;
+            }
+            case PRIVATE -> {
+              PrivateMessageDto dto =
+                  privateMessageService.createMessage(
+                      userId, command.getChannelId(), command.getMessage());
+              privateMessageService.deliverMessage(dto);
+              yield dto;
+            }
+            case GROUP -> {
+              GroupMessageDto dto =
+                  groupMessageService.createMessage(
+                      userId, command.getChannelId(), command.getMessage());
+              groupMessageService.deliverMessage(dto);
+              yield dto;
+            }
+            default -> throw new IllegalArgumentException("unknown type !");
+          };
+      ChannelCommandResponse ack = result("ack", command);
+      ack.setData(message);
+      return ack;
+    } catch (IllegalArgumentException
+        | UserDoesNotExist
+        | ChannelDoesNotExist
+        | InvalidOperation
+        | BlockedException e) {
+      return error(command, e.getMessage());
+    } catch (Exception e) {
+      logger.error("cannot publish message of user {}", userId, e);
+      return error(command, "internal server error !");
+    }
+  }
+
+  /**
+   * handle the publish command received on a connection of a single type(ex. from {@link
+   * PublicChannelWSHandler}), the type of the command is the type of the connection
+   *
+   * @param session websocket session with its subscriber
+   * @param message inbound frame
+   * @param type type of the connection
+   * @param defaultChannelId channel id used when the command does not have one, may be null
+   */
+  void handlePublish(
+      WebSocketSession session, TextMessage message, String type, String defaultChannelId) {
+    Subscriber subscriber = WebSocketUtil.getSubscriber(session);
+    if (subscriber == null) return;
+    ChannelCommand command = parse(message.getPayload());
+    if (command == null || !"publish".equals(command.getAction())) {
+      reply(subscriber, error(command, "invalid command !"));
+      return;
+    }
+    command.setType(type);
+    if (command.getChannelId() == null) command.setChannelId(defaultChannelId);
+    reply(subscriber, publish(AuthUtil.currentUserDetail(session).getId(), command));
+  }
+
+  static ChannelCommandResponse result(String event, ChannelCommand command) {
+    return ChannelCommandResponse.builder()
+        .event(event)
+        .id(command.getId())
+        .type(command.getType())
+        .channelId(command.getChannelId())
+        .build();
+  }
+
+  static ChannelCommandResponse error(ChannelCommand command, String message) {
+    return ChannelCommandResponse.builder()
+        .event("error")
+        .id(command == null ? null : command.getId())
+        .type(command == null ? null : command.getType())
+        .channelId(command == null ? null : command.getChannelId())
+        .message(message)
+        .build();
+  }
+
+  /**
+   * reply through the outbound queue of the connection, so results are ordered with messages
+   *
+   * @param subscriber subscriber of the connection
+   * @param response result, ignored if null
+   */
+  void reply(Subscriber subscriber, ChannelCommandResponse response) {
+    if (subscriber == null || response == null) return;
+    try {
+      subscriber.deliver(new SharedFrame(objectMapper.writeValueAsBytes(response)));
+    } catch (JsonProcessingException e) {
+      logger.error("cannot serialize command response", e);
+    }
+  }
+}
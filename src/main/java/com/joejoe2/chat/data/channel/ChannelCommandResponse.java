@@ -0,0 +1,31 @@
+package com.joejoe2.chat.data.channel;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** result of a command frame sent back on the websocket connection */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChannelCommandResponse {
+  /** subscribed, unsubscribed, ack or error */
+  private String event;
+
+  /** correlation id of the command */
+  private String id;
+
+  private String type;
+
+  private String channelId;
+
+  /** reason of the error */
+  private String message;
+
+  /** published message of an ack */
+  private Object data;
+}
@@ -0,0 +1,28 @@
+package com.joejoe2.chat.data.channel.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** command frame sent by the client on a websocket connection */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChannelCommand {
+  /** subscribe, unsubscribe or publish */
+  private String action;
+
+  /** correlation id assigned by the client, echoed in the result */
+  private String id;
+
+  /** public, private or group */
+  private String type;
+
+  /** id of the public channel to subscribe, or id of the channel to publish */
+  private String channelId;
+
+  /** content of the message to publish */
+  private String message;
+}
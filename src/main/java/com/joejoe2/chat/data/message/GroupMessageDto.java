@@ -22,5 +22,6 @@ public class GroupMessageDto extends MessageDto {
         message.getContent(),
         TimeUtil.roundToMicro(message.getCreateAt()).toString(),
         TimeUtil.roundToMicro(message.getUpdateAt()).toString());
+    this.seq = message.getSeq();
   }
 }
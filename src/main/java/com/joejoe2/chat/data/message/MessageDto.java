@@ -21,6 +21,9 @@ public class MessageDto {
   @Schema(description = "version of the message")
   protected Double version;
 
+  @Schema(description = "sequence number of the message in its channel")
+  protected Long seq;
+
   @Schema(description = "id of the message")
   protected UUID id;
 
@@ -92,6 +95,7 @@ public class MessageDto {
     if (this == o) return true;
     if (!(o instanceof MessageDto that)) return false;
     return version.equals(that.version)
+        && Objects.equals(seq, that.seq)
         && id.equals(that.id)
         && channel.equals(that.channel)
         && messageType == that.messageType
@@ -104,6 +108,7 @@ public class MessageDto {
 
   @Override
   public int hashCode() {
-    return Objects.hash(version, id, channel, messageType, from, to, content, createAt, updateAt);
+    return Objects.hash(
+        version, seq, id, channel, messageType, from, to, content, createAt, updateAt);
   }
 }
@@ -20,11 +20,12 @@ public class PrivateMessageDto extends MessageDto {
             .username(message.getFrom().getUserName())
             .build(),
         UserPublicProfile.builder()
-            .id(message.getFrom().getId().toString())
+            .id(message.getTo().getId().toString())
             .username(message.getTo().getUserName())
             .build(),
         message.getContent(),
         TimeUtil.roundToMicro(message.getCreateAt()).toString(),
         TimeUtil.roundToMicro(message.getUpdateAt()).toString());
+    this.seq = message.getSeq();
   }
 }
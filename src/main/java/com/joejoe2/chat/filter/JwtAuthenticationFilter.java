@@ -16,6 +16,10 @@ import org.springframework.web.filter.OncePerRequestFilter;
 
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
+  /** user detail resolved by the initial dispatch, reused by async dispatches of the request */
+  private static final String USER_DETAIL_ATTRIBUTE =
+      JwtAuthenticationFilter.class.getName() + ".USER_DETAIL";
+
   private final JwtService jwtService;
   private final UserService userService;
 
@@ -28,6 +32,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
   protected void doFilterInternal(
       HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
       throws ServletException, IOException {
+    if (isAsyncDispatch(request)
+        && request.getAttribute(USER_DETAIL_ATTRIBUTE) instanceof UserDetail userDetail) {
+      AuthUtil.setCurrentUserDetail(userDetail);
+      filterChain.doFilter(request, response);
+      return;
+    }
     try {
       String accessToken = HttpUtil.extractAccessToken(request);
       if (accessToken != null) {
@@ -36,6 +46,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         UserDetail userDetail = jwtService.getUserDetailFromAccessToken(accessToken);
         userService.createUserIfAbsent(userDetail);
         AuthUtil.setCurrentUserDetail(userDetail);
+        request.setAttribute(USER_DETAIL_ATTRIBUTE, userDetail);
       }
     } catch (InvalidTokenException e) {
       response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
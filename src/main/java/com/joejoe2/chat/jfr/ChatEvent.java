@@ -0,0 +1,77 @@
+package com.joejoe2.chat.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Base of java flight recorder events of the publish and delivery pipeline. Events are only
+ * recorded while a recording enables them(ex. -XX:StartFlightRecording or jcmd JFR.start), so an
+ * event costs little more than its allocation otherwise. Fields are only filled when {@link
+ * #shouldCommit()} is true.
+ */
+@Category({"Chat", "Delivery"})
+public abstract class ChatEvent extends Event {
+  @Label("Channel Type")
+  @Description("public, private or group, or the name of the subscription registry")
+  public String channelType;
+
+  @Label("Payload Size")
+  @Description("utf-8 bytes of the message content or encoded bytes received/sent")
+  @DataAmount
+  public int payloadSize;
+
+  @Label("Subscribers")
+  @Description("number of subscribers or recipients involved, 0 if not applicable")
+  public int subscribers;
+
+  /**
+   * end the event and commit it with the fields if it is recorded
+   *
+   * @param channelType channel type
+   * @param payloadSize payload size
+   * @param subscribers number of subscribers
+   */
+  public void finish(String channelType, int payloadSize, int subscribers) {
+    end();
+    if (!shouldCommit()) return;
+    this.channelType = channelType;
+    this.payloadSize = payloadSize;
+    this.subscribers = subscribers;
+    commit();
+  }
+
+  /**
+   * end the event and commit it with the fields if it is recorded
+   *
+   * @param channelType channel type
+   * @param content message content, its utf-8 length is the payload size
+   * @param subscribers number of subscribers
+   */
+  public void finish(String channelType, String content, int subscribers) {
+    end();
+    if (!shouldCommit()) return;
+    this.channelType = channelType;
+    this.payloadSize = utf8Length(content);
+    this.subscribers = subscribers;
+    commit();
+  }
+
+  /** number of utf-8 bytes of the string without encoding it */
+  public static int utf8Length(String s) {
+    if (s == null) return 0;
+    int length = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) length += 1;
+      else if (c < 0x800) length += 2;
+      else if (Character.isHighSurrogate(c)) {
+        length += 4;
+        i++;
+      } else length += 3;
+    }
+    return length;
+  }
+}
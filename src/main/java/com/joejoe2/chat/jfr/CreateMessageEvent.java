@@ -0,0 +1,21 @@
+package com.joejoe2.chat.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** a call of createMessage, from the validation to the ack of the writer */
+@Name("com.joejoe2.chat.CreateMessage")
+@Label("Create Message")
+public class CreateMessageEvent extends ChatEvent {
+  @Label("Failure")
+  @Description("class of the exception if the message is not created")
+  public String failure;
+
+  /** begin the event of a createMessage call */
+  public static CreateMessageEvent start() {
+    CreateMessageEvent event = new CreateMessageEvent();
+    event.begin();
+    return event;
+  }
+}
@@ -0,0 +1,9 @@
+package com.joejoe2.chat.jfr;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** deliverMessage publishing a message to nats, subscribers are the number of publishes */
+@Name("com.joejoe2.chat.DeliverMessage")
+@Label("Deliver Message")
+public class DeliverMessageEvent extends ChatEvent {}
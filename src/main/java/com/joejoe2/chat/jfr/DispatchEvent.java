@@ -0,0 +1,12 @@
+package com.joejoe2.chat.jfr;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * fan-out of a message received from nats to the outbound queues of subscribers on this node,
+ * subscribers are the number of queues the message is delivered to
+ */
+@Name("com.joejoe2.chat.Dispatch")
+@Label("Dispatch")
+public class DispatchEvent extends ChatEvent {}
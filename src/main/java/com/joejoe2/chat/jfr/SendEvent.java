@@ -0,0 +1,22 @@
+package com.joejoe2.chat.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** socket write of a frame to a subscriber, the channel type is the one of its first message */
+@Name("com.joejoe2.chat.Send")
+@Label("Send")
+public class SendEvent extends ChatEvent {
+  @Label("Transport")
+  @Description("sse or websocket")
+  public String transport;
+
+  @Label("Messages")
+  @Description("number of messages coalesced into the frame")
+  public int messages;
+
+  @Label("Failure")
+  @Description("class of the exception if the write failed")
+  public String failure;
+}
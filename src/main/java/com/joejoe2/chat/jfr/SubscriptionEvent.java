@@ -0,0 +1,21 @@
+package com.joejoe2.chat.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * a subscriber is registered to or removed from a subscription registry, the channel type is the
+ * name of the registry and subscribers are the subscribers of the key afterwards
+ */
+@Name("com.joejoe2.chat.Subscription")
+@Label("Subscription")
+public class SubscriptionEvent extends ChatEvent {
+  @Label("Action")
+  @Description("subscribe or unsubscribe")
+  public String action;
+
+  @Label("Key")
+  @Description("channel id or user id")
+  public String key;
+}
@@ -7,10 +7,12 @@ import java.util.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.DynamicUpdate;
 
 @Data
 @NoArgsConstructor
 @Entity
+@DynamicUpdate
 @BatchSize(size = 128)
 @Table(name = "group_channel", indexes = @Index(columnList = "updateAt DESC"))
 public class GroupChannel extends TimeStampBase {
@@ -52,8 +54,12 @@ public class GroupChannel extends TimeStampBase {
   @OneToMany(cascade = CascadeType.ALL, mappedBy = "channel", orphanRemoval = true)
   private List<GroupMessage> messages = new ArrayList<>();
 
+  /**
+   * only written on insert, saves of the channel never write it back from a stale copy, it is moved
+   * by {@link com.joejoe2.chat.repository.channel.GroupChannelRepository#advanceLastMessage}
+   */
   @OneToOne(fetch = FetchType.LAZY)
-  @JoinColumn
+  @JoinColumn(updatable = false)
   private GroupMessage lastMessage;
 
   public GroupChannel(User creator) {
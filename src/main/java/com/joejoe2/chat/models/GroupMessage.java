@@ -5,6 +5,7 @@ import java.time.Instant;
 import java.util.Objects;
 import lombok.*;
 import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Generated;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
@@ -18,6 +19,7 @@ import org.hibernate.annotations.OnDeleteAction;
     indexes = {
       @Index(columnList = "from_id"),
       @Index(columnList = "channel_id"),
+      @Index(columnList = "channel_id, seq", unique = true),
       @Index(columnList = "updateAt DESC")
     })
 @BatchSize(size = 32)
@@ -26,6 +28,11 @@ public class GroupMessage extends TimeStampBase {
   @Column(nullable = false, columnDefinition = "TIMESTAMP DEFAULT now()")
   private Instant version;
 
+  /** sequence number of the message in its channel, assigned by the database on insert */
+  @Generated
+  @Column(insertable = false, updatable = false)
+  private Long seq;
+
   @ManyToOne(optional = false, fetch = FetchType.LAZY)
   @OnDelete(action = OnDeleteAction.CASCADE)
   private GroupChannel channel;
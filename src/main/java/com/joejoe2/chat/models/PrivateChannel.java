@@ -8,10 +8,12 @@ import java.util.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.DynamicUpdate;
 
 @Data
 @NoArgsConstructor
 @Entity
+@DynamicUpdate
 @BatchSize(size = 128)
 @Table(
     name = "private_channel",
@@ -40,8 +42,12 @@ public class PrivateChannel extends TimeStampBase {
   @OneToMany(cascade = CascadeType.ALL, mappedBy = "channel", orphanRemoval = true)
   private List<PrivateMessage> messages;
 
+  /**
+   * only written on insert, saves of the channel never write it back from a stale copy, it is moved
+   * by {@link com.joejoe2.chat.repository.channel.PrivateChannelRepository#advanceLastMessage}
+   */
   @OneToOne(fetch = FetchType.LAZY)
-  @JoinColumn
+  @JoinColumn(updatable = false)
   private PrivateMessage lastMessage;
 
   public PrivateChannel(Set<User> members) {
@@ -7,6 +7,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Generated;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
@@ -21,6 +22,7 @@ import org.hibernate.annotations.OnDeleteAction;
       @Index(columnList = "to_id"),
       @Index(columnList = "from_id"),
       @Index(columnList = "channel_id"),
+      @Index(columnList = "channel_id, seq", unique = true),
       @Index(columnList = "updateAt DESC")
     })
 public class PrivateMessage extends TimeStampBase {
@@ -28,6 +30,11 @@ public class PrivateMessage extends TimeStampBase {
   @Column(nullable = false, columnDefinition = "TIMESTAMP DEFAULT now()")
   private Instant version;
 
+  /** sequence number of the message in its channel, assigned by the database on insert */
+  @Generated
+  @Column(insertable = false, updatable = false)
+  private Long seq;
+
   @ManyToOne(optional = false, fetch = FetchType.LAZY)
   @OnDelete(action = OnDeleteAction.CASCADE)
   private PrivateChannel channel;
@@ -7,6 +7,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Generated;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
@@ -17,12 +18,21 @@ import org.hibernate.annotations.OnDeleteAction;
 @Entity
 @Table(
     name = "public_message",
-    indexes = {@Index(columnList = "channel_id"), @Index(columnList = "updateAt DESC")})
+    indexes = {
+      @Index(columnList = "channel_id"),
+      @Index(columnList = "channel_id, seq", unique = true),
+      @Index(columnList = "updateAt DESC")
+    })
 public class PublicMessage extends TimeStampBase {
   @Version
   @Column(nullable = false, columnDefinition = "TIMESTAMP DEFAULT now()")
   private Instant version;
 
+  /** sequence number of the message in its channel, assigned by the database on insert */
+  @Generated
+  @Column(insertable = false, updatable = false)
+  private Long seq;
+
   @ManyToOne(optional = false, fetch = FetchType.LAZY)
   @OnDelete(action = OnDeleteAction.CASCADE)
   private PublicChannel channel;
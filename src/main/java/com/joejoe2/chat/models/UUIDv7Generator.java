@@ -2,6 +2,7 @@ package com.joejoe2.chat.models;
 
 import com.fasterxml.uuid.Generators;
 import java.io.Serializable;
+import java.util.UUID;
 import org.hibernate.HibernateException;
 import org.hibernate.engine.spi.SharedSessionContractImplementor;
 import org.hibernate.id.IdentifierGenerator;
@@ -10,6 +11,11 @@ public class UUIDv7Generator implements IdentifierGenerator {
   @Override
   public Serializable generate(SharedSessionContractImplementor session, Object object)
       throws HibernateException {
+    return nextId();
+  }
+
+  /** generate an id for entities inserted without hibernate */
+  public static UUID nextId() {
     return Generators.timeBasedEpochGenerator().generate();
   }
 }
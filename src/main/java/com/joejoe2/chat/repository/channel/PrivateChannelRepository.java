@@ -2,6 +2,7 @@ package com.joejoe2.chat.repository.channel;
 
 import com.joejoe2.chat.models.PrivateChannel;
 import com.joejoe2.chat.models.User;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -10,6 +11,7 @@ import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -51,8 +53,39 @@ public interface PrivateChannelRepository extends JpaRepository<PrivateChannel,
     return findByUniqueUserIds(ids[0].toString() + ids[1].toString()).isPresent();
   }
 
+  /** ids of members of the channel without loading users, not cached */
+  @Query("SELECT u.id from PrivateChannel ch join ch.members u where ch.id = :id")
+  List<UUID> findMemberIds(@Param("id") UUID id);
+
+  /** ids of members blocking the channel without loading users, not cached */
+  @Query("SELECT u.id from PrivateChannel ch join ch.blockedBy u where ch.id = :id")
+  List<UUID> findBlockedByIds(@Param("id") UUID id);
+
+  /**
+   * advance the last message and updateAt of the channel if the message is newer than the current
+   * last message, the version is not changed, so concurrent senders never conflict with each other
+   * or with block actions. The guard compares the time of the current last message instead of
+   * updateAt of the channel, which is also moved by saves of the channel itself, and updateAt never
+   * goes back.
+   *
+   * @return number of updated channels, 0 if a newer message is already the last one
+   */
+  @Modifying
+  @Query(
+      nativeQuery = true,
+      value =
+          "UPDATE private_channel ch SET last_message_id = :message,"
+              + " update_at = GREATEST(ch.update_at, :updateAt) WHERE ch.id = :id"
+              + " AND NOT EXISTS (SELECT 1 FROM private_message m"
+              + " WHERE m.id = ch.last_message_id AND m.update_at >= :updateAt)")
+  int advanceLastMessage(
+      @Param("id") UUID id,
+      @Param("message") UUID messageId,
+      @Param("updateAt") Instant updateAt);
+
   @Cacheable(
       value = "PrivateChannelMembers",
+      sync = true,
       key = "'PrivateChannelMembers:{'+ #id.toString() +'}'")
   @Query("SELECT u.id from PrivateChannel ch join ch.members u where ch.id = :id")
   List<UUID> getMembersIdByChannel(@Param("id") UUID id);
@@ -21,9 +21,21 @@ public interface GroupMessageRepository extends JpaRepository<GroupMessage, UUID
   Slice<GroupMessage> findAllByChannelSince(
       @Param("channel") GroupChannel channel, @Param("since") Instant since, Pageable pageable);
 
+  @Query(
+      "SELECT msg FROM GroupMessage msg WHERE :user MEMBER OF msg.channel.members"
+          + " AND msg.updateAt >= :since ORDER BY msg.updateAt DESC")
+  Slice<GroupMessage> findAllByMemberSince(
+      @Param("user") User user, @Param("since") Instant since, Pageable pageable);
+
   @Query("SELECT msg FROM GroupMessage msg WHERE msg.channel = :channel ORDER BY msg.updateAt DESC")
   Slice<GroupMessage> findAllByChannel(@Param("channel") GroupChannel channel, Pageable pageable);
 
+  @Query(
+      "SELECT msg FROM GroupMessage msg WHERE msg.channel = :channel AND msg.seq > :after"
+          + " ORDER BY msg.seq ASC")
+  Slice<GroupMessage> findAllByChannelAfter(
+      @Param("channel") GroupChannel channel, @Param("after") long after, Pageable pageable);
+
   @Query(
       "SELECT invitation.invitationMessage from GroupInvitation invitation "
           + "where invitation.user = :user "
@@ -0,0 +1,114 @@
+package com.joejoe2.chat.repository.message;
+
+import com.joejoe2.chat.models.GroupMessage;
+import com.joejoe2.chat.models.PrivateMessage;
+import com.joejoe2.chat.models.PublicMessage;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Insert new messages by jdbc batches, which are sent to the database in one round trip instead of
+ * one insert and one select(of the generated seq) per message by jpa. Ids and timestamps must be
+ * assigned to messages before the insert, seq assigned by the database is set back to messages.
+ * Must be called in a transaction.
+ */
+@Repository
+public class MessageBatchRepository {
+  private final JdbcTemplate jdbcTemplate;
+  private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+  public MessageBatchRepository(
+      JdbcTemplate jdbcTemplate, NamedParameterJdbcTemplate namedJdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.namedJdbcTemplate = namedJdbcTemplate;
+  }
+
+  public void insertPublicMessages(List<PublicMessage> messages) {
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO public_message (id, create_at, update_at, version, channel_id, message_type, "
+            + "from_id, content) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+        messages,
+        messages.size(),
+        (ps, message) -> {
+          ps.setObject(1, message.getId());
+          setInstant(ps, 2, message.getCreateAt());
+          setInstant(ps, 3, message.getUpdateAt());
+          setInstant(ps, 4, message.getVersion());
+          ps.setObject(5, message.getChannel().getId());
+          ps.setString(6, message.getMessageType().name());
+          ps.setObject(7, message.getFrom().getId());
+          ps.setString(8, message.getContent());
+        });
+    loadSeq("public_message", messages, PublicMessage::getId, PublicMessage::setSeq);
+  }
+
+  public void insertPrivateMessages(List<PrivateMessage> messages) {
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO private_message (id, create_at, update_at, version, channel_id, message_type, "
+            + "from_id, to_id, content) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+        messages,
+        messages.size(),
+        (ps, message) -> {
+          ps.setObject(1, message.getId());
+          setInstant(ps, 2, message.getCreateAt());
+          setInstant(ps, 3, message.getUpdateAt());
+          setInstant(ps, 4, message.getVersion());
+          ps.setObject(5, message.getChannel().getId());
+          ps.setString(6, message.getMessageType().name());
+          ps.setObject(7, message.getFrom().getId());
+          ps.setObject(8, message.getTo().getId());
+          ps.setString(9, message.getContent());
+        });
+    loadSeq("private_message", messages, PrivateMessage::getId, PrivateMessage::setSeq);
+  }
+
+  public void insertGroupMessages(List<GroupMessage> messages) {
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO group_message (id, create_at, update_at, version, channel_id, message_type, "
+            + "from_id, content) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+        messages,
+        messages.size(),
+        (ps, message) -> {
+          ps.setObject(1, message.getId());
+          setInstant(ps, 2, message.getCreateAt());
+          setInstant(ps, 3, message.getUpdateAt());
+          setInstant(ps, 4, message.getVersion());
+          ps.setObject(5, message.getChannel().getId());
+          ps.setString(6, message.getMessageType().name());
+          ps.setObject(7, message.getFrom().getId());
+          ps.setString(8, message.getContent());
+        });
+    loadSeq("group_message", messages, GroupMessage::getId, GroupMessage::setSeq);
+  }
+
+  /** bind the same way as hibernate binds Instant on postgresql */
+  private static void setInstant(PreparedStatement ps, int index, Instant instant)
+      throws SQLException {
+    ps.setObject(index, instant.atOffset(ZoneOffset.UTC), Types.TIMESTAMP_WITH_TIMEZONE);
+  }
+
+  /** seq is assigned by the trigger of the table */
+  private <T> void loadSeq(
+      String table, List<T> messages, Function<T, UUID> idOf, BiConsumer<T, Long> setSeq) {
+    Map<UUID, T> byId = new HashMap<>();
+    for (T message : messages) byId.put(idOf.apply(message), message);
+    namedJdbcTemplate.query(
+        "SELECT id, seq FROM " + table + " WHERE id IN (:ids)",
+        Map.of("ids", byId.keySet()),
+        rs -> {
+          setSeq.accept(byId.get(rs.getObject("id", UUID.class)), rs.getLong("seq"));
+        });
+  }
+}
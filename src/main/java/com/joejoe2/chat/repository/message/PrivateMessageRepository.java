@@ -30,7 +30,7 @@ public interface PrivateMessageRepository extends JpaRepository<PrivateMessage,
   @Query(
       nativeQuery = true,
       value =
-          "SELECT * FROM private_message WHERE to_id = :user OR from_id = :user "
+          "SELECT * FROM private_message WHERE (to_id = :user OR from_id = :user) "
               + "AND update_at >= :since ORDER BY update_at DESC")
   Slice<PrivateMessage> findAllByUserSince(
       @Param("user") UUID userId, @Param("since") Instant since, Pageable pageable);
@@ -38,9 +38,17 @@ public interface PrivateMessageRepository extends JpaRepository<PrivateMessage,
   @Query(
       nativeQuery = true,
       value =
-          "SELECT * FROM private_message WHERE to_id = :user OR from_id = :user "
+          "SELECT * FROM private_message WHERE (to_id = :user OR from_id = :user) "
               + "ORDER BY update_at DESC")
   Slice<PrivateMessage> findAllByUser(@Param("user") UUID userId, Pageable pageable);
 
+  @Query(
+      nativeQuery = true,
+      value =
+          "SELECT * FROM private_message WHERE channel_id = :channel "
+              + "AND seq > :after ORDER BY seq ASC")
+  Slice<PrivateMessage> findAllByChannelAfter(
+      @Param("channel") UUID channelId, @Param("after") long after, Pageable pageable);
+
   void deleteByCreateAtLessThan(Instant dateTime);
 }
@@ -27,5 +27,13 @@ public interface PublicMessageRepository extends JpaRepository<PublicMessage, UU
           "SELECT * FROM public_message WHERE channel_id = :channel " + "ORDER BY update_at DESC")
   Slice<PublicMessage> findAllByChannel(@Param("channel") UUID channelId, Pageable pageable);
 
+  @Query(
+      nativeQuery = true,
+      value =
+          "SELECT * FROM public_message WHERE channel_id = :channel "
+              + "AND seq > :after ORDER BY seq ASC")
+  Slice<PublicMessage> findAllByChannelAfter(
+      @Param("channel") UUID channelId, @Param("after") long after, Pageable pageable);
+
   void deleteByCreateAtLessThan(Instant dateTime);
 }
@@ -0,0 +1,62 @@
+package com.joejoe2.chat.service.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-process tier of {@link TwoTierCache}, entries are evicted by LRU over the max size or
+ * dropped on access after the ttl.
+ */
+class LocalCacheTier {
+  private final long ttlNanos;
+  private final Map<String, Entry> entries;
+
+  private record Entry(Object value, long expiresAt) {}
+
+  /**
+   * @param maxSize max number of entries, 0 disables the tier
+   * @param ttlNanos max age of an entry
+   */
+  LocalCacheTier(int maxSize, long ttlNanos) {
+    this.ttlNanos = ttlNanos;
+    this.entries =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+              }
+            });
+  }
+
+  /**
+   * @param key key
+   * @return value or null if absent or expired
+   */
+  Object get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) return null;
+    if (System.nanoTime() - entry.expiresAt >= 0) {
+      entries.remove(key, entry);
+      return null;
+    }
+    return entry.value;
+  }
+
+  void put(String key, Object value) {
+    entries.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+  }
+
+  void evict(String key) {
+    entries.remove(key);
+  }
+
+  void clear() {
+    entries.clear();
+  }
+
+  int size() {
+    return entries.size();
+  }
+}
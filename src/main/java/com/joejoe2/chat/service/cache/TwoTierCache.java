@@ -0,0 +1,186 @@
+package com.joejoe2.chat.service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+/**
+ * Cache with an in-process tier in front of a shared tier(ex. redis). Reads try the local tier
+ * first, values found in the shared tier are copied to the local tier. Evictions and clears are
+ * applied to both tiers and broadcast, so other nodes drop their local copies.
+ *
+ * <p>Loads of {@link #get(Object, Callable)}(ex. @Cacheable(sync = true)) are single-flight per key
+ * on this node, concurrent misses of the same key wait for one load instead of hitting the database
+ * together. A load racing with an eviction is returned but not cached.
+ *
+ * <p>Keys are compared by their string form, which must be the same on all nodes.
+ */
+public class TwoTierCache implements Cache {
+  private final String name;
+  private final LocalCacheTier local;
+  private final Cache shared;
+  private final Consumer<Invalidation> broadcaster;
+  private final ConcurrentHashMap<String, CompletableFuture<Object>> loading =
+      new ConcurrentHashMap<>();
+  private final AtomicLong evictions = new AtomicLong();
+  private final Counter localHits, localMisses, sharedHits, sharedMisses;
+
+  /**
+   * eviction of a key or clear of a cache
+   *
+   * @param cache name of the cache
+   * @param key string form of the key, null to clear the cache
+   */
+  public record Invalidation(String cache, String key) {}
+
+  /**
+   * @param name name of the cache
+   * @param local local tier
+   * @param shared shared tier
+   * @param broadcaster send invalidations to other nodes
+   * @param registry meter registry
+   */
+  TwoTierCache(
+      String name,
+      LocalCacheTier local,
+      Cache shared,
+      Consumer<Invalidation> broadcaster,
+      MeterRegistry registry) {
+    this.name = name;
+    this.local = local;
+    this.shared = shared;
+    this.broadcaster = broadcaster;
+    this.localHits = counter(registry, "local", "hit");
+    this.localMisses = counter(registry, "local", "miss");
+    this.sharedHits = counter(registry, "shared", "hit");
+    this.sharedMisses = counter(registry, "shared", "miss");
+  }
+
+  private Counter counter(MeterRegistry registry, String tier, String result) {
+    return Counter.builder("chat.cache.requests")
+        .description("lookups of cache tiers")
+        .tag("cache", name)
+        .tag("tier", tier)
+        .tag("result", result)
+        .register(registry);
+  }
+
+  private static String keyOf(Object key) {
+    return String.valueOf(key);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public Object getNativeCache() {
+    return shared.getNativeCache();
+  }
+
+  @Override
+  public ValueWrapper get(Object key) {
+    String localKey = keyOf(key);
+    Object value = local.get(localKey);
+    if (value != null) {
+      localHits.increment();
+      return new SimpleValueWrapper(value);
+    }
+    localMisses.increment();
+    long evicted = evictions.get();
+    ValueWrapper wrapper = shared.get(key);
+    if (wrapper == null || wrapper.get() == null) {
+      sharedMisses.increment();
+      return wrapper;
+    }
+    sharedHits.increment();
+    if (evictions.get() == evicted) local.put(localKey, wrapper.get());
+    return wrapper;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, Class<T> type) {
+    ValueWrapper wrapper = get(key);
+    Object value = wrapper == null ? null : wrapper.get();
+    if (value != null && type != null && !type.isInstance(value))
+      throw new IllegalStateException(
+          "cached value is not of required type [" + type.getName() + "]: " + value);
+    return (T) value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, Callable<T> valueLoader) {
+    ValueWrapper wrapper = get(key);
+    if (wrapper != null && wrapper.get() != null) return (T) wrapper.get();
+
+    String localKey = keyOf(key);
+    CompletableFuture<Object> load = new CompletableFuture<>();
+    CompletableFuture<Object> inFlight = loading.putIfAbsent(localKey, load);
+    if (inFlight != null) {
+      try {
+        return (T) inFlight.join();
+      } catch (CompletionException e) {
+        throw new ValueRetrievalException(key, valueLoader, e.getCause());
+      }
+    }
+    try {
+      long evicted = evictions.get();
+      T value = valueLoader.call();
+      if (value != null && evictions.get() == evicted) {
+        shared.put(key, value);
+        local.put(localKey, value);
+      }
+      load.complete(value);
+      return value;
+    } catch (Exception e) {
+      load.completeExceptionally(e);
+      throw new ValueRetrievalException(key, valueLoader, e);
+    } finally {
+      loading.remove(localKey, load);
+    }
+  }
+
+  @Override
+  public void put(Object key, Object value) {
+    shared.put(key, value);
+    if (value != null) local.put(keyOf(key), value);
+  }
+
+  @Override
+  public void evict(Object key) {
+    String localKey = keyOf(key);
+    evictions.incrementAndGet();
+    local.evict(localKey);
+    shared.evict(key);
+    broadcaster.accept(new Invalidation(name, localKey));
+  }
+
+  @Override
+  public void clear() {
+    evictions.incrementAndGet();
+    local.clear();
+    shared.clear();
+    broadcaster.accept(new Invalidation(name, null));
+  }
+
+  /**
+   * apply an invalidation broadcast by another node to the local tier
+   *
+   * @param key string form of the key, null to clear the local tier
+   */
+  void invalidateLocal(String key) {
+    evictions.incrementAndGet();
+    if (key == null) local.clear();
+    else local.evict(key);
+  }
+}
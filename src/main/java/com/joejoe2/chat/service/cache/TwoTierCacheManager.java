@@ -0,0 +1,75 @@
+package com.joejoe2.chat.service.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+/**
+ * Wrap caches of a shared cache manager(ex. redis) by {@link TwoTierCache}, each cache gets its own
+ * local tier.
+ */
+public class TwoTierCacheManager implements CacheManager {
+  private final CacheManager shared;
+  private final int localMaxSize;
+  private final long localTtlNanos;
+  private final Consumer<TwoTierCache.Invalidation> broadcaster;
+  private final MeterRegistry registry;
+  private final ConcurrentHashMap<String, TwoTierCache> caches = new ConcurrentHashMap<>();
+
+  /**
+   * @param shared manager of the shared tier
+   * @param localMaxSize max number of entries of each local tier, 0 disables local tiers
+   * @param localTtlNanos max age of local entries
+   * @param broadcaster send invalidations to other nodes, they must call {@link #invalidateLocal}
+   * @param registry meter registry
+   */
+  public TwoTierCacheManager(
+      CacheManager shared,
+      int localMaxSize,
+      long localTtlNanos,
+      Consumer<TwoTierCache.Invalidation> broadcaster,
+      MeterRegistry registry) {
+    this.shared = shared;
+    this.localMaxSize = localMaxSize;
+    this.localTtlNanos = localTtlNanos;
+    this.broadcaster = broadcaster;
+    this.registry = registry;
+  }
+
+  @Override
+  public Cache getCache(String name) {
+    TwoTierCache cache = caches.get(name);
+    if (cache != null) return cache;
+    Cache sharedCache = shared.getCache(name);
+    if (sharedCache == null) return null;
+    return caches.computeIfAbsent(
+        name,
+        key -> {
+          LocalCacheTier local = new LocalCacheTier(localMaxSize, localTtlNanos);
+          Gauge.builder("chat.cache.local.size", local, LocalCacheTier::size)
+              .description("entries in the local tier")
+              .tag("cache", name)
+              .register(registry);
+          return new TwoTierCache(name, local, sharedCache, broadcaster, registry);
+        });
+  }
+
+  @Override
+  public Collection<String> getCacheNames() {
+    return shared.getCacheNames();
+  }
+
+  /**
+   * apply an invalidation broadcast by another node
+   *
+   * @param invalidation invalidation
+   */
+  public void invalidateLocal(TwoTierCache.Invalidation invalidation) {
+    TwoTierCache cache = caches.get(invalidation.cache());
+    if (cache != null) cache.invalidateLocal(invalidation.key());
+  }
+}
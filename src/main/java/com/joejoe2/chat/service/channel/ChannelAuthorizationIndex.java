@@ -0,0 +1,166 @@
+package com.joejoe2.chat.service.channel;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Node-local index of who may send messages to channels, each entry keeps ids of members and
+ * restricted users(banned users of group channels or members blocking private channels) as sorted
+ * arrays of longs, so the write path checks a sender without loading users or the channel.
+ *
+ * <p>A channel is loaded on first use. Mutations of members or restrictions must call {@link
+ * #invalidate}, which drops the entry on this node after the transaction is committed and
+ * broadcasts the invalidation to other nodes. Entries are also reloaded after a ttl in case a
+ * broadcast is missed, and evicted by LRU.
+ */
+public class ChannelAuthorizationIndex {
+  private final Loader loader;
+  private final Consumer<UUID> broadcaster;
+  private final long ttlNanos;
+  private final Map<UUID, Access> entries;
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /** load ids of a channel from the database */
+  public interface Loader {
+    /**
+     * @param channelId channel id
+     * @return ids of members, empty if the channel does not exist
+     */
+    Collection<UUID> members(UUID channelId);
+
+    /**
+     * @param channelId channel id
+     * @return ids of restricted users
+     */
+    Collection<UUID> restricted(UUID channelId);
+  }
+
+  /** members and restricted users of a channel */
+  public static final class Access {
+    private final long[] members, restricted;
+    private final long loadedAt;
+
+    private Access(Collection<UUID> members, Collection<UUID> restricted, long loadedAt) {
+      this.members = pack(members);
+      this.restricted = pack(restricted);
+      this.loadedAt = loadedAt;
+    }
+
+    /** whether the channel has no member, which usually means it does not exist */
+    public boolean isEmpty() {
+      return members.length == 0;
+    }
+
+    public boolean isMember(UUID userId) {
+      return contains(members, userId);
+    }
+
+    public boolean isRestricted(UUID userId) {
+      return contains(restricted, userId);
+    }
+
+    /** ids of members in ascending order */
+    public List<UUID> members() {
+      List<UUID> ids = new ArrayList<>(members.length / 2);
+      for (int i = 0; i < members.length; i += 2) ids.add(new UUID(members[i], members[i + 1]));
+      return ids;
+    }
+
+    /** pack ids in ascending order of {@link UUID#compareTo} as pairs of longs */
+    private static long[] pack(Collection<UUID> ids) {
+      UUID[] sorted = new TreeSet<>(ids).toArray(new UUID[0]);
+      long[] packed = new long[sorted.length * 2];
+      for (int i = 0; i < sorted.length; i++) {
+        packed[2 * i] = sorted[i].getMostSignificantBits();
+        packed[2 * i + 1] = sorted[i].getLeastSignificantBits();
+      }
+      return packed;
+    }
+
+    private static boolean contains(long[] packed, UUID id) {
+      long most = id.getMostSignificantBits(), least = id.getLeastSignificantBits();
+      int low = 0, high = packed.length / 2 - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = Long.compare(packed[2 * mid], most);
+        if (cmp == 0) cmp = Long.compare(packed[2 * mid + 1], least);
+        if (cmp == 0) return true;
+        if (cmp < 0) low = mid + 1;
+        else high = mid - 1;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @param loader loader of channels
+   * @param broadcaster send invalidations to other nodes, ex. by nats
+   * @param maxChannels max number of channels in the index
+   * @param ttlNanos max age of a loaded channel
+   */
+  public ChannelAuthorizationIndex(
+      Loader loader, Consumer<UUID> broadcaster, int maxChannels, long ttlNanos) {
+    this.loader = loader;
+    this.broadcaster = broadcaster;
+    this.ttlNanos = ttlNanos;
+    this.entries =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<UUID, Access> eldest) {
+                return size() > maxChannels;
+              }
+            });
+  }
+
+  /**
+   * get members and restricted users of the channel, load it if absent or expired
+   *
+   * @param channelId channel id
+   * @return access of the channel
+   */
+  public Access get(UUID channelId) {
+    Access access = entries.get(channelId);
+    if (access != null && System.nanoTime() - access.loadedAt < ttlNanos) return access;
+    long invalidated = invalidations.get();
+    access = new Access(loader.members(channelId), loader.restricted(channelId), System.nanoTime());
+    // a concurrent invalidation may be loaded before its commit
+    if (invalidations.get() == invalidated) entries.put(channelId, access);
+    return access;
+  }
+
+  /**
+   * invalidate the channel on all nodes after the current transaction is committed, or now if there
+   * is no transaction
+   *
+   * @param channelId channel id
+   */
+  public void invalidate(UUID channelId) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      invalidateLocal(channelId);
+      broadcaster.accept(channelId);
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            invalidateLocal(channelId);
+            broadcaster.accept(channelId);
+          }
+        });
+  }
+
+  /**
+   * drop the channel on this node, ex. on an invalidation broadcast by another node
+   *
+   * @param channelId channel id
+   */
+  public void invalidateLocal(UUID channelId) {
+    invalidations.incrementAndGet();
+    entries.remove(channelId);
+  }
+}
@@ -1,6 +1,5 @@
 package com.joejoe2.chat.service.channel;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.joejoe2.chat.data.PageRequest;
 import com.joejoe2.chat.data.SliceList;
@@ -10,12 +9,28 @@ import com.joejoe2.chat.data.message.GroupMessageDto;
 import com.joejoe2.chat.exception.ChannelDoesNotExist;
 import com.joejoe2.chat.exception.InvalidOperation;
 import com.joejoe2.chat.exception.UserDoesNotExist;
+import com.joejoe2.chat.jfr.DispatchEvent;
 import com.joejoe2.chat.models.GroupChannel;
 import com.joejoe2.chat.models.GroupMessage;
+import com.joejoe2.chat.models.MessageType;
 import com.joejoe2.chat.models.User;
 import com.joejoe2.chat.repository.channel.GroupChannelRepository;
+import com.joejoe2.chat.service.message.GroupMessageService;
+import com.joejoe2.chat.service.message.MessageTailCache;
+import com.joejoe2.chat.service.nats.GroupFanOutMode;
+import com.joejoe2.chat.service.subscription.DeliveryLatency;
+import com.joejoe2.chat.service.subscription.OutboundQueueOptions;
+import com.joejoe2.chat.service.subscription.QueuedSubscriber;
+import com.joejoe2.chat.service.subscription.SharedFrame;
+import com.joejoe2.chat.service.subscription.SseSubscriber;
+import com.joejoe2.chat.service.subscription.StreamReplay;
+import com.joejoe2.chat.service.subscription.StripedExecutor;
+import com.joejoe2.chat.service.subscription.Subscriber;
+import com.joejoe2.chat.service.subscription.SubscriptionRegistry;
+import com.joejoe2.chat.service.subscription.WebSocketSubscriber;
 import com.joejoe2.chat.service.user.UserService;
 import com.joejoe2.chat.utils.ChannelSubject;
+import com.joejoe2.chat.utils.MessageHeader;
 import com.joejoe2.chat.utils.SseUtil;
 import com.joejoe2.chat.utils.WebSocketUtil;
 import com.joejoe2.chat.validation.validator.ChannelNameValidator;
@@ -26,13 +41,15 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.nats.client.Connection;
 import io.nats.client.Dispatcher;
 import jakarta.annotation.PostConstruct;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Slice;
@@ -41,7 +58,6 @@ import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 @Service
@@ -49,28 +65,68 @@ public class GroupChannelServiceImpl implements GroupChannelService {
   private static final Logger logger = LoggerFactory.getLogger(GroupChannelService.class);
   private final UserService userService;
   private final GroupChannelRepository channelRepository;
-  private final ObjectMapper objectMapper;
   private final UUIDValidator uuidValidator = UUIDValidator.getInstance();
   private final PageRequestValidator pageValidator = PageRequestValidator.getInstance();
-  private final Map<String, Set<Object>> listeningUsers = new ConcurrentHashMap<>();
+  private final SubscriptionRegistry subscriptionRegistry =
+      new SubscriptionRegistry("GroupChannel", this::onInterestChanged);
 
   private final Connection connection;
   private Dispatcher dispatcher;
-  private final Executor sendingScheduler = Executors.newFixedThreadPool(5);
-
   private final MeterRegistry meterRegistry;
+  private final OutboundQueueOptions outboundQueueOptions;
+  private final DeliveryLatency deliveryLatency;
+  private final Executor sendingScheduler;
+  private final Executor sseWriteExecutor;
+  private final StripedExecutor fanOutExecutor;
+  private final MessageTailCache<GroupMessageDto> tailCache;
+  private final GroupMessageService messageService;
+  private final ObjectMapper objectMapper;
+  private final long sseTimeout;
+  private final GroupFanOutMode fanOutMode;
+  private final GroupMembershipView membershipView;
+  private final ChannelAuthorizationIndex authorizationIndex;
 
   public GroupChannelServiceImpl(
       UserService userService,
       GroupChannelRepository channelRepository,
-      ObjectMapper objectMapper,
       Connection connection,
-      MeterRegistry meterRegistry) {
+      MeterRegistry meterRegistry,
+      OutboundQueueOptions outboundQueueOptions,
+      DeliveryLatency deliveryLatency,
+      @Qualifier("deliveryExecutor") Executor sendingScheduler,
+      @Qualifier("sseWriteExecutor") Executor sseWriteExecutor,
+      @Qualifier("membershipLoadExecutor") Executor membershipLoadExecutor,
+      StripedExecutor fanOutExecutor,
+      MessageTailCache<GroupMessageDto> tailCache,
+      GroupMessageService messageService,
+      ObjectMapper objectMapper,
+      @Value("${chat.group.fanout:MEMBER}") GroupFanOutMode fanOutMode,
+      @Value("${chat.sse.timeout:120s}") Duration sseTimeout,
+      @Qualifier("groupAuthorizationIndex") ChannelAuthorizationIndex authorizationIndex,
+      @Value("${chat.group.membership-view.max-channels:10000}") int membershipViewChannels,
+      @Value("${chat.group.membership-view.ttl:10m}") Duration membershipViewTtl) {
     this.userService = userService;
     this.channelRepository = channelRepository;
-    this.objectMapper = objectMapper;
     this.connection = connection;
     this.meterRegistry = meterRegistry;
+    this.outboundQueueOptions = outboundQueueOptions;
+    this.deliveryLatency = deliveryLatency;
+    this.sendingScheduler = sendingScheduler;
+    this.sseWriteExecutor = sseWriteExecutor;
+    this.fanOutExecutor = fanOutExecutor;
+    this.tailCache = tailCache;
+    this.messageService = messageService;
+    this.objectMapper = objectMapper;
+    this.sseTimeout = sseTimeout.toMillis();
+    this.fanOutMode = fanOutMode;
+    this.membershipView =
+        new GroupMembershipView(
+            channelRepository::getMembersIdByChannel,
+            membershipViewChannels,
+            membershipViewTtl.toNanos(),
+            membershipLoadExecutor,
+            fanOutExecutor::execute);
+    this.authorizationIndex = authorizationIndex;
   }
 
   @PostConstruct
@@ -83,48 +139,121 @@ public class GroupChannelServiceImpl implements GroupChannelService {
     Gauge onlineUsers =
         Gauge.builder(
                 "chat.group.channel.online.users",
-                listeningUsers,
-                l -> l.values().stream().mapToDouble(Set::size).sum())
+                subscriptionRegistry,
+                SubscriptionRegistry::countSubscribers)
+            .register(meterRegistry);
+    Gauge onlineKeys =
+        Gauge.builder(
+                "chat.group.channel.online.keys",
+                subscriptionRegistry,
+                SubscriptionRegistry::countKeys)
+            .description("users with subscribers on this node")
             .register(meterRegistry);
   }
 
   /**
    * create nats dispatcher with shared message handler for all group messages after bean is
    * constructed, the shared message handler will deliver group messages to registered
-   * users(subscribers) on this server
+   * users(subscribers) on this server. In {@link GroupFanOutMode#CHANNEL} mode messages are
+   * published once per channel, so this server subscribes to all group channels and resolves the
+   * members itself.
    */
   private void initNats(Connection connection) {
     dispatcher =
         connection.createDispatcher(
             (msg) -> {
-              try {
-                sendToSubscribers(
-                    listeningUsers.get(ChannelSubject.groupChannelUserOfSubject(msg.getSubject())),
-                    objectMapper.readValue(
-                        new String(msg.getData(), StandardCharsets.UTF_8), GroupMessageDto.class));
-              } catch (JsonProcessingException e) {
-                e.printStackTrace();
+              SharedFrame frame = SharedFrame.of(msg);
+              deliveryLatency.recordReceive(frame);
+              DispatchEvent event = new DispatchEvent();
+              event.begin();
+              if (ChannelSubject.isGroupChannelBroadcastSubject(msg.getSubject())) {
+                UUID channelId =
+                    UUID.fromString(
+                        ChannelSubject.groupChannelOfBroadcastSubject(msg.getSubject()));
+                String type = MessageHeader.get(msg, MessageHeader.MESSAGE_TYPE);
+                String target = MessageHeader.get(msg, MessageHeader.TARGET_USER);
+                MessageType messageType =
+                    type == null ? MessageType.MESSAGE : MessageType.valueOf(type);
+                UUID targetUser = target == null ? null : UUID.fromString(target);
+                fanOutExecutor.execute(
+                    channelId,
+                    () ->
+                        // members are only loaded if someone is subscribed on this node
+                        membershipView.apply(
+                            channelId,
+                            messageType,
+                            targetUser,
+                            !subscriptionRegistry.isEmpty(),
+                            members -> {
+                              int subscribers =
+                                  sendToMembers(messageType, targetUser, members, frame);
+                              event.finish(MessageHeader.GROUP, msg.getData().length, subscribers);
+                              if (tailCache.isEnabled()) tailCache.append(channelId, frame::json);
+                            }));
+                return;
               }
+              UUID userId =
+                  UUID.fromString(ChannelSubject.groupChannelUserOfSubject(msg.getSubject()));
+              UUID channel = MessageHeader.getChannel(msg);
+              boolean leave =
+                  MessageType.LEAVE
+                      .name()
+                      .equals(MessageHeader.get(msg, MessageHeader.MESSAGE_TYPE));
+              fanOutExecutor.execute(
+                  userId,
+                  () -> {
+                    int subscribers = sendToSubscribers(userId, frame);
+                    event.finish(MessageHeader.GROUP, msg.getData().length, subscribers);
+                    // the one who leaves stops receiving messages of the channel
+                    if (leave && channel != null) tailCache.invalidate(channel);
+                    else if (tailCache.isEnabled()) tailCache.append(channel, frame::json);
+                  });
             });
+    if (fanOutMode == GroupFanOutMode.CHANNEL) {
+      dispatcher.subscribe(ChannelSubject.GROUP_CHANNEL_BROADCAST_WILDCARD);
+      tailCache.track(MessageTailCache.ALL, true);
+    }
   }
 
-  /** deliver group messages to registered users(subscribers) */
-  private void sendToSubscribers(Set<Object> subscribers, GroupMessageDto message) {
-    sendingScheduler.execute(
-        () -> {
-          try {
-            TextMessage textMessage =
-                new TextMessage("[" + objectMapper.writeValueAsString(message) + "]");
-            for (Object subscriber : subscribers.toArray()) {
-              if (subscriber instanceof SseEmitter)
-                SseUtil.sendMessageEvent((SseEmitter) subscriber, textMessage);
-              else if (subscriber instanceof WebSocketSession)
-                WebSocketUtil.sendMessage(((WebSocketSession) subscriber), textMessage);
-            }
-          } catch (Exception e) {
-            e.printStackTrace();
-          }
-        });
+  /**
+   * subscribe or unsubscribe the user on nats when it gains or loses subscribers, there is no
+   * subject per user in {@link GroupFanOutMode#CHANNEL} mode
+   */
+  private void onInterestChanged(UUID userId, boolean interested) {
+    if (fanOutMode == GroupFanOutMode.MEMBER) {
+      String subject = ChannelSubject.groupChannelSubject(userId.toString());
+      if (interested) dispatcher.subscribe(subject);
+      else dispatcher.unsubscribe(subject);
+      tailCache.track(userId, interested);
+    }
+    logger.info("User {} is {} on this server", userId, interested ? "on" : "off");
+  }
+
+  /**
+   * deliver a message published once per channel to members connected to this server on the stripe
+   * of the channel, the membership change of the event is already applied to the members. Like per
+   * member publishing, the invitee or the one who leaves also receives it.
+   */
+  private int sendToMembers(
+      MessageType type, UUID targetUser, Set<UUID> members, SharedFrame frame) {
+    int subscribers = 0;
+    for (UUID memberId : members) subscribers += sendToSubscribers(memberId, frame);
+    if (targetUser != null
+        && (MessageType.INVITATION.equals(type) || MessageType.LEAVE.equals(type))
+        && !members.contains(targetUser)) subscribers += sendToSubscribers(targetUser, frame);
+    return subscribers;
+  }
+
+  /**
+   * deliver group messages to registered users(subscribers) on the stripe of the user, so messages
+   * of the same user are enqueued in order. The message is encoded at most once per transport by
+   * the shared frame, which is only enqueued to the outbound queue of each subscriber, so a slow
+   * subscriber cannot delay the others
+   */
+  private int sendToSubscribers(UUID userId, SharedFrame frame) {
+    Subscriber[] subscribers = subscriptionRegistry.getSubscribers(userId);
+    for (Subscriber subscriber : subscribers) subscriber.deliver(frame);
+    return subscribers.length;
   }
 
   private GroupChannel getChannelById(String channelId) throws ChannelDoesNotExist {
@@ -137,32 +266,70 @@ public class GroupChannelServiceImpl implements GroupChannelService {
   }
 
   @Override
-  public SseEmitter subscribe(String fromUserId) throws UserDoesNotExist {
-    userService.getUserById(fromUserId);
-    SseEmitter subscriber = createUserSubscriber(fromUserId);
-    SseUtil.sendConnectEvent(subscriber);
-    return subscriber;
+  public SseEmitter subscribe(String fromUserId, String lastEventId) throws UserDoesNotExist {
+    User user = userService.getUserById(fromUserId);
+    UUID lastMessageId = StreamReplay.parseToken(lastEventId);
+
+    SseSubscriber subscriber =
+        new SseSubscriber(
+            new SseEmitter(sseTimeout), outboundQueueOptions, sendingScheduler, sseWriteExecutor);
+    if (lastMessageId != null) subscriber.hold();
+    addUnSubscribeTriggers(user.getId(), subscriber);
+    subscriptionRegistry.subscribe(user.getId(), subscriber);
+    SseUtil.sendConnectEvent(subscriber.getEmitter());
+    subscriber.startHeartbeat();
+    if (lastMessageId != null) replay(subscriber, user.getId(), lastMessageId);
+    return subscriber.getEmitter();
   }
 
   @Override
-  public void subscribe(WebSocketSession session, String fromUserId) throws UserDoesNotExist {
-    userService.getUserById(fromUserId);
-    addUnSubscribeTriggers(fromUserId, session);
-    listenToUser(session, fromUserId);
+  public void subscribe(WebSocketSession session, String fromUserId, String lastMessageId)
+      throws UserDoesNotExist {
+    User user = userService.getUserById(fromUserId);
+    UUID resumeFrom = StreamReplay.parseToken(lastMessageId);
+    WebSocketSubscriber subscriber =
+        new WebSocketSubscriber(session, outboundQueueOptions, sendingScheduler);
+    if (resumeFrom != null) subscriber.hold();
+    WebSocketUtil.setSubscriber(session, subscriber);
+    addUnSubscribeTriggers(user.getId(), subscriber);
+    subscriptionRegistry.subscribe(user.getId(), subscriber);
     WebSocketUtil.sendConnectMessage(session);
+    subscriber.startHeartbeat();
+    if (resumeFrom != null) replay(subscriber, user.getId(), resumeFrom);
   }
 
   /**
-   * create SseEmitter instance(subscriber)
-   *
-   * @param userId
-   * @return
+   * replay group messages of the user after the last received message to the held subscriber, the
+   * stream of the user also receives invitations of channels it is not a member of
    */
-  private SseEmitter createUserSubscriber(String userId) {
-    SseEmitter subscriber = new SseEmitter(120000L);
-    addUnSubscribeTriggers(userId, subscriber);
-    listenToUser(subscriber, userId);
-    return subscriber;
+  private void replay(QueuedSubscriber subscriber, UUID userId, UUID lastMessageId) {
+    StreamReplay.replay(
+        subscriber,
+        lastMessageId,
+        outboundQueueOptions.getCapacity(),
+        (since, limit) -> {
+          PageRequest pageRequest = PageRequest.builder().page(0).size(limit).build();
+          List<GroupMessageDto> messages =
+              new ArrayList<>(
+                  messageService.getAllMessages(userId.toString(), since, pageRequest).getList());
+          messages.addAll(
+              messageService.getInvitations(userId.toString(), since, pageRequest).getList());
+          messages.sort(Comparator.comparing(message -> Instant.parse(message.getUpdateAt())));
+          return messages.subList(Math.max(0, messages.size() - limit), messages.size());
+        },
+        objectMapper);
+  }
+
+  @Override
+  public UUID addSubscriber(Subscriber subscriber, String fromUserId) throws UserDoesNotExist {
+    User user = userService.getUserById(fromUserId);
+    subscriptionRegistry.subscribe(user.getId(), subscriber);
+    return user.getId();
+  }
+
+  @Override
+  public void removeSubscriber(Subscriber subscriber, UUID userId) {
+    subscriptionRegistry.unsubscribe(userId, subscriber);
   }
 
   /**
@@ -172,9 +339,9 @@ public class GroupChannelServiceImpl implements GroupChannelService {
    * @param userId
    * @param subscriber
    */
-  private void addUnSubscribeTriggers(String userId, SseEmitter subscriber) {
-    Runnable unSubscribe = createUnSubscribeTrigger(userId, subscriber);
-    SseUtil.addSseCallbacks(subscriber, unSubscribe);
+  private void addUnSubscribeTriggers(UUID userId, SseSubscriber subscriber) {
+    Runnable unSubscribe = () -> subscriptionRegistry.unsubscribe(userId, subscriber);
+    SseUtil.addSseCallbacks(subscriber.getEmitter(), unSubscribe);
   }
 
   /**
@@ -184,64 +351,9 @@ public class GroupChannelServiceImpl implements GroupChannelService {
    * @param userId
    * @param subscriber
    */
-  private void addUnSubscribeTriggers(String userId, WebSocketSession subscriber) {
-    Runnable unSubscribe = createUnSubscribeTrigger(userId, subscriber);
-    WebSocketUtil.addFinishedCallbacks(subscriber, unSubscribe);
-  }
-
-  private Runnable createUnSubscribeTrigger(String userId, Object subscriber) {
-    return () ->
-        listeningUsers.compute(
-            userId,
-            (key, subscriptions) -> {
-              // remove from subscribers
-              if (subscriptions != null) subscriptions.remove(subscriber);
-              // unsubscribe if no subscriptions
-              if (subscriptions == null || subscriptions.isEmpty()) {
-                dispatcher.unsubscribe(ChannelSubject.groupChannelSubject(userId));
-                subscriptions = null;
-              }
-              // decrease online user
-              int count = subscriptions == null ? 0 : subscriptions.size();
-              logger.info("User " + userId + " now has " + count + " active subscriptions");
-              return subscriptions;
-            });
-  }
-
-  /**
-   * register SseEmitter instance(subscriber) and channelId to nats dispatcher
-   *
-   * @param subscriber
-   * @param userId
-   */
-  private void listenToUser(SseEmitter subscriber, String userId) {
-    addToSubscribers(subscriber, userId);
-  }
-
-  /**
-   * register SseEmitter instance(subscriber) and channelId to nats dispatcher
-   *
-   * @param subscriber
-   * @param userId
-   */
-  private void listenToUser(WebSocketSession subscriber, String userId) {
-    addToSubscribers(subscriber, userId);
-  }
-
-  private void addToSubscribers(Object subscriber, String userId) {
-    listeningUsers.compute(
-        userId,
-        (key, subscribers) -> {
-          if (subscribers == null) {
-            dispatcher.subscribe(ChannelSubject.groupChannelSubject(userId));
-            subscribers = Collections.synchronizedSet(new HashSet<>());
-          }
-          subscribers.add(subscriber);
-          // increase online users
-          logger.info(
-              "User " + userId + " now has " + subscribers.size() + " active subscriptions");
-          return subscribers;
-        });
+  private void addUnSubscribeTriggers(UUID userId, WebSocketSubscriber subscriber) {
+    Runnable unSubscribe = () -> subscriptionRegistry.unsubscribe(userId, subscriber);
+    WebSocketUtil.addFinishedCallbacks(subscriber.getSession(), unSubscribe);
   }
 
   @Override
@@ -268,7 +380,7 @@ public class GroupChannelServiceImpl implements GroupChannelService {
 
     channel.invite(inviter, invitee);
     channelRepository.saveAndFlush(channel);
-    GroupMessage invitationMessage = channel.getLastMessage();
+    GroupMessage invitationMessage = advanceLastMessage(channel);
     return new GroupMessageDto(invitationMessage);
   }
 
@@ -285,7 +397,8 @@ public class GroupChannelServiceImpl implements GroupChannelService {
 
     channel.acceptInvitation(invitee);
     channelRepository.saveAndFlush(channel);
-    GroupMessage joinMessage = channel.getLastMessage();
+    authorizationIndex.invalidate(channel.getId());
+    GroupMessage joinMessage = advanceLastMessage(channel);
 
     return new GroupMessageDto(joinMessage);
   }
@@ -304,7 +417,8 @@ public class GroupChannelServiceImpl implements GroupChannelService {
 
     channel.kickOff(actor, target);
     channelRepository.saveAndFlush(channel);
-    GroupMessage leaveMessage = channel.getLastMessage();
+    authorizationIndex.invalidate(channel.getId());
+    GroupMessage leaveMessage = advanceLastMessage(channel);
 
     return new GroupMessageDto(leaveMessage);
   }
@@ -322,7 +436,8 @@ public class GroupChannelServiceImpl implements GroupChannelService {
 
     channel.leave(user);
     channelRepository.saveAndFlush(channel);
-    GroupMessage leaveMessage = channel.getLastMessage();
+    authorizationIndex.invalidate(channel.getId());
+    GroupMessage leaveMessage = advanceLastMessage(channel);
 
     return new GroupMessageDto(leaveMessage);
   }
@@ -340,11 +455,22 @@ public class GroupChannelServiceImpl implements GroupChannelService {
     if (isBanned) channel.ban(actor, target);
     else channel.unban(actor, target);
     channelRepository.saveAndFlush(channel);
-    GroupMessage banMessage = channel.getLastMessage();
+    authorizationIndex.invalidate(channel.getId());
+    GroupMessage banMessage = advanceLastMessage(channel);
 
     return new GroupMessageDto(banMessage);
   }
 
+  /**
+   * the last message of the channel is not written by saves of the channel, advance it to the
+   * message of an action by the same conditional update as sent messages
+   */
+  private GroupMessage advanceLastMessage(GroupChannel channel) {
+    GroupMessage message = channel.getLastMessage();
+    channelRepository.advanceLastMessage(channel.getId(), message.getId(), message.getUpdateAt());
+    return message;
+  }
+
   private void checkIsMember(GroupChannel channel, User user) throws InvalidOperation {
     if (!channel.getMembers().contains(user))
       throw new InvalidOperation(
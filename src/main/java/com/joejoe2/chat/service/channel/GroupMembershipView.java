@@ -0,0 +1,143 @@
+package com.joejoe2.chat.service.channel;
+
+import com.joejoe2.chat.models.MessageType;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node-local view of members of group channels, used to resolve the members connected to this node
+ * when group messages are published once per channel. A channel is kept current by JOIN and LEAVE
+ * events of the channel, and is evicted by LRU and reloaded after a ttl in case an event is missed.
+ *
+ * <p>A channel is loaded on the load executor instead of the stripe of the channel, so a cold
+ * channel does not stall other channels of the stripe. Events of the channel received meanwhile are
+ * parked and resumed in order on the stripe after the load.
+ *
+ * <p>Calls of the same channel must be serialized by the caller(ex. on the stripe of the channel),
+ * the view itself is only thread safe across different channels.
+ */
+class GroupMembershipView {
+  private static final Logger logger = LoggerFactory.getLogger(GroupMembershipView.class);
+
+  private final Function<UUID, ? extends Collection<UUID>> loader;
+  private final long ttlNanos;
+  private final Executor loadExecutor;
+  private final BiConsumer<UUID, Runnable> stripe;
+  private final Map<UUID, Entry> entries;
+  private final Map<UUID, List<Event>> parked = new ConcurrentHashMap<>();
+
+  private record Entry(Set<UUID> members, long loadedAt) {}
+
+  private record Event(MessageType type, UUID targetUser, boolean load, Consumer<Set<UUID>> task) {}
+
+  /**
+   * @param loader load member ids of the channel, ex. from the repository
+   * @param maxChannels max number of channels in the view
+   * @param ttlNanos max age of a loaded channel
+   * @param loadExecutor executor of loads
+   * @param stripe run a task on the stripe of the channel, ex. {@code fanOutExecutor::execute}
+   */
+  GroupMembershipView(
+      Function<UUID, ? extends Collection<UUID>> loader,
+      int maxChannels,
+      long ttlNanos,
+      Executor loadExecutor,
+      BiConsumer<UUID, Runnable> stripe) {
+    this.loader = loader;
+    this.ttlNanos = ttlNanos;
+    this.loadExecutor = loadExecutor;
+    this.stripe = stripe;
+    this.entries =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                return size() > maxChannels;
+              }
+            });
+  }
+
+  /**
+   * apply the membership change of the event, then run the task with members of the channel. If the
+   * channel is being loaded, or is absent or expired and the load is requested, the event is parked
+   * and the task runs on the stripe of the channel after the load.
+   *
+   * @param channelId channel id
+   * @param type message type of the event
+   * @param targetUser the one who joins or leaves, may be null
+   * @param load whether to load the channel if absent or expired, otherwise the task gets an empty
+   *     set for such channels
+   * @param task receives immutable member ids, or an empty set if the load failed
+   */
+  void apply(
+      UUID channelId, MessageType type, UUID targetUser, boolean load, Consumer<Set<UUID>> task) {
+    List<Event> events = parked.get(channelId);
+    if (events != null) {
+      events.add(new Event(type, targetUser, load, task));
+      return;
+    }
+    Entry entry = entries.get(channelId);
+    if (entry != null && System.nanoTime() - entry.loadedAt < ttlNanos) {
+      Set<UUID> members = applied(entry.members, type, targetUser);
+      if (members != entry.members) entries.put(channelId, new Entry(members, entry.loadedAt));
+      task.accept(members);
+      return;
+    }
+    if (!load) {
+      task.accept(Set.of());
+      return;
+    }
+    events = new ArrayList<>();
+    events.add(new Event(type, targetUser, true, task));
+    parked.put(channelId, events);
+    try {
+      loadExecutor.execute(
+          () -> {
+            Set<UUID> members;
+            try {
+              members = Set.copyOf(loader.apply(channelId));
+            } catch (RuntimeException e) {
+              logger.error("cannot load members of group channel {}", channelId, e);
+              members = null;
+            }
+            Set<UUID> loaded = members;
+            stripe.accept(channelId, () -> resume(channelId, loaded));
+          });
+    } catch (RejectedExecutionException e) {
+      resume(channelId, null);
+    }
+  }
+
+  /** run parked events of the channel in order, on the stripe of the channel */
+  private void resume(UUID channelId, Set<UUID> loaded) {
+    List<Event> events = parked.remove(channelId);
+    long loadedAt = System.nanoTime();
+    Set<UUID> members = loaded;
+    // the loaded members may or may not include parked events, applying them is idempotent
+    for (Event event : events) {
+      if (loaded == null) event.task.accept(Set.of());
+      else event.task.accept(members = applied(members, event.type, event.targetUser));
+    }
+    if (loaded != null) entries.put(channelId, new Entry(members, loadedAt));
+  }
+
+  /**
+   * @return members after the membership change of the event, the same set if unchanged
+   */
+  private static Set<UUID> applied(Set<UUID> members, MessageType type, UUID targetUser) {
+    if (targetUser == null || !(MessageType.JOIN.equals(type) || MessageType.LEAVE.equals(type)))
+      return members;
+    if (MessageType.JOIN.equals(type) == members.contains(targetUser)) return members;
+    Set<UUID> changed = new HashSet<>(members);
+    if (MessageType.JOIN.equals(type)) changed.add(targetUser);
+    else changed.remove(targetUser);
+    return Set.copyOf(changed);
+  }
+}
@@ -7,6 +7,8 @@ import com.joejoe2.chat.exception.AlreadyExist;
 import com.joejoe2.chat.exception.ChannelDoesNotExist;
 import com.joejoe2.chat.exception.InvalidOperation;
 import com.joejoe2.chat.exception.UserDoesNotExist;
+import com.joejoe2.chat.service.subscription.Subscriber;
+import java.util.UUID;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.socket.WebSocketSession;
 
@@ -15,19 +17,43 @@ public interface PrivateChannelService {
    * subscribe to all private channels of target user
    *
    * @param fromUserId id of target user
+   * @param lastEventId id of the last received message(Last-Event-ID), messages after it are
+   *     replayed first, may be null
    * @return SseEmitter
    * @throws UserDoesNotExist
    */
-  SseEmitter subscribe(String fromUserId) throws UserDoesNotExist;
+  SseEmitter subscribe(String fromUserId, String lastEventId) throws UserDoesNotExist;
 
   /**
    * subscribe to all private channels of target user
    *
    * @param fromUserId id of target user
    * @param session WebSocketSession
+   * @param lastMessageId id of the last received message, messages after it are replayed first, may
+   *     be null
    * @throws UserDoesNotExist
    */
-  void subscribe(WebSocketSession session, String fromUserId) throws UserDoesNotExist;
+  void subscribe(WebSocketSession session, String fromUserId, String lastMessageId)
+      throws UserDoesNotExist;
+
+  /**
+   * register the subscriber to all private channels of target user, the caller(ex. a multiplexed
+   * connection) is responsible for removing it
+   *
+   * @param subscriber subscriber
+   * @param fromUserId id of target user
+   * @return id of the user
+   * @throws UserDoesNotExist
+   */
+  UUID addSubscriber(Subscriber subscriber, String fromUserId) throws UserDoesNotExist;
+
+  /**
+   * remove the subscriber from private channels of target user, no op if it is not registered
+   *
+   * @param subscriber subscriber
+   * @param userId id of target user
+   */
+  void removeSubscriber(Subscriber subscriber, UUID userId);
 
   /**
    * create a private channel between two users(from and to)
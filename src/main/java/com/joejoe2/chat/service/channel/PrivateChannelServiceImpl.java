@@ -1,6 +1,5 @@
 package com.joejoe2.chat.service.channel;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.joejoe2.chat.data.PageRequest;
 import com.joejoe2.chat.data.SliceList;
@@ -10,11 +9,25 @@ import com.joejoe2.chat.exception.AlreadyExist;
 import com.joejoe2.chat.exception.ChannelDoesNotExist;
 import com.joejoe2.chat.exception.InvalidOperation;
 import com.joejoe2.chat.exception.UserDoesNotExist;
+import com.joejoe2.chat.jfr.DispatchEvent;
 import com.joejoe2.chat.models.PrivateChannel;
 import com.joejoe2.chat.models.User;
 import com.joejoe2.chat.repository.channel.PrivateChannelRepository;
+import com.joejoe2.chat.service.message.MessageTailCache;
+import com.joejoe2.chat.service.message.PrivateMessageService;
+import com.joejoe2.chat.service.subscription.DeliveryLatency;
+import com.joejoe2.chat.service.subscription.OutboundQueueOptions;
+import com.joejoe2.chat.service.subscription.QueuedSubscriber;
+import com.joejoe2.chat.service.subscription.SharedFrame;
+import com.joejoe2.chat.service.subscription.SseSubscriber;
+import com.joejoe2.chat.service.subscription.StreamReplay;
+import com.joejoe2.chat.service.subscription.StripedExecutor;
+import com.joejoe2.chat.service.subscription.Subscriber;
+import com.joejoe2.chat.service.subscription.SubscriptionRegistry;
+import com.joejoe2.chat.service.subscription.WebSocketSubscriber;
 import com.joejoe2.chat.service.user.UserService;
 import com.joejoe2.chat.utils.ChannelSubject;
+import com.joejoe2.chat.utils.MessageHeader;
 import com.joejoe2.chat.utils.SseUtil;
 import com.joejoe2.chat.utils.WebSocketUtil;
 import com.joejoe2.chat.validation.validator.PageRequestValidator;
@@ -24,12 +37,14 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.nats.client.Connection;
 import io.nats.client.Dispatcher;
 import jakarta.annotation.PostConstruct;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Slice;
 import org.springframework.retry.annotation.Backoff;
@@ -37,7 +52,6 @@ import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 @Service
@@ -45,29 +59,55 @@ public class PrivateChannelServiceImpl implements PrivateChannelService {
   private static final Logger logger = LoggerFactory.getLogger(PrivateChannelService.class);
   private final UserService userService;
   private final PrivateChannelRepository channelRepository;
-  private final ObjectMapper objectMapper;
 
   private final UUIDValidator uuidValidator = UUIDValidator.getInstance();
 
   private final PageRequestValidator pageValidator = PageRequestValidator.getInstance();
-  private final Map<String, Set<Object>> listeningUsers = new ConcurrentHashMap<>();
+  private final SubscriptionRegistry subscriptionRegistry =
+      new SubscriptionRegistry("PrivateChannel", this::onInterestChanged);
   private final Connection connection;
   private Dispatcher dispatcher;
-  private final Executor sendingScheduler = Executors.newFixedThreadPool(5);
-
   private final MeterRegistry meterRegistry;
+  private final OutboundQueueOptions outboundQueueOptions;
+  private final DeliveryLatency deliveryLatency;
+  private final Executor sendingScheduler;
+  private final Executor sseWriteExecutor;
+  private final StripedExecutor fanOutExecutor;
+  private final MessageTailCache<PrivateMessageDto> tailCache;
+  private final PrivateMessageService messageService;
+  private final ObjectMapper objectMapper;
+  private final long sseTimeout;
+  private final ChannelAuthorizationIndex authorizationIndex;
 
   public PrivateChannelServiceImpl(
       UserService userService,
       PrivateChannelRepository channelRepository,
-      ObjectMapper objectMapper,
       Connection connection,
-      MeterRegistry meterRegistry) {
+      MeterRegistry meterRegistry,
+      OutboundQueueOptions outboundQueueOptions,
+      DeliveryLatency deliveryLatency,
+      @Qualifier("deliveryExecutor") Executor sendingScheduler,
+      @Qualifier("sseWriteExecutor") Executor sseWriteExecutor,
+      StripedExecutor fanOutExecutor,
+      MessageTailCache<PrivateMessageDto> tailCache,
+      PrivateMessageService messageService,
+      ObjectMapper objectMapper,
+      @Value("${chat.sse.timeout:120s}") Duration sseTimeout,
+      @Qualifier("privateAuthorizationIndex") ChannelAuthorizationIndex authorizationIndex) {
     this.userService = userService;
     this.channelRepository = channelRepository;
-    this.objectMapper = objectMapper;
     this.connection = connection;
     this.meterRegistry = meterRegistry;
+    this.outboundQueueOptions = outboundQueueOptions;
+    this.deliveryLatency = deliveryLatency;
+    this.sendingScheduler = sendingScheduler;
+    this.sseWriteExecutor = sseWriteExecutor;
+    this.fanOutExecutor = fanOutExecutor;
+    this.tailCache = tailCache;
+    this.messageService = messageService;
+    this.objectMapper = objectMapper;
+    this.sseTimeout = sseTimeout.toMillis();
+    this.authorizationIndex = authorizationIndex;
   }
 
   @PostConstruct
@@ -80,8 +120,15 @@ public class PrivateChannelServiceImpl implements PrivateChannelService {
     Gauge onlineUsers =
         Gauge.builder(
                 "chat.private.channel.online.users",
-                listeningUsers,
-                l -> l.values().stream().mapToDouble(Set::size).sum())
+                subscriptionRegistry,
+                SubscriptionRegistry::countSubscribers)
+            .register(meterRegistry);
+    Gauge onlineKeys =
+        Gauge.builder(
+                "chat.private.channel.online.keys",
+                subscriptionRegistry,
+                SubscriptionRegistry::countKeys)
+            .description("users with subscribers on this node")
             .register(meterRegistry);
   }
 
@@ -94,36 +141,42 @@ public class PrivateChannelServiceImpl implements PrivateChannelService {
     dispatcher =
         connection.createDispatcher(
             (msg) -> {
-              try {
-                sendToSubscribers(
-                    listeningUsers.get(
-                        ChannelSubject.privateChannelUserOfSubject(msg.getSubject())),
-                    objectMapper.readValue(
-                        new String(msg.getData(), StandardCharsets.UTF_8),
-                        PrivateMessageDto.class));
-              } catch (JsonProcessingException e) {
-                e.printStackTrace();
-              }
+              UUID userId =
+                  UUID.fromString(ChannelSubject.privateChannelUserOfSubject(msg.getSubject()));
+              SharedFrame frame = SharedFrame.of(msg);
+              deliveryLatency.recordReceive(frame);
+              DispatchEvent event = new DispatchEvent();
+              event.begin();
+              fanOutExecutor.execute(
+                  userId,
+                  () -> {
+                    int subscribers = sendToSubscribers(userId, frame);
+                    event.finish(MessageHeader.PRIVATE, msg.getData().length, subscribers);
+                    if (tailCache.isEnabled())
+                      tailCache.append(MessageHeader.getChannel(msg), frame::json);
+                  });
             });
   }
 
-  /** deliver private messages to registered users(subscribers) */
-  private void sendToSubscribers(Set<Object> subscribers, PrivateMessageDto message) {
-    sendingScheduler.execute(
-        () -> {
-          try {
-            TextMessage textMessage =
-                new TextMessage("[" + objectMapper.writeValueAsString(message) + "]");
-            for (Object subscriber : subscribers.toArray()) {
-              if (subscriber instanceof SseEmitter)
-                SseUtil.sendMessageEvent((SseEmitter) subscriber, textMessage);
-              else if (subscriber instanceof WebSocketSession)
-                WebSocketUtil.sendMessage(((WebSocketSession) subscriber), textMessage);
-            }
-          } catch (Exception e) {
-            e.printStackTrace();
-          }
-        });
+  /** subscribe or unsubscribe the user on nats when it gains or loses subscribers */
+  private void onInterestChanged(UUID userId, boolean interested) {
+    String subject = ChannelSubject.privateChannelSubject(userId.toString());
+    if (interested) dispatcher.subscribe(subject);
+    else dispatcher.unsubscribe(subject);
+    tailCache.track(userId, interested);
+    logger.info("User {} is {} on this server", userId, interested ? "on" : "off");
+  }
+
+  /**
+   * deliver private messages to registered users(subscribers) on the stripe of the user, so
+   * messages of the same user are enqueued in order. The message is encoded at most once per
+   * transport by the shared frame, which is only enqueued to the outbound queue of each subscriber,
+   * so a slow subscriber cannot delay the others
+   */
+  private int sendToSubscribers(UUID userId, SharedFrame frame) {
+    Subscriber[] subscribers = subscriptionRegistry.getSubscribers(userId);
+    for (Subscriber subscriber : subscribers) subscriber.deliver(frame);
+    return subscribers.length;
   }
 
   private PrivateChannel getChannelById(String channelId) throws ChannelDoesNotExist {
@@ -136,33 +189,62 @@ public class PrivateChannelServiceImpl implements PrivateChannelService {
   }
 
   @Override
-  public SseEmitter subscribe(String fromUserId) throws UserDoesNotExist {
-    userService.getUserById(fromUserId);
-
-    SseEmitter subscriber = createUserSubscriber(fromUserId);
-    SseUtil.sendConnectEvent(subscriber);
-    return subscriber;
+  public SseEmitter subscribe(String fromUserId, String lastEventId) throws UserDoesNotExist {
+    User user = userService.getUserById(fromUserId);
+    UUID lastMessageId = StreamReplay.parseToken(lastEventId);
+
+    SseSubscriber subscriber =
+        new SseSubscriber(
+            new SseEmitter(sseTimeout), outboundQueueOptions, sendingScheduler, sseWriteExecutor);
+    if (lastMessageId != null) subscriber.hold();
+    addUnSubscribeTriggers(user.getId(), subscriber);
+    subscriptionRegistry.subscribe(user.getId(), subscriber);
+    SseUtil.sendConnectEvent(subscriber.getEmitter());
+    subscriber.startHeartbeat();
+    if (lastMessageId != null) replay(subscriber, user.getId(), lastMessageId);
+    return subscriber.getEmitter();
   }
 
   @Override
-  public void subscribe(WebSocketSession session, String fromUserId) throws UserDoesNotExist {
-    userService.getUserById(fromUserId);
-    addUnSubscribeTriggers(fromUserId, session);
-    listenToUser(session, fromUserId);
+  public void subscribe(WebSocketSession session, String fromUserId, String lastMessageId)
+      throws UserDoesNotExist {
+    User user = userService.getUserById(fromUserId);
+    UUID resumeFrom = StreamReplay.parseToken(lastMessageId);
+    WebSocketSubscriber subscriber =
+        new WebSocketSubscriber(session, outboundQueueOptions, sendingScheduler);
+    if (resumeFrom != null) subscriber.hold();
+    WebSocketUtil.setSubscriber(session, subscriber);
+    addUnSubscribeTriggers(user.getId(), subscriber);
+    subscriptionRegistry.subscribe(user.getId(), subscriber);
     WebSocketUtil.sendConnectMessage(session);
+    subscriber.startHeartbeat();
+    if (resumeFrom != null) replay(subscriber, user.getId(), resumeFrom);
   }
 
-  /**
-   * create SseEmitter instance(subscriber)
-   *
-   * @param userId
-   * @return
-   */
-  private SseEmitter createUserSubscriber(String userId) {
-    SseEmitter subscriber = new SseEmitter(120000L);
-    addUnSubscribeTriggers(userId, subscriber);
-    listenToUser(subscriber, userId);
-    return subscriber;
+  /** replay private messages of the user after the last received message to the held subscriber */
+  private void replay(QueuedSubscriber subscriber, UUID userId, UUID lastMessageId) {
+    StreamReplay.replay(
+        subscriber,
+        lastMessageId,
+        outboundQueueOptions.getCapacity(),
+        (since, limit) ->
+            messageService
+                .getAllMessages(
+                    userId.toString(), since, PageRequest.builder().page(0).size(limit).build())
+                .getList(),
+        objectMapper);
+  }
+
+  @Override
+  public UUID addSubscriber(Subscriber subscriber, String fromUserId) throws UserDoesNotExist {
+    User user = userService.getUserById(fromUserId);
+    subscriptionRegistry.subscribe(user.getId(), subscriber);
+    return user.getId();
+  }
+
+  @Override
+  public void removeSubscriber(Subscriber subscriber, UUID userId) {
+    subscriptionRegistry.unsubscribe(userId, subscriber);
   }
 
   /**
@@ -172,9 +254,9 @@ public class PrivateChannelServiceImpl implements PrivateChannelService {
    * @param userId
    * @param subscriber
    */
-  private void addUnSubscribeTriggers(String userId, SseEmitter subscriber) {
-    Runnable unSubscribe = createUnSubscribeTrigger(userId, subscriber);
-    SseUtil.addSseCallbacks(subscriber, unSubscribe);
+  private void addUnSubscribeTriggers(UUID userId, SseSubscriber subscriber) {
+    Runnable unSubscribe = () -> subscriptionRegistry.unsubscribe(userId, subscriber);
+    SseUtil.addSseCallbacks(subscriber.getEmitter(), unSubscribe);
   }
 
   /**
@@ -184,64 +266,9 @@ public class PrivateChannelServiceImpl implements PrivateChannelService {
    * @param userId
    * @param subscriber
    */
-  private void addUnSubscribeTriggers(String userId, WebSocketSession subscriber) {
-    Runnable unSubscribe = createUnSubscribeTrigger(userId, subscriber);
-    WebSocketUtil.addFinishedCallbacks(subscriber, unSubscribe);
-  }
-
-  private Runnable createUnSubscribeTrigger(String userId, Object subscriber) {
-    return () ->
-        listeningUsers.compute(
-            userId,
-            (key, subscriptions) -> {
-              // remove from subscribers
-              if (subscriptions != null) subscriptions.remove(subscriber);
-              // unsubscribe if no subscriptions
-              if (subscriptions == null || subscriptions.isEmpty()) {
-                dispatcher.unsubscribe(ChannelSubject.privateChannelSubject(userId));
-                subscriptions = null;
-              }
-              // decrease online user
-              int count = subscriptions == null ? 0 : subscriptions.size();
-              logger.info("User " + userId + " now has " + count + " active subscriptions");
-              return subscriptions;
-            });
-  }
-
-  /**
-   * register SseEmitter instance(subscriber) and channelId to nats dispatcher
-   *
-   * @param subscriber
-   * @param userId
-   */
-  private void listenToUser(SseEmitter subscriber, String userId) {
-    addToSubscribers(subscriber, userId);
-  }
-
-  /**
-   * register SseEmitter instance(subscriber) and channelId to nats dispatcher
-   *
-   * @param subscriber
-   * @param userId
-   */
-  private void listenToUser(WebSocketSession subscriber, String userId) {
-    addToSubscribers(subscriber, userId);
-  }
-
-  private void addToSubscribers(Object subscriber, String userId) {
-    listeningUsers.compute(
-        userId,
-        (key, subscribers) -> {
-          if (subscribers == null) {
-            dispatcher.subscribe(ChannelSubject.privateChannelSubject(userId));
-            subscribers = Collections.synchronizedSet(new HashSet<>());
-          }
-          subscribers.add(subscriber);
-          // increase online users
-          logger.info(
-              "User " + userId + " now has " + subscribers.size() + " active subscriptions");
-          return subscribers;
-        });
+  private void addUnSubscribeTriggers(UUID userId, WebSocketSubscriber subscriber) {
+    Runnable unSubscribe = () -> subscriptionRegistry.unsubscribe(userId, subscriber);
+    WebSocketUtil.addFinishedCallbacks(subscriber.getSession(), unSubscribe);
   }
 
   @Override
@@ -323,5 +350,6 @@ public class PrivateChannelServiceImpl implements PrivateChannelService {
 
     channel.block(channel.anotherMember(user), isBlock);
     channelRepository.save(channel);
+    authorizationIndex.invalidate(channel.getId());
   }
 }
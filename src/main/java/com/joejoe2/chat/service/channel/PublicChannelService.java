@@ -5,6 +5,8 @@ import com.joejoe2.chat.data.PageRequest;
 import com.joejoe2.chat.data.channel.profile.PublicChannelProfile;
 import com.joejoe2.chat.exception.AlreadyExist;
 import com.joejoe2.chat.exception.ChannelDoesNotExist;
+import com.joejoe2.chat.service.subscription.Subscriber;
+import java.util.UUID;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.socket.WebSocketSession;
 
@@ -13,19 +15,43 @@ public interface PublicChannelService {
    * subscribe to target public channel using Server Sent Event(SSE)
    *
    * @param channelId target channel id
+   * @param lastEventId id of the last received message(Last-Event-ID), messages after it are
+   *     replayed first, may be null
    * @return SseEmitter
    * @throws ChannelDoesNotExist
    */
-  SseEmitter subscribe(String channelId) throws ChannelDoesNotExist;
+  SseEmitter subscribe(String channelId, String lastEventId) throws ChannelDoesNotExist;
 
   /**
    * subscribe to target public channel using WebSocket
    *
    * @param session WebSocket session
    * @param channelId target channel id
+   * @param lastMessageId id of the last received message, messages after it are replayed first, may
+   *     be null
    * @throws ChannelDoesNotExist
    */
-  void subscribe(WebSocketSession session, String channelId) throws ChannelDoesNotExist;
+  void subscribe(WebSocketSession session, String channelId, String lastMessageId)
+      throws ChannelDoesNotExist;
+
+  /**
+   * register the subscriber to target public channel, the caller(ex. a multiplexed connection) is
+   * responsible for removing it
+   *
+   * @param subscriber subscriber
+   * @param channelId target channel id
+   * @return id of the channel
+   * @throws ChannelDoesNotExist
+   */
+  UUID addSubscriber(Subscriber subscriber, String channelId) throws ChannelDoesNotExist;
+
+  /**
+   * remove the subscriber from target public channel, no op if it is not registered
+   *
+   * @param subscriber subscriber
+   * @param channelId target channel id
+   */
+  void removeSubscriber(Subscriber subscriber, UUID channelId);
 
   /**
    * create a new public channel
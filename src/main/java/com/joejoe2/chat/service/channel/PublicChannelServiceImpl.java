@@ -1,15 +1,29 @@
 package com.joejoe2.chat.service.channel;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.joejoe2.chat.data.PageList;
 import com.joejoe2.chat.data.channel.profile.PublicChannelProfile;
 import com.joejoe2.chat.data.message.PublicMessageDto;
 import com.joejoe2.chat.exception.AlreadyExist;
 import com.joejoe2.chat.exception.ChannelDoesNotExist;
+import com.joejoe2.chat.jfr.DispatchEvent;
 import com.joejoe2.chat.models.PublicChannel;
 import com.joejoe2.chat.repository.channel.PublicChannelRepository;
+import com.joejoe2.chat.service.message.MessageTailCache;
+import com.joejoe2.chat.service.message.PublicMessageService;
+import com.joejoe2.chat.service.subscription.DeliveryLatency;
+import com.joejoe2.chat.service.subscription.HotKeys;
+import com.joejoe2.chat.service.subscription.OutboundQueueOptions;
+import com.joejoe2.chat.service.subscription.QueuedSubscriber;
+import com.joejoe2.chat.service.subscription.SharedFrame;
+import com.joejoe2.chat.service.subscription.SseSubscriber;
+import com.joejoe2.chat.service.subscription.StreamReplay;
+import com.joejoe2.chat.service.subscription.StripedExecutor;
+import com.joejoe2.chat.service.subscription.Subscriber;
+import com.joejoe2.chat.service.subscription.SubscriptionRegistry;
+import com.joejoe2.chat.service.subscription.WebSocketSubscriber;
 import com.joejoe2.chat.utils.ChannelSubject;
+import com.joejoe2.chat.utils.MessageHeader;
 import com.joejoe2.chat.utils.SseUtil;
 import com.joejoe2.chat.utils.WebSocketUtil;
 import com.joejoe2.chat.validation.validator.ChannelNameValidator;
@@ -20,25 +34,25 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.nats.client.Connection;
 import io.nats.client.Dispatcher;
 import jakarta.annotation.PostConstruct;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 @Service
 public class PublicChannelServiceImpl implements PublicChannelService {
   private final PublicChannelRepository channelRepository;
-  private final ObjectMapper objectMapper;
 
   private final UUIDValidator uuidValidator = UUIDValidator.getInstance();
 
@@ -46,9 +60,8 @@ public class PublicChannelServiceImpl implements PublicChannelService {
 
   private final PageRequestValidator pageValidator = PageRequestValidator.getInstance();
 
-  private final Map<String, Set<Object>> listeningChannels = new ConcurrentHashMap<>();
-
-  private final Executor sendingScheduler = Executors.newFixedThreadPool(5);
+  private final SubscriptionRegistry subscriptionRegistry =
+      new SubscriptionRegistry("PublicChannel", this::onInterestChanged);
 
   private static final Logger logger = LoggerFactory.getLogger(PublicChannelService.class);
 
@@ -56,16 +69,44 @@ public class PublicChannelServiceImpl implements PublicChannelService {
 
   private Dispatcher dispatcher;
   private final MeterRegistry meterRegistry;
+  private final OutboundQueueOptions outboundQueueOptions;
+  private final DeliveryLatency deliveryLatency;
+  private final Executor sendingScheduler;
+  private final Executor sseWriteExecutor;
+  private final StripedExecutor fanOutExecutor;
+  private final MessageTailCache<PublicMessageDto> tailCache;
+  private final PublicMessageService messageService;
+  private final ObjectMapper objectMapper;
+  private final long sseTimeout;
+  private final int topChannels;
 
   public PublicChannelServiceImpl(
       PublicChannelRepository channelRepository,
-      ObjectMapper objectMapper,
       Connection connection,
-      MeterRegistry meterRegistry) {
+      MeterRegistry meterRegistry,
+      OutboundQueueOptions outboundQueueOptions,
+      DeliveryLatency deliveryLatency,
+      @Qualifier("deliveryExecutor") Executor sendingScheduler,
+      @Qualifier("sseWriteExecutor") Executor sseWriteExecutor,
+      StripedExecutor fanOutExecutor,
+      MessageTailCache<PublicMessageDto> tailCache,
+      PublicMessageService messageService,
+      ObjectMapper objectMapper,
+      @Value("${chat.sse.timeout:120s}") Duration sseTimeout,
+      @Value("${chat.metrics.top-channels:10}") int topChannels) {
     this.channelRepository = channelRepository;
-    this.objectMapper = objectMapper;
     this.connection = connection;
     this.meterRegistry = meterRegistry;
+    this.outboundQueueOptions = outboundQueueOptions;
+    this.deliveryLatency = deliveryLatency;
+    this.sendingScheduler = sendingScheduler;
+    this.sseWriteExecutor = sseWriteExecutor;
+    this.fanOutExecutor = fanOutExecutor;
+    this.tailCache = tailCache;
+    this.messageService = messageService;
+    this.objectMapper = objectMapper;
+    this.sseTimeout = sseTimeout.toMillis();
+    this.topChannels = topChannels;
   }
 
   @PostConstruct
@@ -78,9 +119,19 @@ public class PublicChannelServiceImpl implements PublicChannelService {
     Gauge onlineUsers =
         Gauge.builder(
                 "chat.public.channel.online.users",
-                listeningChannels,
-                l -> l.values().stream().mapToDouble(Set::size).sum())
+                subscriptionRegistry,
+                SubscriptionRegistry::countSubscribers)
+            .register(meterRegistry);
+    Gauge onlineChannels =
+        Gauge.builder(
+                "chat.public.channel.online.channels",
+                subscriptionRegistry,
+                SubscriptionRegistry::countKeys)
+            .description("channels with subscribers on this node")
             .register(meterRegistry);
+    if (topChannels > 0)
+      subscriptionRegistry.trackHotKeys(
+          new HotKeys(topChannels, "chat.public.channel.top.users", "channel", meterRegistry));
   }
 
   /**
@@ -92,35 +143,43 @@ public class PublicChannelServiceImpl implements PublicChannelService {
     dispatcher =
         connection.createDispatcher(
             (msg) -> {
-              try {
-                String channel = ChannelSubject.publicChannelOfSubject(msg.getSubject());
-                sendToSubscribers(
-                    listeningChannels.get(channel),
-                    objectMapper.readValue(
-                        new String(msg.getData(), StandardCharsets.UTF_8), PublicMessageDto.class));
-              } catch (JsonProcessingException e) {
-                e.printStackTrace();
-              }
+              String channel = MessageHeader.get(msg, MessageHeader.CHANNEL);
+              if (channel == null)
+                channel = ChannelSubject.publicChannelOfSubject(msg.getSubject());
+              UUID channelId = UUID.fromString(channel);
+              SharedFrame frame = SharedFrame.of(msg);
+              deliveryLatency.recordReceive(frame);
+              DispatchEvent event = new DispatchEvent();
+              event.begin();
+              fanOutExecutor.execute(
+                  channelId,
+                  () -> {
+                    int subscribers = sendToSubscribers(channelId, frame);
+                    event.finish(MessageHeader.PUBLIC, msg.getData().length, subscribers);
+                    if (tailCache.isEnabled()) tailCache.append(channelId, frame::json);
+                  });
             });
   }
 
-  /** deliver public messages to registered subscribers */
-  private void sendToSubscribers(Set<Object> subscribers, PublicMessageDto message) {
-    sendingScheduler.execute(
-        () -> {
-          try {
-            TextMessage textMessage =
-                new TextMessage("[" + objectMapper.writeValueAsString(message) + "]");
-            for (Object subscriber : subscribers.toArray()) {
-              if (subscriber instanceof SseEmitter)
-                SseUtil.sendMessageEvent((SseEmitter) subscriber, textMessage);
-              else if (subscriber instanceof WebSocketSession)
-                WebSocketUtil.sendMessage(((WebSocketSession) subscriber), textMessage);
-            }
-          } catch (Exception e) {
-            e.printStackTrace();
-          }
-        });
+  /** subscribe or unsubscribe the channel on nats when it gains or loses subscribers */
+  private void onInterestChanged(UUID channelId, boolean interested) {
+    String subject = ChannelSubject.publicChannelSubject(channelId.toString());
+    if (interested) dispatcher.subscribe(subject);
+    else dispatcher.unsubscribe(subject);
+    tailCache.track(channelId, interested);
+    logger.info("PublicChannel {} is {} on this server", channelId, interested ? "on" : "off");
+  }
+
+  /**
+   * deliver public messages to registered subscribers on the stripe of the channel, so messages of
+   * the same channel are enqueued in order. The message is encoded at most once per transport by
+   * the shared frame, which is only enqueued to the outbound queue of each subscriber, so a slow
+   * subscriber cannot delay the others
+   */
+  private int sendToSubscribers(UUID channelId, SharedFrame frame) {
+    Subscriber[] subscribers = subscriptionRegistry.getSubscribers(channelId);
+    for (Subscriber subscriber : subscribers) subscriber.deliver(frame);
+    return subscribers.length;
   }
 
   private PublicChannel getChannelById(String channelId) throws ChannelDoesNotExist {
@@ -133,33 +192,64 @@ public class PublicChannelServiceImpl implements PublicChannelService {
   }
 
   @Override
-  public SseEmitter subscribe(String channelId) throws ChannelDoesNotExist {
-    getChannelById(channelId);
+  public SseEmitter subscribe(String channelId, String lastEventId) throws ChannelDoesNotExist {
+    PublicChannel channel = getChannelById(channelId);
+    UUID lastMessageId = StreamReplay.parseToken(lastEventId);
 
-    SseEmitter subscriber = createChannelSubscriber(channelId);
-    SseUtil.sendConnectEvent(subscriber);
-    return subscriber;
+    SseSubscriber subscriber =
+        new SseSubscriber(
+            new SseEmitter(sseTimeout), outboundQueueOptions, sendingScheduler, sseWriteExecutor);
+    if (lastMessageId != null) subscriber.hold();
+    addUnSubscribeTriggers(channel.getId(), subscriber);
+    subscriptionRegistry.subscribe(channel.getId(), subscriber);
+    SseUtil.sendConnectEvent(subscriber.getEmitter());
+    subscriber.startHeartbeat();
+    if (lastMessageId != null) replay(subscriber, channel.getId(), lastMessageId);
+    return subscriber.getEmitter();
   }
 
   @Override
-  public void subscribe(WebSocketSession session, String channelId) throws ChannelDoesNotExist {
-    getChannelById(channelId);
-    addUnSubscribeTriggers(channelId, session);
-    listenToChannel(session, channelId);
+  public void subscribe(WebSocketSession session, String channelId, String lastMessageId)
+      throws ChannelDoesNotExist {
+    PublicChannel channel = getChannelById(channelId);
+    UUID resumeFrom = StreamReplay.parseToken(lastMessageId);
+    WebSocketSubscriber subscriber =
+        new WebSocketSubscriber(session, outboundQueueOptions, sendingScheduler);
+    if (resumeFrom != null) subscriber.hold();
+    WebSocketUtil.setSubscriber(session, subscriber);
+    addUnSubscribeTriggers(channel.getId(), subscriber);
+    subscriptionRegistry.subscribe(channel.getId(), subscriber);
     WebSocketUtil.sendConnectMessage(session);
+    subscriber.startHeartbeat();
+    if (resumeFrom != null) replay(subscriber, channel.getId(), resumeFrom);
   }
 
-  /**
-   * create SseEmitter instance(subscriber)
-   *
-   * @param channelId
-   * @return
-   */
-  private SseEmitter createChannelSubscriber(String channelId) {
-    SseEmitter subscriber = new SseEmitter(120000L);
-    addUnSubscribeTriggers(channelId, subscriber);
-    listenToChannel(subscriber, channelId);
-    return subscriber;
+  /** replay messages of the channel after the last received message to the held subscriber */
+  private void replay(QueuedSubscriber subscriber, UUID channelId, UUID lastMessageId) {
+    StreamReplay.replay(
+        subscriber,
+        lastMessageId,
+        outboundQueueOptions.getCapacity(),
+        (since, limit) ->
+            messageService
+                .getAllMessages(
+                    channelId.toString(),
+                    since,
+                    com.joejoe2.chat.data.PageRequest.builder().page(0).size(limit).build())
+                .getList(),
+        objectMapper);
+  }
+
+  @Override
+  public UUID addSubscriber(Subscriber subscriber, String channelId) throws ChannelDoesNotExist {
+    PublicChannel channel = getChannelById(channelId);
+    subscriptionRegistry.subscribe(channel.getId(), subscriber);
+    return channel.getId();
+  }
+
+  @Override
+  public void removeSubscriber(Subscriber subscriber, UUID channelId) {
+    subscriptionRegistry.unsubscribe(channelId, subscriber);
   }
 
   /**
@@ -169,9 +259,9 @@ public class PublicChannelServiceImpl implements PublicChannelService {
    * @param channelId
    * @param subscriber
    */
-  private void addUnSubscribeTriggers(String channelId, SseEmitter subscriber) {
-    Runnable unSubscribe = createUnSubscribeTrigger(channelId, subscriber);
-    SseUtil.addSseCallbacks(subscriber, unSubscribe);
+  private void addUnSubscribeTriggers(UUID channelId, SseSubscriber subscriber) {
+    Runnable unSubscribe = () -> subscriptionRegistry.unsubscribe(channelId, subscriber);
+    SseUtil.addSseCallbacks(subscriber.getEmitter(), unSubscribe);
   }
 
   /**
@@ -181,65 +271,9 @@ public class PublicChannelServiceImpl implements PublicChannelService {
    * @param channelId
    * @param subscriber
    */
-  private void addUnSubscribeTriggers(String channelId, WebSocketSession subscriber) {
-    Runnable unSubscribe = createUnSubscribeTrigger(channelId, subscriber);
-    WebSocketUtil.addFinishedCallbacks(subscriber, unSubscribe);
-  }
-
-  private Runnable createUnSubscribeTrigger(String channelId, Object subscriber) {
-    return () ->
-        listeningChannels.compute(
-            channelId,
-            (key, subscribers) -> {
-              if (subscribers != null) subscribers.remove(subscriber);
-              if (subscribers == null || subscribers.isEmpty()) {
-                dispatcher.unsubscribe(ChannelSubject.publicChannelSubject(channelId));
-                subscribers = null;
-              }
-              // decrease online user
-              int count = subscribers == null ? 0 : subscribers.size();
-              logger.info("PublicChannel " + channelId + " now has " + count + " subscribers");
-              return subscribers;
-            });
-  }
-
-  /**
-   * register SseEmitter instance(subscriber) and channelId to nats dispatcher
-   *
-   * @param subscriber
-   * @param channelId
-   */
-  private void listenToChannel(SseEmitter subscriber, String channelId) {
-    addToSubscribers(subscriber, channelId);
-  }
-
-  /**
-   * register WebSocketSession instance(subscriber) and channelId to nats dispatcher
-   *
-   * @param subscriber
-   * @param channelId
-   */
-  private void listenToChannel(WebSocketSession subscriber, String channelId) {
-    addToSubscribers(subscriber, channelId);
-  }
-
-  private void addToSubscribers(Object subscriber, String channelId) {
-    listeningChannels.compute(
-        channelId,
-        (key, subscribers) -> {
-          // create new subscribers set
-          if (subscribers == null) {
-            // subscribe to nats
-            dispatcher.subscribe(ChannelSubject.publicChannelSubject(channelId));
-            subscribers = Collections.synchronizedSet(new HashSet<>());
-          }
-          // add to subscribers
-          subscribers.add(subscriber);
-          // increase online user
-          logger.info(
-              "PublicChannel " + channelId + " now has " + subscribers.size() + " subscribers");
-          return subscribers;
-        });
+  private void addUnSubscribeTriggers(UUID channelId, WebSocketSubscriber subscriber) {
+    Runnable unSubscribe = () -> subscriptionRegistry.unsubscribe(channelId, subscriber);
+    WebSocketUtil.addFinishedCallbacks(subscriber.getSession(), unSubscribe);
   }
 
   @Override
@@ -19,6 +19,21 @@ public interface GroupMessageService {
       String userId, String channelId, Instant since, PageRequest pageRequest)
       throws UserDoesNotExist, ChannelDoesNotExist, InvalidOperation;
 
+  /**
+   * get messages of the channel after the sequence number in ascending order of seq
+   *
+   * @param userId id of a member of the channel
+   * @param channelId channel id
+   * @param afterSeq sequence number of the last known message, 0 for all messages
+   * @param pageRequest page request
+   */
+  SliceList<GroupMessageDto> getMessagesAfter(
+      String userId, String channelId, long afterSeq, PageRequest pageRequest)
+      throws UserDoesNotExist, ChannelDoesNotExist, InvalidOperation;
+
+  SliceList<GroupMessageDto> getAllMessages(String userId, Instant since, PageRequest pageRequest)
+      throws UserDoesNotExist;
+
   @Transactional(readOnly = true)
   SliceList<GroupMessageDto> getInvitations(String userId, Instant since, PageRequest pageRequest)
       throws UserDoesNotExist;
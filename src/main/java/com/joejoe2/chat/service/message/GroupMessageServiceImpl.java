@@ -9,15 +9,23 @@ import com.joejoe2.chat.data.message.GroupMessageDto;
 import com.joejoe2.chat.exception.ChannelDoesNotExist;
 import com.joejoe2.chat.exception.InvalidOperation;
 import com.joejoe2.chat.exception.UserDoesNotExist;
+import com.joejoe2.chat.jfr.CreateMessageEvent;
+import com.joejoe2.chat.jfr.DeliverMessageEvent;
 import com.joejoe2.chat.models.GroupChannel;
 import com.joejoe2.chat.models.GroupMessage;
 import com.joejoe2.chat.models.MessageType;
+import com.joejoe2.chat.models.UUIDv7Generator;
 import com.joejoe2.chat.models.User;
 import com.joejoe2.chat.repository.channel.GroupChannelRepository;
 import com.joejoe2.chat.repository.message.GroupMessageRepository;
+import com.joejoe2.chat.service.channel.ChannelAuthorizationIndex;
+import com.joejoe2.chat.service.nats.GroupFanOutMode;
 import com.joejoe2.chat.service.nats.NatsService;
+import com.joejoe2.chat.service.subscription.DeliveryLatency;
 import com.joejoe2.chat.service.user.UserService;
 import com.joejoe2.chat.utils.ChannelSubject;
+import com.joejoe2.chat.utils.MessageHeader;
+import com.joejoe2.chat.utils.TimeUtil;
 import com.joejoe2.chat.validation.validator.MessageValidator;
 import com.joejoe2.chat.validation.validator.PageRequestValidator;
 import com.joejoe2.chat.validation.validator.UUIDValidator;
@@ -26,10 +34,9 @@ import java.util.Comparator;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Slice;
-import org.springframework.retry.annotation.Backoff;
-import org.springframework.retry.annotation.Retryable;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -41,6 +48,11 @@ public class GroupMessageServiceImpl implements GroupMessageService {
   private final GroupMessageRepository messageRepository;
   private final NatsService natsService;
   private final ObjectMapper objectMapper;
+  private final GroupFanOutMode fanOutMode;
+  private final MessageTailCache<GroupMessageDto> tailCache;
+  private final DeliveryLatency deliveryLatency;
+  private final MessageWriter<GroupMessage> messageWriter;
+  private final ChannelAuthorizationIndex authorizationIndex;
   private static final Logger logger = LoggerFactory.getLogger(GroupMessageService.class);
 
   private final UUIDValidator uuidValidator = UUIDValidator.getInstance();
@@ -54,12 +66,22 @@ public class GroupMessageServiceImpl implements GroupMessageService {
       GroupChannelRepository channelRepository,
       GroupMessageRepository messageRepository,
       NatsService natsService,
-      ObjectMapper objectMapper) {
+      ObjectMapper objectMapper,
+      @Value("${chat.group.fanout:MEMBER}") GroupFanOutMode fanOutMode,
+      MessageTailCache<GroupMessageDto> tailCache,
+      DeliveryLatency deliveryLatency,
+      MessageWriter<GroupMessage> messageWriter,
+      @Qualifier("groupAuthorizationIndex") ChannelAuthorizationIndex authorizationIndex) {
     this.userService = userService;
     this.channelRepository = channelRepository;
     this.messageRepository = messageRepository;
     this.natsService = natsService;
     this.objectMapper = objectMapper;
+    this.fanOutMode = fanOutMode;
+    this.tailCache = tailCache;
+    this.deliveryLatency = deliveryLatency;
+    this.messageWriter = messageWriter;
+    this.authorizationIndex = authorizationIndex;
   }
 
   private GroupChannel getChannelById(String channelId) throws ChannelDoesNotExist {
@@ -71,37 +93,95 @@ public class GroupMessageServiceImpl implements GroupMessageService {
                     "channel with id=%s does not exist !".formatted(channelId)));
   }
 
+  /**
+   * the message row is inserted directly instead of appending it to the channel aggregate, and the
+   * last message of the channel is advanced by a conditional update which does not bump the version
+   * of the channel, so concurrent senders of a busy group do not conflict. Both are done by the
+   * group commit writer, see {@link PublicMessageServiceImpl#createMessage}. The sender is checked
+   * against the authorization index instead of loading members of the channel.
+   */
   @Override
-  @Retryable(value = OptimisticLockingFailureException.class, backoff = @Backoff(delay = 100))
-  @Transactional(rollbackFor = Exception.class)
   public GroupMessageDto createMessage(String fromUserId, String channelId, String message)
       throws UserDoesNotExist, ChannelDoesNotExist, InvalidOperation {
-    message = messageValidator.validate(message);
-    User fromUser = userService.getUserById(fromUserId);
-    GroupChannel channel = getChannelById(channelId);
+    CreateMessageEvent event = CreateMessageEvent.start();
+    try {
+      long start = System.nanoTime();
+      message = messageValidator.validate(message);
+      User fromUser = userService.getUserById(fromUserId);
+      UUID id = uuidValidator.validate(channelId);
+      ChannelAuthorizationIndex.Access access = authorizationIndex.get(id);
+      if (!access.isMember(fromUser.getId())) {
+        if (access.isEmpty() && !channelRepository.existsById(id))
+          throw new ChannelDoesNotExist("channel with id=%s does not exist !".formatted(channelId));
+        throw new InvalidOperation("user is not in members of the channel !");
+      }
+      if (access.isRestricted(fromUser.getId()))
+        throw new InvalidOperation("user with id=%s has benn banned !".formatted(fromUser.getId()));
 
-    channel.addMessage(fromUser, message);
-    channelRepository.saveAndFlush(channel);
-    return new GroupMessageDto(channel.getLastMessage());
+      Instant now = TimeUtil.roundToMicro(Instant.now());
+      GroupMessage groupMessage =
+          new GroupMessage(channelRepository.getReferenceById(id), fromUser, message);
+      groupMessage.setId(UUIDv7Generator.nextId());
+      groupMessage.setCreateAt(now);
+      groupMessage.setUpdateAt(now);
+      groupMessage.setVersion(now);
+      messageWriter.write(groupMessage);
+      deliveryLatency.recordCommit(MessageHeader.GROUP, start);
+      return new GroupMessageDto(groupMessage);
+    } catch (Exception e) {
+      event.failure = e.getClass().getName();
+      throw e;
+    } finally {
+      event.finish(MessageHeader.GROUP, message, 0);
+    }
   }
 
   @Override
   @Async("asyncExecutor")
   public void deliverMessage(GroupMessageDto message) {
+    DeliverMessageEvent event = new DeliverMessageEvent();
+    event.begin();
+    UUID targetUser = targetUserOf(message);
+    if (fanOutMode == GroupFanOutMode.CHANNEL) {
+      // each node resolves members connected to it
+      natsService.publish(
+          ChannelSubject.groupChannelBroadcastSubject(message.getChannel().toString()),
+          message,
+          targetUser);
+      event.finish(MessageHeader.GROUP, message.getContent(), 1);
+      return;
+    }
+    int publishes = 0;
     for (UUID memberId : channelRepository.getMembersIdByChannel(message.getChannel())) {
       natsService.publish(ChannelSubject.groupChannelSubject(memberId.toString()), message);
+      publishes++;
     }
     // also send to invitee or the one just leave channel
     if (MessageType.INVITATION.equals(message.getMessageType())
         || MessageType.LEAVE.equals(message.getMessageType())) {
-      try {
-        UserPublicProfile user =
-            objectMapper.readValue(message.getContent(), UserPublicProfile.class);
-        natsService.publish(ChannelSubject.groupChannelSubject(user.getId()), message);
-      } catch (JsonProcessingException e) {
-        logger.error(e.getMessage());
+      if (targetUser != null) {
+        natsService.publish(ChannelSubject.groupChannelSubject(targetUser.toString()), message);
+        publishes++;
       }
     }
+    event.finish(MessageHeader.GROUP, message.getContent(), publishes);
+  }
+
+  /**
+   * get the user affected by the event(invitation, join, leave, ban or unban)
+   *
+   * @return user id in the content or null for normal messages
+   */
+  private UUID targetUserOf(GroupMessageDto message) {
+    if (MessageType.MESSAGE.equals(message.getMessageType())) return null;
+    try {
+      UserPublicProfile user =
+          objectMapper.readValue(message.getContent(), UserPublicProfile.class);
+      return UUID.fromString(user.getId());
+    } catch (JsonProcessingException | IllegalArgumentException e) {
+      logger.error(e.getMessage());
+      return null;
+    }
   }
 
   @Override
@@ -116,6 +196,23 @@ public class GroupMessageServiceImpl implements GroupMessageService {
     if (!channel.getMembers().contains(user))
       throw new InvalidOperation("user is not in members of the channel !");
 
+    // messages of the channel are received by the subject of the user or of all channels
+    SliceList<GroupMessageDto> cached =
+        tailCache.getPage(
+            channel.getId(),
+            fanOutMode == GroupFanOutMode.CHANNEL ? MessageTailCache.ALL : user.getId(),
+            paging.getPageNumber(),
+            paging.getPageSize(),
+            since,
+            limit ->
+                messageRepository
+                    .findAllByChannel(
+                        channel, org.springframework.data.domain.PageRequest.of(0, limit))
+                    .stream()
+                    .map(GroupMessageDto::new)
+                    .toList());
+    if (cached != null) return cached;
+
     Slice<GroupMessage> slice = messageRepository.findAllByChannelSince(channel, since, paging);
     return new SliceList<>(
         slice.getNumber(),
@@ -127,6 +224,45 @@ public class GroupMessageServiceImpl implements GroupMessageService {
         slice.hasNext());
   }
 
+  @Override
+  @Transactional(readOnly = true)
+  public SliceList<GroupMessageDto> getMessagesAfter(
+      String userId, String channelId, long afterSeq, PageRequest pageRequest)
+      throws UserDoesNotExist, ChannelDoesNotExist, InvalidOperation {
+    if (afterSeq < 0) throw new IllegalArgumentException("after must >= 0 !");
+    org.springframework.data.domain.PageRequest paging = pageValidator.validate(pageRequest);
+    User user = userService.getUserById(userId);
+    GroupChannel channel = getChannelById(channelId);
+    if (!channel.getMembers().contains(user))
+      throw new InvalidOperation("user is not in members of the channel !");
+
+    Slice<GroupMessage> slice = messageRepository.findAllByChannelAfter(channel, afterSeq, paging);
+    return new SliceList<>(
+        slice.getNumber(),
+        slice.getSize(),
+        slice.getContent().stream().map(GroupMessageDto::new).toList(),
+        slice.hasNext());
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public SliceList<GroupMessageDto> getAllMessages(
+      String userId, Instant since, PageRequest pageRequest) throws UserDoesNotExist {
+    if (since == null) throw new IllegalArgumentException("since cannot be null !");
+    org.springframework.data.domain.PageRequest paging = pageValidator.validate(pageRequest);
+    User user = userService.getUserById(userId);
+
+    Slice<GroupMessage> slice = messageRepository.findAllByMemberSince(user, since, paging);
+    return new SliceList<>(
+        slice.getNumber(),
+        slice.getSize(),
+        slice.getContent().stream()
+            .sorted(Comparator.comparing(GroupMessage::getUpdateAt))
+            .map(GroupMessageDto::new)
+            .toList(),
+        slice.hasNext());
+  }
+
   @Override
   @Transactional(readOnly = true)
   public SliceList<GroupMessageDto> getInvitations(
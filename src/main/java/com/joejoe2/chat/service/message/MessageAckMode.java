@@ -0,0 +1,12 @@
+package com.joejoe2.chat.service.message;
+
+/** when createMessage returns to the sender, see {@link MessageWriter} */
+public enum MessageAckMode {
+  /** after the batch containing the message is committed */
+  DURABLE,
+  /**
+   * after the message is queued for the next batch, the message is lost if the node crashes or the
+   * batch fails before it is committed, and the sequence number of the message is not returned
+   */
+  ENQUEUE
+}
@@ -0,0 +1,280 @@
+package com.joejoe2.chat.service.message;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.joejoe2.chat.data.SliceList;
+import com.joejoe2.chat.data.message.MessageDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node-local cache of the newest messages(the tail) of channels, so history queries of the newest
+ * pages are not sent to the database. A tail is loaded from the database on first use and then kept
+ * current by messages received from nats.
+ *
+ * <p>A tail is only complete while this node keeps receiving messages of the channel, so it is
+ * bound to the feed(the subscription of nats, ex. the channel or the user) it is loaded for and
+ * only served while the feed is tracked continuously since before the load. Tails are also reloaded
+ * after max age in case a message is missed, and evicted by LRU across channels.
+ */
+public class MessageTailCache<T extends MessageDto> {
+  private static final Logger logger = LoggerFactory.getLogger(MessageTailCache.class);
+
+  /** feed of a subscription receiving messages of all channels */
+  public static final UUID ALL = new UUID(0, 0);
+
+  /** time for a new subscription to take effect on nats before a tail can be loaded */
+  private static final Duration TRACKING_GRACE = Duration.ofSeconds(2);
+
+  private static final int LOAD_LOCKS = 64;
+
+  private final Class<T> type;
+  private final ObjectMapper objectMapper;
+  private final int size;
+  private final long maxAgeNanos;
+  private final long trackingGraceNanos;
+  private final Map<UUID, Tail<T>> tails;
+  private final ConcurrentHashMap<UUID, Tracking> tracking = new ConcurrentHashMap<>();
+  private final AtomicLong generations = new AtomicLong();
+  private final Object[] loadLocks = new Object[LOAD_LOCKS];
+  private final Counter hits, misses;
+
+  private record Tracking(long generation, long since) {}
+
+  /** load the newest messages of a channel from the database */
+  public interface Loader<T> {
+    /**
+     * @param limit max number of messages
+     * @return newest messages in descending order of updateAt
+     */
+    List<T> load(int limit);
+  }
+
+  /**
+   * @param name name of the cache used in metrics
+   * @param type type of messages
+   * @param objectMapper mapper of messages received from nats
+   * @param size max number of messages kept per channel, 0 disables the cache
+   * @param maxChannels max number of channels in the cache
+   * @param maxAge max age of a tail before it is reloaded
+   * @param registry meter registry
+   */
+  public MessageTailCache(
+      String name,
+      Class<T> type,
+      ObjectMapper objectMapper,
+      int size,
+      int maxChannels,
+      Duration maxAge,
+      MeterRegistry registry) {
+    this(name, type, objectMapper, size, maxChannels, maxAge, TRACKING_GRACE, registry);
+  }
+
+  MessageTailCache(
+      String name,
+      Class<T> type,
+      ObjectMapper objectMapper,
+      int size,
+      int maxChannels,
+      Duration maxAge,
+      Duration trackingGrace,
+      MeterRegistry registry) {
+    this.type = type;
+    this.objectMapper = objectMapper;
+    this.size = size;
+    this.maxAgeNanos = maxAge.toNanos();
+    this.trackingGraceNanos = trackingGrace.toNanos();
+    this.tails =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<UUID, Tail<T>> eldest) {
+                return size() > maxChannels;
+              }
+            });
+    for (int i = 0; i < LOAD_LOCKS; i++) loadLocks[i] = new Object();
+    this.hits =
+        Counter.builder("chat.message.tail.cache")
+            .description("history queries of the newest messages")
+            .tag("name", name)
+            .tag("result", "hit")
+            .register(registry);
+    this.misses =
+        Counter.builder("chat.message.tail.cache")
+            .description("history queries of the newest messages")
+            .tag("name", name)
+            .tag("result", "miss")
+            .register(registry);
+  }
+
+  public boolean isEnabled() {
+    return size > 0;
+  }
+
+  /**
+   * start or stop tracking the feed, call it when the feed is subscribed or unsubscribed on nats
+   *
+   * @param feed channel id, user id or {@link #ALL}
+   * @param tracked whether the feed is subscribed
+   */
+  public void track(UUID feed, boolean tracked) {
+    if (!isEnabled()) return;
+    if (tracked) tracking.put(feed, new Tracking(generations.incrementAndGet(), System.nanoTime()));
+    else tracking.remove(feed);
+  }
+
+  /**
+   * add a message received from nats to the tail of its channel if the tail is cached, the message
+   * is only read if the channel has a tail
+   *
+   * @param channelId channel of the message from its header or subject, null if unknown
+   * @param json utf-8 json of the message
+   */
+  public void append(UUID channelId, Supplier<byte[]> json) {
+    if (!isEnabled()) return;
+    if (channelId != null && !tails.containsKey(channelId)) return;
+    T message;
+    try {
+      message = objectMapper.readValue(json.get(), type);
+    } catch (IOException e) {
+      logger.debug("cannot read message: {}", e.getMessage());
+      return;
+    }
+    Tail<T> tail = tails.get(message.getChannel());
+    if (tail != null) tail.add(message);
+  }
+
+  /**
+   * drop the tail of the channel, ex. when the feed may stop receiving messages of it
+   *
+   * @param channelId channel id
+   */
+  public void invalidate(UUID channelId) {
+    tails.remove(channelId);
+  }
+
+  /**
+   * get the page of the newest messages of the channel from the cache, the tail is loaded if absent
+   * or expired
+   *
+   * @param channelId channel id
+   * @param feed the feed receiving messages of the channel on this node
+   * @param page page number
+   * @param pageSize page size
+   * @param since filter by updateAt >= since, may be null
+   * @param loader loader of the tail
+   * @return messages in ascending order of updateAt, or null if it cannot be served from cache
+   */
+  public SliceList<T> getPage(
+      UUID channelId, UUID feed, int page, int pageSize, Instant since, Loader<T> loader) {
+    if (!isEnabled()) return null;
+    Tracking current = tracking.get(feed);
+    if (current == null || System.nanoTime() - current.since < trackingGraceNanos) {
+      misses.increment();
+      return null;
+    }
+    Tail<T> tail = tails.get(channelId);
+    if (!isValid(tail)) {
+      synchronized (loadLocks[(channelId.hashCode() & 0x7fffffff) % LOAD_LOCKS]) {
+        tail = tails.get(channelId);
+        if (!isValid(tail)) {
+          // messages received during the load are kept by the loading tail
+          tail = new Tail<>(size, feed, current.generation);
+          tails.put(channelId, tail);
+          try {
+            tail.load(loader.load(size));
+          } catch (RuntimeException e) {
+            tails.remove(channelId, tail);
+            throw e;
+          }
+        }
+      }
+    }
+    SliceList<T> slice = tail.page(page, pageSize, since);
+    if (slice == null) misses.increment();
+    else hits.increment();
+    return slice;
+  }
+
+  /** whether the feed of the tail is tracked since the tail is loaded */
+  private boolean isValid(Tail<T> tail) {
+    if (tail == null || System.nanoTime() - tail.loadedAt >= maxAgeNanos) return false;
+    Tracking current = tracking.get(tail.feed);
+    return current != null && current.generation == tail.generation;
+  }
+
+  /** newest messages of a channel in ascending order of updateAt */
+  private static class Tail<T extends MessageDto> {
+    private record Entry<T>(Instant updateAt, T message) {}
+
+    private final int capacity;
+    private final UUID feed;
+    private final long generation;
+    private final long loadedAt = System.nanoTime();
+    private final ArrayList<Entry<T>> entries = new ArrayList<>();
+    private final Set<UUID> ids = new HashSet<>();
+
+    /** messages newer than floor are complete, null means all messages of the channel are kept */
+    private Instant floor;
+
+    private boolean loaded = false;
+
+    Tail(int capacity, UUID feed, long generation) {
+      this.capacity = capacity;
+      this.feed = feed;
+      this.generation = generation;
+    }
+
+    synchronized void load(List<T> newest) {
+      for (T message : newest) add(message);
+      if (newest.size() >= capacity) {
+        Instant oldest = Instant.parse(newest.get(newest.size() - 1).getUpdateAt());
+        floor = floor == null || oldest.isAfter(floor) ? oldest : floor;
+      }
+      loaded = true;
+    }
+
+    synchronized void add(T message) {
+      Instant updateAt = Instant.parse(message.getUpdateAt());
+      if ((floor != null && !updateAt.isAfter(floor)) || !ids.add(message.getId())) return;
+      int index = entries.size();
+      while (index > 0 && entries.get(index - 1).updateAt.isAfter(updateAt)) index--;
+      entries.add(index, new Entry<>(updateAt, message));
+      while (entries.size() > capacity) {
+        Entry<T> evicted = entries.remove(0);
+        ids.remove(evicted.message.getId());
+        floor = floor == null || evicted.updateAt.isAfter(floor) ? evicted.updateAt : floor;
+      }
+    }
+
+    synchronized SliceList<T> page(int page, int pageSize, Instant since) {
+      if (!loaded) return null;
+      // candidates are a suffix of entries
+      int start = entries.size();
+      if (since != null) {
+        if (floor != null && !since.isAfter(floor)) return null;
+        while (start > 0 && !entries.get(start - 1).updateAt.isBefore(since)) start--;
+      } else {
+        while (start > 0 && (floor == null || entries.get(start - 1).updateAt.isAfter(floor)))
+          start--;
+      }
+      boolean complete = since != null || floor == null;
+      int count = entries.size() - start;
+      long from = (long) page * pageSize, to = from + pageSize;
+      if (to > count && !complete) return null;
+      int fromIndex = entries.size() - (int) Math.min(to, count);
+      int toIndex = entries.size() - (int) Math.min(from, count);
+      List<T> list = new ArrayList<>(toIndex - fromIndex);
+      for (int i = fromIndex; i < toIndex; i++) list.add(entries.get(i).message);
+      return new SliceList<>(page, pageSize, list, count > to || !complete);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package com.joejoe2.chat.service.message;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Group commit of new messages. Messages written by concurrent senders are queued and inserted by a
+ * single writer thread in batches, each batch in one transaction, so the database commits once per
+ * batch instead of once per message. Ids and timestamps of messages are assigned by the sender
+ * before the message is queued.
+ *
+ * <p>After the first message of a batch is taken, the writer waits up to the window for more
+ * messages, a batch is written earlier once it reaches the max batch size. Batches also form
+ * without a window while the previous one is being committed.
+ *
+ * <p>If a batch fails, its messages are written again one by one, so only the failed messages are
+ * rejected.
+ */
+public class MessageWriter<T> implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(MessageWriter.class);
+  private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final String name;
+  private final Sink<T> sink;
+  private final MessageAckMode ackMode;
+  private final long windowNanos;
+  private final int maxBatch;
+  private final BlockingQueue<Pending<T>> queue;
+  private final Thread thread;
+  private final DistributionSummary batches;
+  private final Counter failures;
+  private volatile boolean closed = false;
+
+  private record Pending<T>(T message, CompletableFuture<T> result) {}
+
+  /** insert messages to the database */
+  public interface Sink<T> {
+    /**
+     * insert the messages in one transaction, generated columns of the database(ex. seq) are set
+     * back to the messages
+     *
+     * @param messages messages in the order they are written
+     */
+    void insert(List<T> messages) throws Exception;
+  }
+
+  /**
+   * @param name name of the writer used in metrics and the name of the writer thread
+   * @param sink sink of batches
+   * @param ackMode when {@link #write} returns
+   * @param window max time to wait for more messages of a batch
+   * @param maxBatch max number of messages in a batch
+   * @param capacity max number of queued messages, senders are blocked when the queue is full
+   * @param registry meter registry
+   */
+  public MessageWriter(
+      String name,
+      Sink<T> sink,
+      MessageAckMode ackMode,
+      Duration window,
+      int maxBatch,
+      int capacity,
+      MeterRegistry registry) {
+    if (maxBatch <= 0) throw new IllegalArgumentException("maxBatch must > 0 !");
+    this.name = name;
+    this.sink = sink;
+    this.ackMode = ackMode;
+    this.windowNanos = window.toNanos();
+    this.maxBatch = maxBatch;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.batches =
+        DistributionSummary.builder("chat.message.write.batch")
+            .description("number of messages inserted in one transaction")
+            .tag("name", name)
+            .register(registry);
+    this.failures =
+        Counter.builder("chat.message.write.failures")
+            .description("messages failed to be inserted")
+            .tag("name", name)
+            .register(registry);
+    Gauge.builder("chat.message.write.queue", queue, BlockingQueue::size)
+        .description("messages waiting to be inserted")
+        .tag("name", name)
+        .register(registry);
+    this.thread = new Thread(this::run, "message-writer-" + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public MessageAckMode getAckMode() {
+    return ackMode;
+  }
+
+  /**
+   * queue the message for the next batch, and wait until the batch is committed if the ack mode is
+   * {@link MessageAckMode#DURABLE}
+   *
+   * @param message message with its id and timestamps assigned
+   * @return the message
+   * @throws IllegalStateException if the writer is closed or the thread is interrupted
+   * @throws RuntimeException cause of the failed insert
+   */
+  public T write(T message) {
+    if (closed) throw new IllegalStateException("writer " + name + " is closed !");
+    Pending<T> pending = new Pending<>(message, new CompletableFuture<>());
+    try {
+      queue.put(pending);
+      if (ackMode == MessageAckMode.ENQUEUE) return message;
+      return pending.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while writing the message !", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) throw cause;
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private void run() {
+    List<Pending<T>> batch = new ArrayList<>(maxBatch);
+    while (!closed || !queue.isEmpty()) {
+      try {
+        Pending<T> first = queue.poll(IDLE_POLL_NANOS, TimeUnit.NANOSECONDS);
+        if (first == null) continue;
+        batch.add(first);
+        collect(batch);
+        flush(batch);
+      } catch (InterruptedException e) {
+        if (!closed) logger.warn("writer {} is interrupted", name);
+      } catch (Throwable e) {
+        logger.error("writer {} failed", name, e);
+        batch.forEach(pending -> pending.result.completeExceptionally(e));
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  /** wait up to the window for more messages of the batch */
+  private void collect(List<Pending<T>> batch) throws InterruptedException {
+    queue.drainTo(batch, maxBatch - batch.size());
+    long deadline = System.nanoTime() + windowNanos;
+    while (batch.size() < maxBatch && !closed) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) break;
+      Pending<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) break;
+      batch.add(next);
+      queue.drainTo(batch, maxBatch - batch.size());
+    }
+  }
+
+  private void flush(List<Pending<T>> batch) {
+    batches.record(batch.size());
+    try {
+      sink.insert(batch.stream().map(Pending::message).toList());
+      batch.forEach(pending -> pending.result.complete(pending.message));
+      return;
+    } catch (Exception e) {
+      if (batch.size() == 1) {
+        fail(batch.get(0), e);
+        return;
+      }
+      logger.debug("batch of writer {} failed, retry messages one by one", name, e);
+    }
+    for (Pending<T> pending : batch) {
+      try {
+        sink.insert(List.of(pending.message));
+        pending.result.complete(pending.message);
+      } catch (Exception e) {
+        fail(pending, e);
+      }
+    }
+  }
+
+  private void fail(Pending<T> pending, Exception e) {
+    failures.increment();
+    if (ackMode == MessageAckMode.ENQUEUE)
+      logger.error("writer {} cannot insert a message", name, e);
+    pending.result.completeExceptionally(e);
+  }
+
+  /** stop accepting messages, and wait until queued messages are written */
+  @Override
+  public void close() throws InterruptedException {
+    closed = true;
+    thread.join();
+    // messages queued by senders racing with the close
+    Pending<T> pending;
+    while ((pending = queue.poll()) != null)
+      pending.result.completeExceptionally(
+          new IllegalStateException("writer " + name + " is closed !"));
+  }
+}
@@ -0,0 +1,64 @@
+package com.joejoe2.chat.service.message;
+
+import java.util.*;
+
+/**
+ * In-process index of the two members of private channels. Members of a private channel never
+ * change, so an entry never becomes stale and is only evicted by LRU. Each entry keeps the two
+ * member ids as 4 longs instead of UUID objects.
+ */
+class PrivateChannelPairIndex {
+  private final Map<UUID, Pair> pairs;
+
+  /** member ids ordered by {@link UUID#compareTo} */
+  private record Pair(long firstMost, long firstLeast, long secondMost, long secondLeast) {
+    static Pair of(UUID a, UUID b) {
+      if (a.compareTo(b) > 0) return of(b, a);
+      return new Pair(
+          a.getMostSignificantBits(),
+          a.getLeastSignificantBits(),
+          b.getMostSignificantBits(),
+          b.getLeastSignificantBits());
+    }
+
+    UUID[] members() {
+      return new UUID[] {new UUID(firstMost, firstLeast), new UUID(secondMost, secondLeast)};
+    }
+  }
+
+  /**
+   * @param maxChannels max number of channels in the index
+   */
+  PrivateChannelPairIndex(int maxChannels) {
+    this.pairs =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<UUID, Pair> eldest) {
+                return size() > maxChannels;
+              }
+            });
+  }
+
+  /** record the two members of the channel, only after the sender is authorized */
+  void put(UUID channelId, UUID member, UUID anotherMember) {
+    pairs.put(channelId, Pair.of(member, anotherMember));
+  }
+
+  /**
+   * resolve recipients of a message in the channel, the members in the index take precedence over
+   * from and to of the message. An unknown channel falls back to from and to of the message, and is
+   * not recorded since the message is not verified against the members
+   *
+   * @param channelId channel id
+   * @param from sender of the message
+   * @param to receiver of the message
+   * @return the two members
+   */
+  UUID[] recipients(UUID channelId, UUID from, UUID to) {
+    Pair known = pairs.get(channelId);
+    return known == null || known.equals(Pair.of(from, to))
+        ? new UUID[] {from, to}
+        : known.members();
+  }
+}
@@ -28,4 +28,16 @@ public interface PrivateMessageService {
   SliceList<PrivateMessageDto> getAllMessages(
       String userId, String channelId, Instant since, PageRequest pageRequest)
       throws UserDoesNotExist, ChannelDoesNotExist, InvalidOperation;
+
+  /**
+   * get messages of the channel after the sequence number in ascending order of seq
+   *
+   * @param userId id of a member of the channel
+   * @param channelId channel id
+   * @param afterSeq sequence number of the last known message, 0 for all messages
+   * @param pageRequest page request
+   */
+  SliceList<PrivateMessageDto> getMessagesAfter(
+      String userId, String channelId, long afterSeq, PageRequest pageRequest)
+      throws UserDoesNotExist, ChannelDoesNotExist, InvalidOperation;
 }
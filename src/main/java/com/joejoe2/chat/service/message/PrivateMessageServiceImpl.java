@@ -7,24 +7,31 @@ import com.joejoe2.chat.exception.BlockedException;
 import com.joejoe2.chat.exception.ChannelDoesNotExist;
 import com.joejoe2.chat.exception.InvalidOperation;
 import com.joejoe2.chat.exception.UserDoesNotExist;
+import com.joejoe2.chat.jfr.CreateMessageEvent;
+import com.joejoe2.chat.jfr.DeliverMessageEvent;
 import com.joejoe2.chat.models.PrivateChannel;
 import com.joejoe2.chat.models.PrivateMessage;
+import com.joejoe2.chat.models.UUIDv7Generator;
 import com.joejoe2.chat.models.User;
 import com.joejoe2.chat.repository.channel.PrivateChannelRepository;
 import com.joejoe2.chat.repository.message.PrivateMessageRepository;
+import com.joejoe2.chat.service.channel.ChannelAuthorizationIndex;
 import com.joejoe2.chat.service.nats.NatsService;
+import com.joejoe2.chat.service.subscription.DeliveryLatency;
 import com.joejoe2.chat.service.user.UserService;
 import com.joejoe2.chat.utils.ChannelSubject;
+import com.joejoe2.chat.utils.MessageHeader;
+import com.joejoe2.chat.utils.TimeUtil;
 import com.joejoe2.chat.validation.validator.MessageValidator;
 import com.joejoe2.chat.validation.validator.PageRequestValidator;
 import com.joejoe2.chat.validation.validator.UUIDValidator;
 import java.time.Instant;
 import java.util.Comparator;
+import java.util.List;
 import java.util.UUID;
-import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Slice;
-import org.springframework.retry.annotation.Backoff;
-import org.springframework.retry.annotation.Retryable;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -35,21 +42,37 @@ public class PrivateMessageServiceImpl implements PrivateMessageService {
   private final PrivateChannelRepository channelRepository;
   private final PrivateMessageRepository messageRepository;
   private final NatsService natsService;
+  private final MessageTailCache<PrivateMessageDto> tailCache;
+  private final DeliveryLatency deliveryLatency;
+  private final MessageWriter<PrivateMessage> messageWriter;
+  private final ChannelAuthorizationIndex authorizationIndex;
 
   private final UUIDValidator uuidValidator = UUIDValidator.getInstance();
   private final MessageValidator messageValidator = MessageValidator.getInstance();
 
   private final PageRequestValidator pageValidator = PageRequestValidator.getInstance();
 
+  private final PrivateChannelPairIndex pairIndex;
+
   public PrivateMessageServiceImpl(
       UserService userService,
       PrivateChannelRepository channelRepository,
       PrivateMessageRepository messageRepository,
-      NatsService natsService) {
+      NatsService natsService,
+      MessageTailCache<PrivateMessageDto> tailCache,
+      DeliveryLatency deliveryLatency,
+      MessageWriter<PrivateMessage> messageWriter,
+      @Qualifier("privateAuthorizationIndex") ChannelAuthorizationIndex authorizationIndex,
+      @Value("${chat.private.pair-index.max-channels:100000}") int pairIndexChannels) {
     this.userService = userService;
     this.channelRepository = channelRepository;
     this.messageRepository = messageRepository;
     this.natsService = natsService;
+    this.tailCache = tailCache;
+    this.deliveryLatency = deliveryLatency;
+    this.messageWriter = messageWriter;
+    this.authorizationIndex = authorizationIndex;
+    this.pairIndex = new PrivateChannelPairIndex(pairIndexChannels);
   }
 
   private PrivateChannel getChannelById(String channelId) throws ChannelDoesNotExist {
@@ -61,26 +84,84 @@ public class PrivateMessageServiceImpl implements PrivateMessageService {
                     "channel with id=%s does not exist !".formatted(channelId)));
   }
 
-  @Retryable(value = OptimisticLockingFailureException.class, backoff = @Backoff(delay = 100))
-  @Transactional(rollbackFor = Exception.class)
+  /**
+   * the message row is inserted directly instead of appending it to the channel aggregate, and the
+   * last message of the channel is advanced by a conditional update which does not bump the version
+   * of the channel, so concurrent senders do not conflict. Both are done by the group commit
+   * writer, see {@link PublicMessageServiceImpl#createMessage}
+   */
   @Override
   public PrivateMessageDto createMessage(String fromUserId, String channelId, String message)
       throws UserDoesNotExist, ChannelDoesNotExist, InvalidOperation, BlockedException {
-    message = messageValidator.validate(message);
-    User fromUser = userService.getUserById(fromUserId);
-    PrivateChannel channel = getChannelById(channelId);
+    CreateMessageEvent event = CreateMessageEvent.start();
+    try {
+      long start = System.nanoTime();
+      message = messageValidator.validate(message);
+      User fromUser = userService.getUserById(fromUserId);
+      UUID id = uuidValidator.validate(channelId);
+      ChannelAuthorizationIndex.Access access = authorizationIndex.get(id);
+      if (access.isEmpty())
+        throw new ChannelDoesNotExist("channel with id=%s does not exist !".formatted(channelId));
+      if (!access.isMember(fromUser.getId()))
+        throw new InvalidOperation("user is not in members of the channel !");
+      UUID toUserId =
+          access.members().stream()
+              .filter(member -> !member.equals(fromUser.getId()))
+              .findFirst()
+              .get();
+      if (access.isRestricted(toUserId)) throw new BlockedException("user has been blocked !");
+      User toUser = userService.getUserById(toUserId.toString());
 
-    channel.addMessage(fromUser, message);
-    channelRepository.saveAndFlush(channel);
-    return new PrivateMessageDto(channel.getLastMessage());
+      Instant now = TimeUtil.roundToMicro(Instant.now());
+      PrivateMessage privateMessage =
+          new PrivateMessage(channelRepository.getReferenceById(id), fromUser, toUser, message);
+      privateMessage.setId(UUIDv7Generator.nextId());
+      privateMessage.setCreateAt(now);
+      privateMessage.setUpdateAt(now);
+      privateMessage.setVersion(now);
+      messageWriter.write(privateMessage);
+      pairIndex.put(id, fromUser.getId(), toUser.getId());
+      deliveryLatency.recordCommit(MessageHeader.PRIVATE, start);
+      return new PrivateMessageDto(privateMessage);
+    } catch (Exception e) {
+      event.failure = e.getClass().getName();
+      throw e;
+    } finally {
+      event.finish(MessageHeader.PRIVATE, message, 0);
+    }
   }
 
+  /**
+   * route the message to the two members in the in-process index, which is only filled after the
+   * sender is authorized in {@link #createMessage}, or to from and to of the message if the channel
+   * is evicted, so delivery never looks up members in redis or the db
+   */
   @Async("asyncExecutor")
   @Override
   public void deliverMessage(PrivateMessageDto message) {
-    for (UUID memberId : channelRepository.getMembersIdByChannel(message.getChannel())) {
+    UUID[] recipients =
+        pairIndex.recipients(
+            message.getChannel(),
+            UUID.fromString(message.getFrom().getId()),
+            UUID.fromString(message.getTo().getId()));
+    DeliverMessageEvent event = new DeliverMessageEvent();
+    event.begin();
+    for (UUID memberId : recipients) {
       natsService.publish(ChannelSubject.privateChannelSubject(memberId.toString()), message);
     }
+    event.finish(MessageHeader.PRIVATE, message.getContent(), recipients.length);
+  }
+
+  /**
+   * load the newest messages of the channel for the tail cache, which is fed by the subjects of
+   * members connected to this server
+   */
+  private List<PrivateMessageDto> loadTail(UUID channelId, int limit) {
+    return messageRepository
+        .findAllByChannel(channelId, org.springframework.data.domain.PageRequest.of(0, limit))
+        .stream()
+        .map(PrivateMessageDto::new)
+        .toList();
   }
 
   @Override
@@ -112,6 +193,16 @@ public class PrivateMessageServiceImpl implements PrivateMessageService {
     if (!channel.getMembers().contains(user))
       throw new InvalidOperation("user is not in members of the channel !");
 
+    SliceList<PrivateMessageDto> cached =
+        tailCache.getPage(
+            channel.getId(),
+            user.getId(),
+            paging.getPageNumber(),
+            paging.getPageSize(),
+            null,
+            limit -> loadTail(channel.getId(), limit));
+    if (cached != null) return cached;
+
     Slice<PrivateMessage> slice = messageRepository.findAllByChannel(channel.getId(), paging);
     return new SliceList<>(
         slice.getNumber(),
@@ -154,6 +245,16 @@ public class PrivateMessageServiceImpl implements PrivateMessageService {
     if (!channel.getMembers().contains(user))
       throw new InvalidOperation("user is not in members of the channel !");
 
+    SliceList<PrivateMessageDto> cached =
+        tailCache.getPage(
+            channel.getId(),
+            user.getId(),
+            paging.getPageNumber(),
+            paging.getPageSize(),
+            since,
+            limit -> loadTail(channel.getId(), limit));
+    if (cached != null) return cached;
+
     Slice<PrivateMessage> slice =
         messageRepository.findAllByChannelSince(channel.getId(), since, paging);
     return new SliceList<>(
@@ -165,4 +266,25 @@ public class PrivateMessageServiceImpl implements PrivateMessageService {
             .toList(),
         slice.hasNext());
   }
+
+  @Override
+  @Transactional(readOnly = true)
+  public SliceList<PrivateMessageDto> getMessagesAfter(
+      String userId, String channelId, long afterSeq, PageRequest pageRequest)
+      throws UserDoesNotExist, ChannelDoesNotExist, InvalidOperation {
+    if (afterSeq < 0) throw new IllegalArgumentException("after must >= 0 !");
+    org.springframework.data.domain.PageRequest paging = pageValidator.validate(pageRequest);
+    User user = userService.getUserById(userId);
+    PrivateChannel channel = getChannelById(channelId);
+    if (!channel.getMembers().contains(user))
+      throw new InvalidOperation("user is not in members of the channel !");
+
+    Slice<PrivateMessage> slice =
+        messageRepository.findAllByChannelAfter(channel.getId(), afterSeq, paging);
+    return new SliceList<>(
+        slice.getNumber(),
+        slice.getSize(),
+        slice.getContent().stream().map(PrivateMessageDto::new).toList(),
+        slice.hasNext());
+  }
 }
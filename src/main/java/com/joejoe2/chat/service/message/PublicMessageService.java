@@ -18,4 +18,14 @@ public interface PublicMessageService {
 
   SliceList<PublicMessageDto> getAllMessages(
       String channelId, Instant since, PageRequest pageRequest) throws ChannelDoesNotExist;
+
+  /**
+   * get messages of the channel after the sequence number in ascending order of seq
+   *
+   * @param channelId channel id
+   * @param afterSeq sequence number of the last known message, 0 for all messages
+   * @param pageRequest page request
+   */
+  SliceList<PublicMessageDto> getMessagesAfter(
+      String channelId, long afterSeq, PageRequest pageRequest) throws ChannelDoesNotExist;
 }
@@ -4,20 +4,28 @@ import com.joejoe2.chat.data.SliceList;
 import com.joejoe2.chat.data.message.PublicMessageDto;
 import com.joejoe2.chat.exception.ChannelDoesNotExist;
 import com.joejoe2.chat.exception.UserDoesNotExist;
+import com.joejoe2.chat.jfr.CreateMessageEvent;
+import com.joejoe2.chat.jfr.DeliverMessageEvent;
 import com.joejoe2.chat.models.MessageType;
 import com.joejoe2.chat.models.PublicChannel;
 import com.joejoe2.chat.models.PublicMessage;
+import com.joejoe2.chat.models.UUIDv7Generator;
 import com.joejoe2.chat.models.User;
 import com.joejoe2.chat.repository.channel.PublicChannelRepository;
 import com.joejoe2.chat.repository.message.PublicMessageRepository;
 import com.joejoe2.chat.service.nats.NatsService;
+import com.joejoe2.chat.service.subscription.DeliveryLatency;
 import com.joejoe2.chat.service.user.UserService;
 import com.joejoe2.chat.utils.ChannelSubject;
+import com.joejoe2.chat.utils.MessageHeader;
+import com.joejoe2.chat.utils.TimeUtil;
 import com.joejoe2.chat.validation.validator.MessageValidator;
 import com.joejoe2.chat.validation.validator.PageRequestValidator;
 import com.joejoe2.chat.validation.validator.UUIDValidator;
 import java.time.Instant;
 import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Slice;
 import org.springframework.scheduling.annotation.Async;
@@ -30,6 +38,9 @@ public class PublicMessageServiceImpl implements PublicMessageService {
   private final PublicChannelRepository channelRepository;
   private final PublicMessageRepository messageRepository;
   private final NatsService natsService;
+  private final MessageTailCache<PublicMessageDto> tailCache;
+  private final DeliveryLatency deliveryLatency;
+  private final MessageWriter<PublicMessage> messageWriter;
 
   private final UUIDValidator uuidValidator = UUIDValidator.getInstance();
   private final MessageValidator messageValidator = MessageValidator.getInstance();
@@ -40,11 +51,17 @@ public class PublicMessageServiceImpl implements PublicMessageService {
       UserService userService,
       PublicChannelRepository channelRepository,
       PublicMessageRepository messageRepository,
-      NatsService natsService) {
+      NatsService natsService,
+      MessageTailCache<PublicMessageDto> tailCache,
+      DeliveryLatency deliveryLatency,
+      MessageWriter<PublicMessage> messageWriter) {
     this.userService = userService;
     this.channelRepository = channelRepository;
     this.messageRepository = messageRepository;
     this.natsService = natsService;
+    this.tailCache = tailCache;
+    this.deliveryLatency = deliveryLatency;
+    this.messageWriter = messageWriter;
   }
 
   private PublicChannel getChannelById(String channelId) throws ChannelDoesNotExist {
@@ -56,30 +73,58 @@ public class PublicMessageServiceImpl implements PublicMessageService {
                     "channel with id=%s does not exist !".formatted(channelId)));
   }
 
+  /**
+   * the message is inserted by the group commit writer, which acks after the batch of the message
+   * is committed or after the message is queued depending on its ack mode, this method does not
+   * hold a transaction so waiting senders do not hold database connections
+   */
   @Override
-  @Transactional(rollbackFor = Exception.class)
   public PublicMessageDto createMessage(String fromUserId, String channelId, String message)
       throws UserDoesNotExist, ChannelDoesNotExist {
-    User user = userService.getUserById(fromUserId);
-    PublicChannel channel = getChannelById(channelId);
+    CreateMessageEvent event = CreateMessageEvent.start();
+    try {
+      long start = System.nanoTime();
+      User user = userService.getUserById(fromUserId);
+      PublicChannel channel = getChannelById(channelId);
 
-    PublicMessage publicMessage =
-        PublicMessage.builder()
-            .from(user)
-            .channel(channel)
-            .messageType(MessageType.MESSAGE)
-            .content(messageValidator.validate(message))
-            .build();
-    messageRepository.save(publicMessage);
-    messageRepository.flush();
-    return new PublicMessageDto(publicMessage);
+      Instant now = TimeUtil.roundToMicro(Instant.now());
+      PublicMessage publicMessage =
+          PublicMessage.builder()
+              .version(now)
+              .from(user)
+              .channel(channel)
+              .messageType(MessageType.MESSAGE)
+              .content(messageValidator.validate(message))
+              .build();
+      publicMessage.setId(UUIDv7Generator.nextId());
+      publicMessage.setCreateAt(now);
+      publicMessage.setUpdateAt(now);
+      messageWriter.write(publicMessage);
+      deliveryLatency.recordCommit(MessageHeader.PUBLIC, start);
+      return new PublicMessageDto(publicMessage);
+    } catch (Exception e) {
+      event.failure = e.getClass().getName();
+      throw e;
+    } finally {
+      event.finish(MessageHeader.PUBLIC, message, 0);
+    }
   }
 
   @Async("asyncExecutor")
   @Override
   public void deliverMessage(PublicMessageDto message) {
+    DeliverMessageEvent event = new DeliverMessageEvent();
+    event.begin();
     natsService.publish(
         ChannelSubject.publicChannelSubject(message.getChannel().toString()), message);
+    event.finish(MessageHeader.PUBLIC, message.getContent(), 1);
+  }
+
+  /** load the newest messages of the channel for the tail cache */
+  private List<PublicMessageDto> loadTail(UUID channelId, int limit) {
+    return messageRepository.findAllByChannel(channelId, PageRequest.of(0, limit)).stream()
+        .map(PublicMessageDto::new)
+        .toList();
   }
 
   @Override
@@ -89,6 +134,16 @@ public class PublicMessageServiceImpl implements PublicMessageService {
     PageRequest paging = pageValidator.validate(pageRequest);
     PublicChannel channel = getChannelById(channelId);
 
+    SliceList<PublicMessageDto> cached =
+        tailCache.getPage(
+            channel.getId(),
+            channel.getId(),
+            paging.getPageNumber(),
+            paging.getPageSize(),
+            null,
+            limit -> loadTail(channel.getId(), limit));
+    if (cached != null) return cached;
+
     Slice<PublicMessage> slice = messageRepository.findAllByChannel(channel.getId(), paging);
     return new SliceList<>(
         slice.getNumber(),
@@ -109,6 +164,16 @@ public class PublicMessageServiceImpl implements PublicMessageService {
     PageRequest paging = pageValidator.validate(pageRequest);
     PublicChannel channel = getChannelById(channelId);
 
+    SliceList<PublicMessageDto> cached =
+        tailCache.getPage(
+            channel.getId(),
+            channel.getId(),
+            paging.getPageNumber(),
+            paging.getPageSize(),
+            since,
+            limit -> loadTail(channel.getId(), limit));
+    if (cached != null) return cached;
+
     Slice<PublicMessage> slice =
         messageRepository.findAllByChannelSince(channel.getId(), since, paging);
     return new SliceList<>(
@@ -120,4 +185,22 @@ public class PublicMessageServiceImpl implements PublicMessageService {
             .toList(),
         slice.hasNext());
   }
+
+  @Override
+  @Transactional(readOnly = true)
+  public SliceList<PublicMessageDto> getMessagesAfter(
+      String channelId, long afterSeq, com.joejoe2.chat.data.PageRequest pageRequest)
+      throws ChannelDoesNotExist {
+    if (afterSeq < 0) throw new IllegalArgumentException("after must >= 0 !");
+    PageRequest paging = pageValidator.validate(pageRequest);
+    PublicChannel channel = getChannelById(channelId);
+
+    Slice<PublicMessage> slice =
+        messageRepository.findAllByChannelAfter(channel.getId(), afterSeq, paging);
+    return new SliceList<>(
+        slice.getNumber(),
+        slice.getSize(),
+        slice.getContent().stream().map(PublicMessageDto::new).toList(),
+        slice.hasNext());
+  }
 }
@@ -0,0 +1,12 @@
+package com.joejoe2.chat.service.nats;
+
+/** how group messages are published to nats, all nodes must use the same mode */
+public enum GroupFanOutMode {
+  /** publish once per member to the subject of the member */
+  MEMBER,
+  /**
+   * publish once to the subject of the channel, each node resolves the members connected to it by a
+   * node-local membership view
+   */
+  CHANNEL
+}
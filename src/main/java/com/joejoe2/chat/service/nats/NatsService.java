@@ -5,8 +5,17 @@ import com.joejoe2.chat.data.message.PrivateMessageDto;
 import com.joejoe2.chat.data.message.PublicMessageDto;
 import io.nats.client.MessageHandler;
 import io.nats.client.Subscription;
+import java.util.UUID;
 
 public interface NatsService {
+  /**
+   * publish a plain text message without headers, ex. control messages between nodes
+   *
+   * @param subject subject
+   * @param message text
+   */
+  void publish(String subject, String message);
+
   void publish(String subject, PrivateMessageDto message);
 
   void publish(String subject, PublicMessageDto message);
@@ -14,4 +23,13 @@ public interface NatsService {
   Subscription subscribe(String subject, MessageHandler handler);
 
   void publish(String subject, GroupMessageDto message);
+
+  /**
+   * publish the group message with the user affected by the event in headers
+   *
+   * @param subject subject
+   * @param message group message
+   * @param targetUser the invitee or the one who joins or leaves, may be null
+   */
+  void publish(String subject, GroupMessageDto message, UUID targetUser);
 }
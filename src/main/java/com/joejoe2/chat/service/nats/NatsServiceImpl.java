@@ -1,16 +1,26 @@
 package com.joejoe2.chat.service.nats;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import com.joejoe2.chat.data.message.GroupMessageDto;
+import com.joejoe2.chat.data.message.MessageDto;
 import com.joejoe2.chat.data.message.PrivateMessageDto;
 import com.joejoe2.chat.data.message.PublicMessageDto;
+import com.joejoe2.chat.service.subscription.DeliveryLatency;
+import com.joejoe2.chat.utils.MessageHeader;
 import io.nats.client.Connection;
 import io.nats.client.Dispatcher;
 import io.nats.client.MessageHandler;
 import io.nats.client.Subscription;
+import io.nats.client.impl.Headers;
+import io.nats.client.impl.NatsMessage;
 import java.nio.charset.StandardCharsets;
+import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -18,45 +28,81 @@ public class NatsServiceImpl implements NatsService {
   private final Connection natsConnection;
   private final Dispatcher natsDispatcher;
   private final ObjectMapper objectMapper;
+  private final PayloadEncoding encoding;
+  private final DeliveryLatency deliveryLatency;
 
   private static final Logger logger = LoggerFactory.getLogger(NatsService.class);
 
   public NatsServiceImpl(
-      Connection natsConnection, Dispatcher natsDispatcher, ObjectMapper objectMapper) {
+      Connection natsConnection,
+      Dispatcher natsDispatcher,
+      ObjectMapper objectMapper,
+      @Value("${chat.nats.encoding:JSON}") PayloadEncoding encoding,
+      DeliveryLatency deliveryLatency) {
     this.natsConnection = natsConnection;
     this.natsDispatcher = natsDispatcher;
-    this.objectMapper = objectMapper;
+    this.encoding = encoding;
+    this.deliveryLatency = deliveryLatency;
+    if (encoding == PayloadEncoding.CBOR) {
+      // same dto shapes as json, uuids are kept as strings instead of cbor byte strings
+      ObjectMapper cborMapper = objectMapper.copyWith(new CBORFactory());
+      cborMapper.configOverride(UUID.class).setFormat(JsonFormat.Value.forShape(Shape.STRING));
+      this.objectMapper = cborMapper;
+    } else this.objectMapper = objectMapper;
   }
 
+  @Override
   public void publish(String subject, String message) {
     natsConnection.publish(subject, message.getBytes(StandardCharsets.UTF_8));
   }
 
-  @Override
-  public void publish(String subject, PrivateMessageDto message) {
+  /**
+   * serialize the message once in the encoding of chat.nats.encoding and publish it with routing
+   * metadata in headers, subscribers will forward the payload to sockets as is. The publish time
+   * and this node are also stamped in headers for the latency metrics of receivers.
+   */
+  private void publish(String subject, String channelType, MessageDto message) {
+    publish(subject, MessageHeader.of(channelType, message), message);
+  }
+
+  private void publish(String subject, Headers headers, MessageDto message) {
+    long start = System.nanoTime();
+    if (encoding != PayloadEncoding.JSON) headers.put(MessageHeader.ENCODING, encoding.name());
+    headers.put(MessageHeader.PUBLISHED_AT, Long.toString(DeliveryLatency.nowMicros()));
+    headers.put(MessageHeader.ORIGIN, deliveryLatency.getNode());
     try {
-      publish(subject, objectMapper.writeValueAsString(message));
+      natsConnection.publish(
+          NatsMessage.builder()
+              .subject(subject)
+              .headers(headers)
+              .data(objectMapper.writeValueAsBytes(message))
+              .build());
+      deliveryLatency.recordPublish(headers.getFirst(MessageHeader.CHANNEL_TYPE), start);
     } catch (Exception e) {
       logger.error(e.getMessage());
     }
   }
 
+  @Override
+  public void publish(String subject, PrivateMessageDto message) {
+    publish(subject, MessageHeader.PRIVATE, message);
+  }
+
   @Override
   public void publish(String subject, PublicMessageDto message) {
-    try {
-      publish(subject, objectMapper.writeValueAsString(message));
-    } catch (Exception e) {
-      logger.error(e.getMessage());
-    }
+    publish(subject, MessageHeader.PUBLIC, message);
   }
 
   @Override
   public void publish(String subject, GroupMessageDto message) {
-    try {
-      publish(subject, objectMapper.writeValueAsString(message));
-    } catch (Exception e) {
-      logger.error(e.getMessage());
-    }
+    publish(subject, MessageHeader.GROUP, message);
+  }
+
+  @Override
+  public void publish(String subject, GroupMessageDto message, UUID targetUser) {
+    Headers headers = MessageHeader.of(MessageHeader.GROUP, message);
+    if (targetUser != null) headers.put(MessageHeader.TARGET_USER, targetUser.toString());
+    publish(subject, headers, message);
   }
 
   @Override
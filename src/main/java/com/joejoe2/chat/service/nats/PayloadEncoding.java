@@ -0,0 +1,22 @@
+package com.joejoe2.chat.service.nats;
+
+/** encoding of message payloads on nats and websocket connections */
+public enum PayloadEncoding {
+  /** utf-8 json, websocket messages are sent in text frames */
+  JSON,
+  /**
+   * cbor of the same dto classes, uuids are binary. Websocket messages are sent in binary frames,
+   * sse is always json
+   */
+  CBOR;
+
+  /**
+   * parse the encoding requested by a client
+   *
+   * @param value ex. "cbor", may be null
+   * @return the encoding, JSON if the value is absent or unknown
+   */
+  public static PayloadEncoding of(String value) {
+    return CBOR.name().equalsIgnoreCase(value) ? CBOR : JSON;
+  }
+}
@@ -0,0 +1,69 @@
+package com.joejoe2.chat.service.subscription;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link QueuedSubscriber} of a connection whose writes block until the data is written. The
+ * blocking writes run on a separate write executor, so a stalled connection holds a thread of the
+ * write executor instead of the delivery executor shared with non-blocking connections. Its
+ * disconnection and abort also run on the write executor.
+ */
+public abstract class BlockingQueuedSubscriber extends QueuedSubscriber {
+  private final Executor writeExecutor;
+
+  protected BlockingQueuedSubscriber(
+      OutboundQueueOptions options, Executor executor, Executor writeExecutor) {
+    super(options, executor);
+    this.writeExecutor = writeExecutor;
+  }
+
+  @Override
+  protected void write(List<SharedFrame> frames, WriteCallback callback) {
+    writeExecutor.execute(() -> complete(() -> write(frames), callback));
+  }
+
+  @Override
+  protected void writeHeartbeat(WriteCallback callback) {
+    writeExecutor.execute(() -> complete(this::writeHeartbeat, callback));
+  }
+
+  /**
+   * closing the connection may wait for a stalled write(ex. the lock of the sse emitter), so it
+   * runs on the write executor too
+   */
+  @Override
+  protected Executor closeExecutor() {
+    return writeExecutor;
+  }
+
+  private static void complete(BlockingWrite write, WriteCallback callback) {
+    try {
+      write.run();
+    } catch (IOException | RuntimeException e) {
+      callback.failed(e);
+      return;
+    }
+    callback.completed();
+  }
+
+  private interface BlockingWrite {
+    void run() throws IOException;
+  }
+
+  /**
+   * write messages to the connection as one frame and block until it is written
+   *
+   * @param frames messages in order
+   * @throws IOException if the connection is broken
+   */
+  protected abstract void write(List<SharedFrame> frames) throws IOException;
+
+  /**
+   * write a heartbeat to the connection and block until it is written
+   *
+   * @throws IOException if the connection is broken
+   */
+  protected void writeHeartbeat() throws IOException {}
+}
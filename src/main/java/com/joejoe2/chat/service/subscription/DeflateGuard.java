@@ -0,0 +1,139 @@
+package com.joejoe2.chat.service.subscription;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Decide whether a websocket message is compressed by permessage-deflate. Small messages are sent
+ * uncompressed(the deflate overhead outweighs the savings), and compression of the node is turned
+ * off while the cpu load is above the budget, it is turned on again after the load drops below the
+ * budget by {@link #HYSTERESIS}. Uncompressed messages are valid on a deflate connection, so the
+ * decision is made per message.
+ */
+public class DeflateGuard {
+  private static final double HYSTERESIS = 0.05;
+  private static final Duration SAMPLE_INTERVAL = Duration.ofSeconds(1);
+
+  /** size of the message being sent by the current thread, -1 if unknown */
+  private static final ThreadLocal<int[]> PAYLOAD_SIZE =
+      ThreadLocal.withInitial(() -> new int[] {-1});
+
+  private final int minSize;
+  private final double maxCpuLoad;
+  private final DoubleSupplier cpuLoad;
+  private final long sampleIntervalNanos;
+  private final AtomicLong lastSample;
+  private volatile boolean overloaded = false;
+  private final Counter inputBytes, savedBytes, skippedSmall, skippedCpu;
+  private final Timer compressTime;
+
+  /**
+   * @param minSize messages smaller than it are not compressed
+   * @param maxCpuLoad cpu load of the system(0 to 1) above which compression is turned off, 1
+   *     disables the guard
+   * @param registry meter registry
+   */
+  public DeflateGuard(int minSize, double maxCpuLoad, MeterRegistry registry) {
+    this(minSize, maxCpuLoad, DeflateGuard::systemCpuLoad, SAMPLE_INTERVAL, registry);
+  }
+
+  DeflateGuard(
+      int minSize,
+      double maxCpuLoad,
+      DoubleSupplier cpuLoad,
+      Duration sampleInterval,
+      MeterRegistry registry) {
+    this.minSize = minSize;
+    this.maxCpuLoad = maxCpuLoad;
+    this.cpuLoad = cpuLoad;
+    this.sampleIntervalNanos = sampleInterval.toNanos();
+    this.lastSample = new AtomicLong(System.nanoTime() - sampleIntervalNanos);
+    this.inputBytes =
+        Counter.builder("chat.ws.deflate.bytes")
+            .description("bytes of compressed websocket messages")
+            .tag("type", "input")
+            .register(registry);
+    this.savedBytes =
+        Counter.builder("chat.ws.deflate.bytes")
+            .description("bytes of compressed websocket messages")
+            .tag("type", "saved")
+            .register(registry);
+    this.skippedSmall =
+        Counter.builder("chat.ws.deflate.skipped")
+            .description("websocket messages sent uncompressed")
+            .tag("reason", "small")
+            .register(registry);
+    this.skippedCpu =
+        Counter.builder("chat.ws.deflate.skipped")
+            .description("websocket messages sent uncompressed")
+            .tag("reason", "cpu")
+            .register(registry);
+    this.compressTime =
+        Timer.builder("chat.ws.deflate.time")
+            .description("time spent compressing websocket messages")
+            .register(registry);
+    Gauge.builder("chat.ws.deflate.enabled", () -> overloaded ? 0 : 1)
+        .description("whether compression is on, it is turned off under high cpu load")
+        .register(registry);
+  }
+
+  /**
+   * set the size of the message to be sent by the current thread, call it with -1 after sending
+   *
+   * @param size size of the payload in bytes
+   */
+  public static void setPayloadSize(int size) {
+    PAYLOAD_SIZE.get()[0] = size;
+  }
+
+  /** whether the message being sent by the current thread should be compressed */
+  boolean shouldCompress() {
+    int size = PAYLOAD_SIZE.get()[0];
+    if (size >= 0 && size < minSize) {
+      skippedSmall.increment();
+      return false;
+    }
+    if (isOverloaded()) {
+      skippedCpu.increment();
+      return false;
+    }
+    return true;
+  }
+
+  boolean isOverloaded() {
+    if (maxCpuLoad >= 1) return false;
+    long last = lastSample.get(), now = System.nanoTime();
+    // one thread samples per interval, the others use the last decision
+    if (now - last >= sampleIntervalNanos && lastSample.compareAndSet(last, now)) {
+      double load = cpuLoad.getAsDouble();
+      overloaded = overloaded ? load > maxCpuLoad - HYSTERESIS : load > maxCpuLoad;
+    }
+    return overloaded;
+  }
+
+  /**
+   * record a compressed frame
+   *
+   * @param input size before compression
+   * @param output size after compression
+   * @param nanos time spent
+   */
+  void record(int input, int output, long nanos) {
+    inputBytes.increment(input);
+    savedBytes.increment(input - output);
+    compressTime.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  private static double systemCpuLoad() {
+    if (ManagementFactory.getOperatingSystemMXBean()
+        instanceof com.sun.management.OperatingSystemMXBean os) return Math.max(os.getCpuLoad(), 0);
+    return 0;
+  }
+}
@@ -0,0 +1,80 @@
+package com.joejoe2.chat.service.subscription;
+
+import io.undertow.websockets.WebSocketExtension;
+import io.undertow.websockets.extensions.ExtensionFunction;
+import io.undertow.websockets.extensions.ExtensionHandshake;
+import io.undertow.websockets.extensions.PerMessageDeflateFunction;
+import java.util.List;
+
+/**
+ * permessage-deflate(RFC 7692) of websocket connections, compression of each message is decided by
+ * {@link DeflateGuard}. The handshake is shared by all connections, so it keeps no negotiation
+ * state: offers it cannot follow with its own setting of context takeover are declined instead of
+ * changing the setting.
+ */
+public class DeflateHandshake implements ExtensionHandshake {
+  static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+  static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+  static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+  static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+  private final int level;
+  private final boolean contextTakeover;
+  private final DeflateGuard guard;
+
+  /**
+   * @param level deflate level, 0 to 9
+   * @param contextTakeover whether the compression context is kept across messages of a connection,
+   *     it compresses repetitive messages better but keeps the window per connection
+   * @param guard guard of compression
+   */
+  public DeflateHandshake(int level, boolean contextTakeover, DeflateGuard guard) {
+    this.level = level;
+    this.contextTakeover = contextTakeover;
+    this.guard = guard;
+  }
+
+  @Override
+  public String getName() {
+    return PERMESSAGE_DEFLATE;
+  }
+
+  @Override
+  public WebSocketExtension accept(WebSocketExtension extension) {
+    if (extension == null || !PERMESSAGE_DEFLATE.equals(extension.getName())) return null;
+    WebSocketExtension negotiated = new WebSocketExtension(PERMESSAGE_DEFLATE);
+    for (WebSocketExtension.Parameter parameter : extension.getParameters()) {
+      switch (parameter.getName()) {
+          // the client may compress without context, the inflater is not affected
+        case CLIENT_NO_CONTEXT_TAKEOVER -> negotiated.getParameters().add(parameter);
+          // the client supports a smaller window of ours, which is not required
+        case CLIENT_MAX_WINDOW_BITS -> {}
+        case SERVER_NO_CONTEXT_TAKEOVER -> {
+          if (contextTakeover) return null;
+        }
+          // server_max_window_bits is not supported by java.util.zip
+        default -> {
+          return null;
+        }
+      }
+    }
+    if (!contextTakeover)
+      negotiated
+          .getParameters()
+          .add(new WebSocketExtension.Parameter(SERVER_NO_CONTEXT_TAKEOVER, null));
+    return negotiated;
+  }
+
+  @Override
+  public boolean isIncompatible(List<ExtensionHandshake> extensions) {
+    for (ExtensionHandshake extension : extensions)
+      if (PERMESSAGE_DEFLATE.equals(extension.getName())) return true;
+    return false;
+  }
+
+  @Override
+  public ExtensionFunction create() {
+    return new GuardedDeflateFunction(
+        new PerMessageDeflateFunction(level, contextTakeover, true), guard);
+  }
+}
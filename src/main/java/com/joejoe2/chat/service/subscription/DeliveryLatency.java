@@ -0,0 +1,192 @@
+package com.joejoe2.chat.service.subscription;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Latency of messages along the delivery path, recorded by the timer chat.message.latency tagged by
+ * stage, channel type, transport and origin:
+ *
+ * <ul>
+ *   <li>commit: from the start of createMessage until the message is acked by the group commit
+ *       writer(after the commit or after the message is queued by its ack mode)
+ *   <li>publish: serialization and publish of the message to nats
+ *   <li>receive: from the publish time in the nats header until the dispatcher receives it
+ *   <li>queue: from the receipt until a subscriber starts to write it(fan-out, outbound queue,
+ *       batch window and wait for the sending scheduler)
+ *   <li>write: the socket write of a frame
+ *   <li>end_to_end: from the publish time until the socket write of a subscriber completes
+ * </ul>
+ *
+ * <p>Receive and end_to_end compare wall clocks of the publishing and receiving nodes, so they are
+ * only as accurate as the clock sync between nodes when the origin is remote.
+ */
+public class DeliveryLatency {
+  public static final String SSE = "sse", WEBSOCKET = "websocket";
+  private static final String NONE = "none", LOCAL = "local", REMOTE = "remote";
+  private static final Duration[] SLO = {
+    Duration.ofMillis(1),
+    Duration.ofMillis(2),
+    Duration.ofMillis(5),
+    Duration.ofMillis(10),
+    Duration.ofMillis(25),
+    Duration.ofMillis(50),
+    Duration.ofMillis(100),
+    Duration.ofMillis(250),
+    Duration.ofMillis(500),
+    Duration.ofSeconds(1),
+    Duration.ofMillis(2500),
+    Duration.ofSeconds(5)
+  };
+
+  private final boolean enabled;
+  private final String node;
+  private final MeterRegistry registry;
+  private final Map<Key, Timer> timers = new ConcurrentHashMap<>();
+
+  private record Key(String stage, String type, String transport, String origin) {}
+
+  /**
+   * where and when a message is published and received, carried by frames received from nats
+   *
+   * @param channelType channel type
+   * @param origin node publishing the message, may be null
+   * @param publishedAtMicros wall clock time of the publish in microseconds, 0 if unknown
+   * @param receivedAtMicros wall clock time of the receipt in microseconds
+   * @param receivedAtNanos System.nanoTime() of the receipt
+   */
+  public record Trace(
+      String channelType,
+      String origin,
+      long publishedAtMicros,
+      long receivedAtMicros,
+      long receivedAtNanos) {}
+
+  /**
+   * @param enabled whether latencies are recorded
+   * @param node id of this node stamped as the origin of published messages
+   * @param registry meter registry
+   */
+  public DeliveryLatency(boolean enabled, String node, MeterRegistry registry) {
+    this.enabled = enabled;
+    this.node = node;
+    this.registry = registry;
+  }
+
+  public String getNode() {
+    return node;
+  }
+
+  /** current wall clock time in microseconds since epoch */
+  public static long nowMicros() {
+    Instant now = Instant.now();
+    return TimeUnit.SECONDS.toMicros(now.getEpochSecond()) + now.getNano() / 1000;
+  }
+
+  /**
+   * record the commit stage when the current transaction is committed, or now if there is no
+   * transaction
+   *
+   * @param channelType channel type
+   * @param start System.nanoTime() at the start of the transaction
+   */
+  public void recordCommit(String channelType, long start) {
+    if (!enabled) return;
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      record("commit", channelType, NONE, NONE, System.nanoTime() - start);
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            record("commit", channelType, NONE, NONE, System.nanoTime() - start);
+          }
+        });
+  }
+
+  /**
+   * @param channelType channel type
+   * @param start System.nanoTime() before the message is serialized
+   */
+  public void recordPublish(String channelType, long start) {
+    if (enabled) record("publish", channelType, NONE, NONE, System.nanoTime() - start);
+  }
+
+  /**
+   * record the receive stage of a frame received from nats
+   *
+   * @param frame received frame
+   */
+  public void recordReceive(SharedFrame frame) {
+    Trace trace = frame.trace();
+    if (!enabled || trace == null || trace.publishedAtMicros <= 0) return;
+    recordMicros(
+        "receive",
+        trace.channelType,
+        NONE,
+        origin(trace),
+        trace.receivedAtMicros - trace.publishedAtMicros);
+  }
+
+  /**
+   * record the queue, write and end_to_end stages of frames written by a subscriber
+   *
+   * @param frames written frames
+   * @param transport transport of the subscriber
+   * @param writeStart System.nanoTime() before the write
+   */
+  void recordWrite(List<SharedFrame> frames, String transport, long writeStart) {
+    if (!enabled) return;
+    long writeEnd = System.nanoTime(), now = nowMicros();
+    String writeType = null;
+    for (SharedFrame frame : frames) {
+      Trace trace = frame.trace();
+      if (trace == null) continue;
+      if (writeType == null) writeType = trace.channelType;
+      record("queue", trace.channelType, transport, NONE, writeStart - trace.receivedAtNanos);
+      if (trace.publishedAtMicros > 0)
+        recordMicros(
+            "end_to_end",
+            trace.channelType,
+            transport,
+            origin(trace),
+            now - trace.publishedAtMicros);
+    }
+    if (writeType != null) record("write", writeType, transport, NONE, writeEnd - writeStart);
+  }
+
+  private String origin(Trace trace) {
+    return trace.origin == null ? NONE : node.equals(trace.origin) ? LOCAL : REMOTE;
+  }
+
+  private void recordMicros(
+      String stage, String type, String transport, String origin, long micros) {
+    // clocks of nodes may be skewed
+    record(stage, type, transport, origin, TimeUnit.MICROSECONDS.toNanos(Math.max(0, micros)));
+  }
+
+  private void record(String stage, String type, String transport, String origin, long nanos) {
+    timers
+        .computeIfAbsent(
+            new Key(stage, type == null ? NONE : type, transport, origin),
+            key ->
+                Timer.builder("chat.message.latency")
+                    .description("latency of messages along the delivery path")
+                    .tag("stage", key.stage)
+                    .tag("type", key.type)
+                    .tag("transport", key.transport)
+                    .tag("origin", key.origin)
+                    .serviceLevelObjectives(SLO)
+                    .register(registry))
+        .record(Math.max(0, nanos), TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,58 @@
+package com.joejoe2.chat.service.subscription;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.websockets.core.StreamSinkFrameChannel;
+import io.undertow.websockets.core.StreamSourceFrameChannel;
+import io.undertow.websockets.extensions.ExtensionFunction;
+import java.io.IOException;
+
+/**
+ * permessage-deflate of a connection whose messages are only compressed if {@link DeflateGuard}
+ * allows. The decision is made when undertow creates the frame channel of a message and is kept by
+ * the RSV1 bit of the channel, so all fragments of the message follow it.
+ */
+class GuardedDeflateFunction implements ExtensionFunction {
+  private final ExtensionFunction deflate;
+  private final DeflateGuard guard;
+
+  GuardedDeflateFunction(ExtensionFunction deflate, DeflateGuard guard) {
+    this.deflate = deflate;
+    this.guard = guard;
+  }
+
+  @Override
+  public boolean hasExtensionOpCode() {
+    return false;
+  }
+
+  @Override
+  public int writeRsv(int rsv) {
+    return guard.shouldCompress() ? deflate.writeRsv(rsv) : rsv;
+  }
+
+  @Override
+  public PooledByteBuffer transformForWrite(
+      PooledByteBuffer pooledBuffer, StreamSinkFrameChannel channel, boolean lastFrame)
+      throws IOException {
+    if ((channel.getRsv() & RSV1) == 0) return pooledBuffer;
+    int input = pooledBuffer.getBuffer().remaining();
+    long start = System.nanoTime();
+    PooledByteBuffer output = deflate.transformForWrite(pooledBuffer, channel, lastFrame);
+    guard.record(input, output.getBuffer().remaining(), System.nanoTime() - start);
+    return output;
+  }
+
+  @Override
+  public PooledByteBuffer transformForRead(
+      PooledByteBuffer pooledBuffer,
+      StreamSourceFrameChannel channel,
+      boolean lastFragmentOfMessage)
+      throws IOException {
+    return deflate.transformForRead(pooledBuffer, channel, lastFragmentOfMessage);
+  }
+
+  @Override
+  public void dispose() {
+    deflate.dispose();
+  }
+}
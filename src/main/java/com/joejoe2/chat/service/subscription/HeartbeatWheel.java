@@ -0,0 +1,105 @@
+package com.joejoe2.chat.service.subscription;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Heartbeats of all connections on this node by a timer wheel. Connections are spread over the
+ * slots of the wheel and the timer visits one slot per tick, so each connection gets a heartbeat
+ * once per interval and the work is spread evenly over the interval instead of a timer per
+ * connection.
+ *
+ * <p>Heartbeats keep idle connections open through proxies and detect dead ones: a failed write
+ * disconnects the subscriber, and a peer that did not answer the previous heartbeat in time(ex.
+ * websocket pong) is reaped. Disconnection triggers the finish callbacks, which remove the
+ * subscriber from the registry. Closed subscribers are removed from the wheel on their next tick.
+ */
+public class HeartbeatWheel {
+  private static final Logger logger = LoggerFactory.getLogger(HeartbeatWheel.class);
+
+  private final List<Set<QueuedSubscriber>> slots;
+  private final long timeoutNanos;
+  private final AtomicInteger nextSlot = new AtomicInteger();
+  private final Counter reaped;
+
+  /** slot visited by the next tick, only accessed by the timer */
+  private int cursor = 0;
+
+  /**
+   * @param interval interval of heartbeats of each connection
+   * @param ticks number of ticks(and slots) per interval
+   * @param timeout max time for the peer to answer a heartbeat
+   * @param timer timer of ticks
+   * @param registry meter registry
+   */
+  public HeartbeatWheel(
+      Duration interval,
+      int ticks,
+      Duration timeout,
+      ScheduledExecutorService timer,
+      MeterRegistry registry) {
+    if (interval.isZero() || interval.isNegative())
+      throw new IllegalArgumentException("interval must be positive !");
+    if (ticks <= 0) throw new IllegalArgumentException("ticks must be positive !");
+    this.slots = new ArrayList<>(ticks);
+    for (int i = 0; i < ticks; i++) slots.add(ConcurrentHashMap.newKeySet());
+    this.timeoutNanos = timeout.toNanos();
+    this.reaped =
+        Counter.builder("chat.subscriber.reaped")
+            .description("connections closed for not answering heartbeats")
+            .register(registry);
+    Gauge.builder("chat.heartbeat.connections", this, HeartbeatWheel::size)
+        .description("connections watched by heartbeats")
+        .register(registry);
+    if (timer != null) {
+      long tick = Math.max(interval.toNanos() / ticks, 1);
+      timer.scheduleAtFixedRate(this::tick, tick, tick, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * watch the subscriber, its first heartbeat is within one interval
+   *
+   * @param subscriber connected subscriber
+   */
+  public void add(QueuedSubscriber subscriber) {
+    slots.get(Math.floorMod(nextSlot.getAndIncrement(), slots.size())).add(subscriber);
+  }
+
+  /** number of watched subscribers */
+  public int size() {
+    int size = 0;
+    for (Set<QueuedSubscriber> slot : slots) size += slot.size();
+    return size;
+  }
+
+  /** visit the next slot */
+  void tick() {
+    Set<QueuedSubscriber> slot = slots.get(cursor);
+    cursor = (cursor + 1) % slots.size();
+    for (Iterator<QueuedSubscriber> iterator = slot.iterator(); iterator.hasNext(); ) {
+      QueuedSubscriber subscriber = iterator.next();
+      try {
+        if (!subscriber.isAlive(timeoutNanos)) {
+          subscriber.reap("heartbeat timeout");
+          reaped.increment();
+          iterator.remove();
+        } else if (!subscriber.heartbeat()) iterator.remove();
+      } catch (RuntimeException e) {
+        logger.error("heartbeat failed", e);
+      }
+    }
+  }
+}
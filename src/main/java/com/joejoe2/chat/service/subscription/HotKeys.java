@@ -0,0 +1,132 @@
+package com.joejoe2.chat.service.subscription;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Approximate top keys of a {@link SubscriptionRegistry} by subscriber count, exported as one gauge
+ * per key, so hot channels can be watched with bounded cardinality. It is maintained on subscribe
+ * and unsubscribe without scanning the registry: a key enters when it gains a subscriber and has
+ * more subscribers than the coldest tracked key, and leaves when it is replaced or has no
+ * subscriber. Keys colder than all tracked ones are not reported until they gain subscribers.
+ *
+ * <p>Counts are always read live from the registry, only the membership of the tracked set is
+ * changed under a lock, which is skipped by most updates: changes of a tracked key with
+ * subscribers and of keys colder than the coldest tracked key seen so far. Gauges are registered
+ * and removed outside the lock.
+ */
+public class HotKeys {
+  private final int size;
+  private final String name, tag;
+  private final MeterRegistry registry;
+  private final Set<UUID> tracked = ConcurrentHashMap.newKeySet();
+  private final Map<UUID, Gauge> gauges = new ConcurrentHashMap<>();
+  private final Object gaugeLock = new Object();
+  /** at most the count of the coldest tracked key while the tracked set is full */
+  private final AtomicInteger threshold = new AtomicInteger();
+  private volatile ToIntFunction<UUID> counter = key -> 0;
+
+  /**
+   * @param size max number of tracked keys
+   * @param name name of gauges
+   * @param tag tag of the key in gauges
+   * @param registry meter registry
+   */
+  public HotKeys(int size, String name, String tag, MeterRegistry registry) {
+    this.size = size;
+    this.name = name;
+    this.tag = tag;
+    this.registry = registry;
+  }
+
+  /** read counts of keys from the registry, called when the registry starts tracking hot keys */
+  void countBy(ToIntFunction<UUID> counter) {
+    this.counter = counter;
+  }
+
+  /**
+   * the subscribers of the key are changed, call it after every change of the registry, so the
+   * last update of a key always sees its final count
+   *
+   * @param key key of the registry
+   */
+  void update(UUID key) {
+    int count = counter.applyAsInt(key);
+    if (tracked.contains(key)) {
+      if (count > 0) {
+        threshold.accumulateAndGet(count, Math::min);
+        return;
+      }
+    } else if (count == 0 || (tracked.size() >= size && count <= threshold.get())) return;
+
+    UUID added = null, removed = null;
+    synchronized (this) {
+      // read again under the lock, a concurrent change of the key may have been applied before
+      count = counter.applyAsInt(key);
+      if (tracked.contains(key)) {
+        if (count == 0 && tracked.remove(key)) removed = key;
+      } else if (count > 0) {
+        if (tracked.size() >= size) {
+          UUID coldest = null;
+          int coldestCount = Integer.MAX_VALUE;
+          for (UUID candidate : tracked) {
+            int candidateCount = counter.applyAsInt(candidate);
+            if (candidateCount < coldestCount) {
+              coldest = candidate;
+              coldestCount = candidateCount;
+            }
+          }
+          threshold.set(coldestCount);
+          if (coldest != null && coldestCount < count) {
+            tracked.remove(coldest);
+            removed = coldest;
+          }
+        }
+        if (tracked.size() < size) {
+          tracked.add(key);
+          added = key;
+        }
+      }
+    }
+    if (removed != null) syncGauge(removed);
+    if (added != null) {
+      syncGauge(added);
+      // the last subscriber may have left while the key was added, after it checked the set
+      if (counter.applyAsInt(added) == 0) update(added);
+    }
+  }
+
+  /** make the gauge of the key consistent with the tracked set */
+  private void syncGauge(UUID key) {
+    synchronized (gaugeLock) {
+      if (tracked.contains(key)) {
+        gauges.computeIfAbsent(
+            key,
+            k ->
+                Gauge.builder(name, () -> counter.applyAsInt(k))
+                    .description("subscribers of the hottest keys on this node")
+                    .tag(tag, k.toString())
+                    .register(registry));
+      } else {
+        Gauge gauge = gauges.remove(key);
+        if (gauge != null) registry.remove(gauge);
+      }
+    }
+  }
+
+  /** tracked keys in descending order of subscribers */
+  public List<Map.Entry<UUID, Integer>> top() {
+    return tracked.stream()
+        .map(key -> Map.entry(key, counter.applyAsInt(key)))
+        .sorted(Map.Entry.<UUID, Integer>comparingByValue(Comparator.reverseOrder()))
+        .toList();
+  }
+}
@@ -0,0 +1,164 @@
+package com.joejoe2.chat.service.subscription;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bound, overflow policy, batching and write timeout shared by outbound queues of all subscribers
+ */
+public class OutboundQueueOptions {
+  private final int capacity;
+  private final SlowConsumerPolicy policy;
+  private final long maxBatchWindowNanos;
+  private final double saturationRate;
+  private final ScheduledExecutorService batchTimer;
+  private final HeartbeatWheel heartbeatWheel;
+  private final DeliveryLatency deliveryLatency;
+  private final long writeTimeoutNanos;
+  private final Counter overflowCounter, writeTimeoutCounter;
+  private final DistributionSummary batchSize;
+
+  /**
+   * @param capacity max number of queued messages of a subscriber
+   * @param policy policy applied when the queue is full
+   * @param maxBatchWindow max delay used to coalesce messages into one frame, zero disables the
+   *     delay(messages already queued are still coalesced)
+   * @param saturationRate message rate(per second) of a subscriber at which the whole window is
+   *     used, the window grows linearly with the rate below it
+   * @param batchTimer timer of delayed drains
+   * @param registry meter registry
+   */
+  public OutboundQueueOptions(
+      int capacity,
+      SlowConsumerPolicy policy,
+      Duration maxBatchWindow,
+      double saturationRate,
+      ScheduledExecutorService batchTimer,
+      MeterRegistry registry) {
+    this(
+        capacity,
+        policy,
+        maxBatchWindow,
+        saturationRate,
+        batchTimer,
+        null,
+        null,
+        Duration.ZERO,
+        registry);
+  }
+
+  /**
+   * @param capacity max number of queued messages of a subscriber
+   * @param policy policy applied when the queue is full
+   * @param maxBatchWindow max delay used to coalesce messages into one frame
+   * @param saturationRate message rate(per second) of a subscriber at which the whole window is
+   *     used
+   * @param batchTimer timer of delayed drains and write timeouts
+   * @param heartbeatWheel heartbeats of connections, null disables them
+   * @param deliveryLatency latency of written messages, may be null
+   * @param writeTimeout max time to complete a write before the connection is aborted, zero
+   *     disables it
+   * @param registry meter registry
+   */
+  public OutboundQueueOptions(
+      int capacity,
+      SlowConsumerPolicy policy,
+      Duration maxBatchWindow,
+      double saturationRate,
+      ScheduledExecutorService batchTimer,
+      HeartbeatWheel heartbeatWheel,
+      DeliveryLatency deliveryLatency,
+      Duration writeTimeout,
+      MeterRegistry registry) {
+    if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive !");
+    if (saturationRate <= 0)
+      throw new IllegalArgumentException("saturationRate must be positive !");
+    this.capacity = capacity;
+    this.policy = policy;
+    this.maxBatchWindowNanos = maxBatchWindow.toNanos();
+    this.saturationRate = saturationRate;
+    this.batchTimer = batchTimer;
+    this.heartbeatWheel = heartbeatWheel;
+    this.deliveryLatency = deliveryLatency;
+    this.writeTimeoutNanos = writeTimeout.toNanos();
+    this.overflowCounter =
+        Counter.builder("chat.subscriber.queue.overflow")
+            .description("number of overflows of subscriber outbound queues")
+            .tag("policy", policy.name())
+            .register(registry);
+    this.writeTimeoutCounter =
+        Counter.builder("chat.subscriber.write.timeout")
+            .description("number of connections aborted by write timeouts")
+            .register(registry);
+    this.batchSize =
+        DistributionSummary.builder("chat.subscriber.batch.size")
+            .description("number of messages coalesced into one frame")
+            .register(registry);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public SlowConsumerPolicy getPolicy() {
+    return policy;
+  }
+
+  ScheduledExecutorService getBatchTimer() {
+    return batchTimer;
+  }
+
+  HeartbeatWheel getHeartbeatWheel() {
+    return heartbeatWheel;
+  }
+
+  /**
+   * delay of the next drain for a subscriber receiving messages at the rate, it is zero when less
+   * than one more message is expected within the window, so quiet subscribers are not delayed
+   *
+   * @param rate estimated message rate(per second) of the subscriber
+   * @return delay in nanoseconds
+   */
+  long batchWindowNanos(double rate) {
+    double window = maxBatchWindowNanos * Math.min(1, rate / saturationRate);
+    return rate * window / 1e9 < 1 ? 0 : (long) window;
+  }
+
+  /**
+   * schedule the timeout of a write on the batch timer
+   *
+   * @param task called when the timeout is reached
+   * @return future of the timeout, null if write timeouts are disabled
+   */
+  ScheduledFuture<?> scheduleWriteTimeout(Runnable task) {
+    if (writeTimeoutNanos <= 0 || batchTimer == null) return null;
+    try {
+      return batchTimer.schedule(task, writeTimeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  void recordWriteTimeout() {
+    writeTimeoutCounter.increment();
+  }
+
+  void recordOverflow() {
+    overflowCounter.increment();
+  }
+
+  void recordBatch(int size) {
+    batchSize.record(size);
+  }
+
+  void recordWrite(List<SharedFrame> frames, String transport, long writeStart) {
+    if (deliveryLatency != null) deliveryLatency.recordWrite(frames, transport, writeStart);
+  }
+}
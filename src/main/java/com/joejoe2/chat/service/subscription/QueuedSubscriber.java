@@ -0,0 +1,350 @@
+package com.joejoe2.chat.service.subscription;
+
+import com.joejoe2.chat.jfr.SendEvent;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Subscriber with a bounded outbound queue. {@link #deliver} only enqueues the message, a single
+ * drain task per subscriber starts the write of queued messages on the executor and returns, the
+ * next drain is scheduled when the connection completes the write. So a slow connection only delays
+ * itself and never holds a thread of the executor: its queue fills up and the {@link
+ * SlowConsumerPolicy} of the {@link OutboundQueueOptions} is applied, and a write not completed
+ * within the write timeout aborts the connection.
+ *
+ * <p>All messages queued when the drain runs are coalesced into one array frame. The drain of a
+ * busy subscriber is also delayed by a short window that grows with its message rate(an EWMA of
+ * arrival intervals), so a busy channel is written once per few milliseconds instead of once per
+ * message.
+ *
+ * <p>Heartbeats requested by {@link HeartbeatWheel} are written through the same drain, so they
+ * never interleave with messages.
+ */
+public abstract class QueuedSubscriber implements Subscriber {
+  private static final Logger logger = LoggerFactory.getLogger(QueuedSubscriber.class);
+  /** weight of the latest arrival interval in the rate estimation */
+  private static final double EWMA_ALPHA = 0.2;
+
+  private final OutboundQueueOptions options;
+  private final Executor executor;
+  private final ArrayDeque<SharedFrame> queue = new ArrayDeque<>();
+  private boolean draining = false;
+  private boolean closed = false;
+  private boolean held = false;
+  private boolean heartbeatPending = false;
+  private long lastArrival = System.nanoTime();
+  private double intervalNanos = TimeUnit.SECONDS.toNanos(1);
+
+  protected QueuedSubscriber(OutboundQueueOptions options, Executor executor) {
+    this.options = options;
+    this.executor = executor;
+  }
+
+  @Override
+  public void deliver(SharedFrame frame) {
+    boolean startDrain = false, disconnect = false;
+    long delay = 0;
+    synchronized (this) {
+      if (closed) return;
+      long now = System.nanoTime();
+      intervalNanos += EWMA_ALPHA * ((now - lastArrival) - intervalNanos);
+      lastArrival = now;
+      if (queue.size() >= options.getCapacity()) {
+        options.recordOverflow();
+        switch (options.getPolicy()) {
+          case DROP_OLDEST -> queue.poll();
+          case DROP_NEWEST -> {
+            return;
+          }
+          case DISCONNECT -> {
+            closed = true;
+            queue.clear();
+            disconnect = true;
+          }
+        }
+      }
+      if (!disconnect) {
+        queue.offer(frame);
+        if (!draining && !held) {
+          draining = startDrain = true;
+          delay = batchWindow();
+        }
+      }
+    }
+    if (disconnect) closeExecutor().execute(() -> disconnect("slow consumer"));
+    else if (startDrain) scheduleDrain(delay);
+  }
+
+  /** must hold the lock */
+  private long batchWindow() {
+    return options.batchWindowNanos(1e9 / Math.max(intervalNanos, 1));
+  }
+
+  private void scheduleDrain(long delay) {
+    if (delay <= 0) {
+      executor.execute(this::drain);
+      return;
+    }
+    try {
+      options
+          .getBatchTimer()
+          .schedule(() -> executor.execute(this::drain), delay, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      executor.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    List<SharedFrame> batch;
+    synchronized (this) {
+      if ((queue.isEmpty() && !heartbeatPending) || closed) {
+        draining = false;
+        return;
+      }
+      if (queue.isEmpty()) {
+        heartbeatPending = false;
+        batch = List.of();
+      } else {
+        batch = new ArrayList<>(queue);
+        queue.clear();
+      }
+    }
+    new Write(batch).start();
+  }
+
+  /** schedule the next drain after a write, the draining flag is kept until the queue is empty */
+  private void afterWrite() {
+    long delay;
+    synchronized (this) {
+      if ((queue.isEmpty() && !heartbeatPending) || closed) {
+        draining = false;
+        return;
+      }
+      delay = batchWindow();
+    }
+    // messages arriving meanwhile are coalesced into the next frame
+    scheduleDrain(delay);
+  }
+
+  private void close() {
+    synchronized (this) {
+      closed = true;
+      queue.clear();
+      draining = false;
+    }
+  }
+
+  /**
+   * a frame being written(an empty batch is a heartbeat), it is completed once by the connection or
+   * the write timeout, late results of the connection are ignored
+   */
+  private final class Write implements WriteCallback {
+    private final List<SharedFrame> batch;
+    private final long writeStart = System.nanoTime();
+    private final SendEvent event = new SendEvent();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile ScheduledFuture<?> deadline;
+
+    private Write(List<SharedFrame> batch) {
+      this.batch = batch;
+    }
+
+    void start() {
+      deadline = options.scheduleWriteTimeout(this::timeout);
+      event.transport = transport();
+      event.messages = batch.size();
+      event.begin();
+      try {
+        if (batch.isEmpty()) writeHeartbeat(this);
+        else write(batch, this);
+      } catch (RuntimeException e) {
+        failed(e);
+      }
+    }
+
+    @Override
+    public void completed() {
+      if (!done.compareAndSet(false, true)) return;
+      if (deadline != null) deadline.cancel(false);
+      if (!batch.isEmpty()) {
+        finishEvent(null);
+        options.recordBatch(batch.size());
+        options.recordWrite(batch, transport(), writeStart);
+      }
+      afterWrite();
+    }
+
+    @Override
+    public void failed(Throwable e) {
+      if (!done.compareAndSet(false, true)) return;
+      if (deadline != null) deadline.cancel(false);
+      if (!batch.isEmpty()) finishEvent(e.getClass().getName());
+      logger.debug("cannot write to subscriber: {}", e.getMessage());
+      close();
+      closeExecutor().execute(() -> disconnect("write failure"));
+    }
+
+    private void timeout() {
+      if (!done.compareAndSet(false, true)) return;
+      if (!batch.isEmpty()) finishEvent(TimeoutException.class.getName());
+      options.recordWriteTimeout();
+      close();
+      closeExecutor().execute(() -> abort("write timeout"));
+    }
+
+    /** commit the flight recorder event of the write */
+    private void finishEvent(String failure) {
+      event.failure = failure;
+      String channelType = null;
+      int size = 0;
+      if (event.isEnabled()) {
+        for (SharedFrame frame : batch) {
+          size += frame.size();
+          if (channelType == null && frame.trace() != null)
+            channelType = frame.trace().channelType();
+        }
+      }
+      event.finish(channelType, size, 0);
+    }
+  }
+
+  /**
+   * queue messages without writing them until {@link #resume}, call it before the subscriber is
+   * registered, so messages received while the replay is loaded are kept
+   */
+  public synchronized void hold() {
+    held = true;
+  }
+
+  /**
+   * write the replayed messages before the messages queued since {@link #hold}, queued messages
+   * also in the replay are removed. The oldest messages are dropped if the queue overflows.
+   *
+   * @param replay replayed messages in order
+   */
+  public void resume(List<SharedFrame> replay) {
+    synchronized (this) {
+      held = false;
+      if (closed) return;
+      Set<UUID> replayed = new HashSet<>();
+      for (SharedFrame frame : replay) if (frame.id() != null) replayed.add(frame.id());
+      queue.removeIf(frame -> frame.id() != null && replayed.contains(frame.id()));
+      for (int i = replay.size() - 1; i >= 0; i--) queue.addFirst(replay.get(i));
+      while (queue.size() > options.getCapacity()) {
+        options.recordOverflow();
+        queue.poll();
+      }
+      if ((queue.isEmpty() && !heartbeatPending) || draining) return;
+      draining = true;
+    }
+    scheduleDrain(0);
+  }
+
+  /**
+   * queue a heartbeat, it is written after queued messages
+   *
+   * @return false if the subscriber is closed
+   */
+  boolean heartbeat() {
+    synchronized (this) {
+      if (closed) return false;
+      heartbeatPending = true;
+      if (draining || held) return true;
+      draining = true;
+    }
+    scheduleDrain(0);
+    return true;
+  }
+
+  /**
+   * close the subscriber found dead by heartbeats
+   *
+   * @param reason reason of disconnection
+   */
+  void reap(String reason) {
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      queue.clear();
+    }
+    closeExecutor().execute(() -> disconnect(reason));
+  }
+
+  /** watch the connection by heartbeats if they are enabled, call it after it is connected */
+  public void startHeartbeat() {
+    HeartbeatWheel heartbeatWheel = options.getHeartbeatWheel();
+    if (heartbeatWheel != null) heartbeatWheel.add(this);
+  }
+
+  /** number of messages waiting to be written */
+  public synchronized int pending() {
+    return queue.size();
+  }
+
+  /**
+   * start writing messages to the connection as one frame, the callback is called when the write is
+   * completed. It must not block the executor, see {@link BlockingQueuedSubscriber} for blocking
+   * connections.
+   *
+   * @param frames messages in order
+   * @param callback completion of the write
+   */
+  protected abstract void write(List<SharedFrame> frames, WriteCallback callback);
+
+  /** executor running {@link #disconnect} and {@link #abort}, the default is the executor */
+  protected Executor closeExecutor() {
+    return executor;
+  }
+
+  /** transport of the connection used in metrics */
+  protected String transport() {
+    return "other";
+  }
+
+  /**
+   * start writing a heartbeat to the connection, the default writes nothing
+   *
+   * @param callback completion of the write
+   */
+  protected void writeHeartbeat(WriteCallback callback) {
+    callback.completed();
+  }
+
+  /**
+   * whether the peer answered previous heartbeats in time
+   *
+   * @param timeoutNanos max time to answer a heartbeat
+   */
+  protected boolean isAlive(long timeoutNanos) {
+    return true;
+  }
+
+  /**
+   * close the connection, the registered finish callbacks will unsubscribe it
+   *
+   * @param reason reason of disconnection
+   */
+  protected abstract void disconnect(String reason);
+
+  /**
+   * close the connection whose write is not completed in time, the default calls {@link
+   * #disconnect}
+   *
+   * @param reason reason of disconnection
+   */
+  protected void abort(String reason) {
+    disconnect(reason);
+  }
+}
@@ -0,0 +1,207 @@
+package com.joejoe2.chat.service.subscription;
+
+import com.joejoe2.chat.service.nats.PayloadEncoding;
+import com.joejoe2.chat.utils.CborUtil;
+import com.joejoe2.chat.utils.FrameUtil;
+import com.joejoe2.chat.utils.MessageHeader;
+import io.nats.client.Message;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A message delivered to subscribers on this node. It is created once per message and shared by all
+ * subscribers, the encoding of each transport is computed lazily at most once(concurrent first
+ * calls may compute the same bytes twice, which is harmless), so the allocation per delivered
+ * message does not grow with the number of subscribers.
+ *
+ * <p>The message is received in json or cbor, the other encoding is transcoded from it only if a
+ * subscriber needs it.
+ */
+public final class SharedFrame {
+  private volatile byte[] json;
+  private volatile byte[] cbor;
+  private final UUID id;
+  private final DeliveryLatency.Trace trace;
+  private volatile ByteBuffer webSocketFrame;
+  private volatile ByteBuffer webSocketBinaryFrame;
+  private volatile FrameUtil.SsePayload ssePayload;
+  private volatile byte[] sseEvent;
+  private final byte[] tag;
+  private final SharedFrame untagged;
+  private volatile SharedFrame lastTagged;
+
+  /**
+   * @param json utf-8 json of a single message
+   */
+  public SharedFrame(byte[] json) {
+    this(json, null);
+  }
+
+  /**
+   * @param json utf-8 json of a single message
+   * @param id id of the message used as the event id, may be null
+   */
+  public SharedFrame(byte[] json, UUID id) {
+    this(json, null, id, null, null, null);
+  }
+
+  private SharedFrame(
+      byte[] json,
+      byte[] cbor,
+      UUID id,
+      DeliveryLatency.Trace trace,
+      byte[] tag,
+      SharedFrame untagged) {
+    this.json = json;
+    this.cbor = cbor;
+    this.id = id;
+    this.trace = trace;
+    this.tag = tag;
+    this.untagged = untagged;
+  }
+
+  /**
+   * @param payload a single message
+   * @param encoding encoding of the payload
+   * @param id id of the message used as the event id, may be null
+   * @param trace publish and receipt of the message, may be null
+   * @return frame of the message
+   */
+  public static SharedFrame of(
+      byte[] payload, PayloadEncoding encoding, UUID id, DeliveryLatency.Trace trace) {
+    return encoding == PayloadEncoding.CBOR
+        ? new SharedFrame(null, payload, id, trace, null, null)
+        : new SharedFrame(payload, null, id, trace, null, null);
+  }
+
+  /**
+   * @param msg a single message received from nats
+   * @return frame of the message, traced by its headers
+   */
+  public static SharedFrame of(Message msg) {
+    return of(
+        msg.getData(),
+        MessageHeader.getEncoding(msg),
+        MessageHeader.getMessageId(msg),
+        new DeliveryLatency.Trace(
+            MessageHeader.get(msg, MessageHeader.CHANNEL_TYPE),
+            MessageHeader.get(msg, MessageHeader.ORIGIN),
+            MessageHeader.getPublishedAt(msg),
+            DeliveryLatency.nowMicros(),
+            System.nanoTime()));
+  }
+
+  /** id of the message, may be null */
+  public UUID id() {
+    return id;
+  }
+
+  /** size of the message in the encoding it is received */
+  public int size() {
+    if (untagged != null) return untagged.size();
+    byte[] bytes = json != null ? json : cbor;
+    return bytes == null ? 0 : bytes.length;
+  }
+
+  /** publish and receipt of the message, null if it is not received from nats */
+  public DeliveryLatency.Trace trace() {
+    return trace;
+  }
+
+  /** utf-8 json of the message, must not be modified */
+  public byte[] json() {
+    byte[] bytes = json;
+    if (bytes == null)
+      json =
+          bytes = untagged != null ? FrameUtil.tagged(tag, untagged.json()) : CborUtil.toJson(cbor);
+    return bytes;
+  }
+
+  /** cbor of the message, must not be modified */
+  public byte[] cbor() {
+    byte[] bytes = cbor;
+    if (bytes == null)
+      cbor =
+          bytes =
+              untagged != null ? CborUtil.tagged(tag, untagged.cbor()) : CborUtil.fromJson(json());
+    return bytes;
+  }
+
+  /**
+   * the message wrapped with its source tag for multiplexed connections, the last tagged frame is
+   * kept, so subscribers of the same key share it
+   *
+   * @param tag source tag from {@link FrameUtil#sourceTag}
+   * @return tagged frame
+   */
+  public SharedFrame tagged(byte[] tag) {
+    SharedFrame frame = lastTagged;
+    if (frame == null || !Arrays.equals(frame.tag, tag))
+      lastTagged = frame = new SharedFrame(null, null, id, trace, tag, this);
+    return frame;
+  }
+
+  /** utf-8 payload of the websocket text frame "[json]" */
+  public ByteBuffer webSocketFrame() {
+    ByteBuffer frame = webSocketFrame;
+    if (frame == null)
+      webSocketFrame = frame = ByteBuffer.wrap(FrameUtil.arrayFrame(json())).asReadOnlyBuffer();
+    return frame.duplicate();
+  }
+
+  /** payload of the websocket binary frame, a cbor array of the message */
+  public ByteBuffer webSocketBinaryFrame() {
+    ByteBuffer frame = webSocketBinaryFrame;
+    if (frame == null)
+      webSocketBinaryFrame =
+          frame = ByteBuffer.wrap(CborUtil.arrayFrame(List.of(cbor()))).asReadOnlyBuffer();
+    return frame.duplicate();
+  }
+
+  /** sse event bytes, must not be modified */
+  public byte[] sseEvent() {
+    byte[] event = sseEvent;
+    if (event == null) sseEvent = event = FrameUtil.sseMessageEvent(List.of(ssePayload()), id);
+    return event;
+  }
+
+  private FrameUtil.SsePayload ssePayload() {
+    FrameUtil.SsePayload payload = ssePayload;
+    if (payload == null) ssePayload = payload = FrameUtil.ssePayload(json());
+    return payload;
+  }
+
+  /** websocket text frame of messages coalesced into one json array */
+  public static ByteBuffer webSocketFrame(List<SharedFrame> frames) {
+    if (frames.size() == 1) return frames.get(0).webSocketFrame();
+    List<byte[]> payloads = new ArrayList<>(frames.size());
+    for (SharedFrame frame : frames) payloads.add(frame.json());
+    return ByteBuffer.wrap(FrameUtil.arrayFrame(payloads));
+  }
+
+  /** websocket binary frame of messages coalesced into one cbor array */
+  public static ByteBuffer webSocketBinaryFrame(List<SharedFrame> frames) {
+    if (frames.size() == 1) return frames.get(0).webSocketBinaryFrame();
+    List<byte[]> payloads = new ArrayList<>(frames.size());
+    for (SharedFrame frame : frames) payloads.add(frame.cbor());
+    return ByteBuffer.wrap(CborUtil.arrayFrame(payloads));
+  }
+
+  /**
+   * sse event of messages coalesced into one json array, escaped payloads are reused and the id of
+   * the last message is the event id
+   */
+  public static byte[] sseEvent(List<SharedFrame> frames) {
+    if (frames.size() == 1) return frames.get(0).sseEvent();
+    List<FrameUtil.SsePayload> payloads = new ArrayList<>(frames.size());
+    UUID lastId = null;
+    for (SharedFrame frame : frames) {
+      payloads.add(frame.ssePayload());
+      if (frame.id != null) lastId = frame.id;
+    }
+    return FrameUtil.sseMessageEvent(payloads, lastId);
+  }
+}
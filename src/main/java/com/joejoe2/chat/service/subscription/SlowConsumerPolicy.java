@@ -0,0 +1,11 @@
+package com.joejoe2.chat.service.subscription;
+
+/** what to do when the outbound queue of a subscriber is full */
+public enum SlowConsumerPolicy {
+  /** discard the oldest queued message to make room for the new one */
+  DROP_OLDEST,
+  /** discard the new message */
+  DROP_NEWEST,
+  /** close the connection of the subscriber with a reason */
+  DISCONNECT
+}
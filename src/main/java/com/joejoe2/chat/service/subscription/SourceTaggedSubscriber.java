@@ -0,0 +1,25 @@
+package com.joejoe2.chat.service.subscription;
+
+/**
+ * Subscriber of one source(a public channel or a stream of the user) on a multiplexed connection,
+ * messages are tagged with the source and passed to the subscriber of the connection, so all
+ * sources of a connection share one outbound queue.
+ */
+public class SourceTaggedSubscriber implements Subscriber {
+  private final byte[] tag;
+  private final Subscriber connection;
+
+  /**
+   * @param tag source tag from {@link com.joejoe2.chat.utils.FrameUtil#sourceTag}
+   * @param connection subscriber of the connection
+   */
+  public SourceTaggedSubscriber(byte[] tag, Subscriber connection) {
+    this.tag = tag;
+    this.connection = connection;
+  }
+
+  @Override
+  public void deliver(SharedFrame frame) {
+    connection.deliver(frame.tagged(tag));
+  }
+}
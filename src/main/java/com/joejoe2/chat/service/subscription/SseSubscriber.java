@@ -0,0 +1,43 @@
+package com.joejoe2.chat.service.subscription;
+
+import com.joejoe2.chat.utils.SseUtil;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+public class SseSubscriber extends BlockingQueuedSubscriber {
+  private final SseEmitter emitter;
+
+  public SseSubscriber(
+      SseEmitter emitter, OutboundQueueOptions options, Executor executor, Executor writeExecutor) {
+    super(options, executor, writeExecutor);
+    this.emitter = emitter;
+  }
+
+  public SseEmitter getEmitter() {
+    return emitter;
+  }
+
+  @Override
+  protected String transport() {
+    return DeliveryLatency.SSE;
+  }
+
+  @Override
+  protected void write(List<SharedFrame> frames) throws IOException {
+    SseUtil.sendRawEvent(emitter, SharedFrame.sseEvent(frames));
+  }
+
+  /** a comment event, ignored by clients */
+  @Override
+  protected void writeHeartbeat() throws IOException {
+    SseUtil.sendRawEvent(emitter, SseUtil.HEARTBEAT_EVENT);
+  }
+
+  /** sse has no close reason, completing the emitter triggers the completion callbacks */
+  @Override
+  protected void disconnect(String reason) {
+    emitter.complete();
+  }
+}
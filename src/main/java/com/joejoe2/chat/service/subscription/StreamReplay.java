@@ -0,0 +1,137 @@
+package com.joejoe2.chat.service.subscription;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.joejoe2.chat.data.message.MessageDto;
+import com.joejoe2.chat.utils.TimeUtil;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replay messages missed by a reconnecting subscriber. The client resumes by the id of the last
+ * message it received(Last-Event-ID of sse or the lastMessageId query of websocket), message ids
+ * are UUIDv7 so the id also tells when the gap starts. The gap is loaded by the history queries,
+ * which are served from the node-local tail cache and fall back to the database.
+ *
+ * <p>The replay is bounded by the outbound queue, if the gap has more messages than that only the
+ * newest ones are replayed, preceded by a {@link #GAP} event telling the client to load the rest by
+ * the history queries, so a gap is never truncated silently.
+ */
+public class StreamReplay {
+  private static final Logger logger = LoggerFactory.getLogger(StreamReplay.class);
+
+  /**
+   * message type of the event sent before the replayed messages if older missed messages are not
+   * replayed, it carries lastMessageId(the resume point) and nextMessageId(the oldest replayed
+   * message, null if none), messages between them should be loaded by the history queries
+   */
+  public static final String GAP = "GAP";
+
+  /** updateAt of a message is a little later than the time of its id */
+  private static final Duration ID_TIME_MARGIN = Duration.ofSeconds(1);
+
+  /** load messages of the stream for the replay */
+  public interface Loader {
+    /**
+     * @param since filter by updateAt >= since
+     * @param limit max number of messages
+     * @return newest messages in ascending order of updateAt
+     */
+    List<? extends MessageDto> load(Instant since, int limit) throws Exception;
+  }
+
+  /**
+   * parse the resume token
+   *
+   * @param token id of the last received message, may be null
+   * @return the message id or null if the token is absent or not a message id
+   */
+  public static UUID parseToken(String token) {
+    if (token == null || token.isBlank()) return null;
+    try {
+      UUID id = UUID.fromString(token.trim());
+      return id.version() == 7 ? id : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * replay messages after the last received message to the subscriber, then resume it. The
+   * subscriber must be put on {@link QueuedSubscriber#hold} before it is registered, so messages
+   * received during the replay are written after it. The subscriber is always resumed even if the
+   * replay fails.
+   *
+   * @param subscriber held subscriber
+   * @param lastMessageId id of the last received message
+   * @param limit max number of replayed messages
+   * @param loader loader of messages
+   * @param objectMapper mapper of replayed messages
+   */
+  public static void replay(
+      QueuedSubscriber subscriber,
+      UUID lastMessageId,
+      int limit,
+      Loader loader,
+      ObjectMapper objectMapper) {
+    List<SharedFrame> frames = new ArrayList<>();
+    try {
+      Instant lastTime = TimeUtil.timeOfUUIDv7(lastMessageId);
+      List<? extends MessageDto> messages = loader.load(lastTime.minus(ID_TIME_MARGIN), limit);
+      List<? extends MessageDto> missed = missed(messages, lastMessageId, lastTime);
+      if (isTruncated(messages, lastMessageId, limit)) {
+        // keep room for the gap event in the queue
+        if (!missed.isEmpty() && missed.size() >= limit) missed = missed.subList(1, missed.size());
+        frames.add(
+            gap(lastMessageId, missed.isEmpty() ? null : missed.get(0).getId(), objectMapper));
+      }
+      for (MessageDto message : missed)
+        frames.add(new SharedFrame(objectMapper.writeValueAsBytes(message), message.getId()));
+    } catch (Exception e) {
+      logger.debug("cannot replay messages after {}: {}", lastMessageId, e.getMessage());
+      frames.clear();
+    } finally {
+      subscriber.resume(frames);
+    }
+  }
+
+  /**
+   * whether older messages of the gap are not in the loaded window, the window is complete if it
+   * reaches the last received message or is not full
+   */
+  static boolean isTruncated(List<? extends MessageDto> messages, UUID lastMessageId, int limit) {
+    if (messages.size() < limit) return false;
+    for (MessageDto message : messages) if (lastMessageId.equals(message.getId())) return false;
+    return true;
+  }
+
+  private static SharedFrame gap(UUID lastMessageId, UUID nextMessageId, ObjectMapper objectMapper)
+      throws JsonProcessingException {
+    Map<String, Object> event = new LinkedHashMap<>();
+    event.put("messageType", GAP);
+    event.put("lastMessageId", lastMessageId);
+    event.put("nextMessageId", nextMessageId);
+    return new SharedFrame(objectMapper.writeValueAsBytes(event));
+  }
+
+  /** messages after the last received one, or not older than it if it is not found */
+  static <T extends MessageDto> List<T> missed(
+      List<T> messages, UUID lastMessageId, Instant lastTime) {
+    for (int i = messages.size() - 1; i >= 0; i--)
+      if (lastMessageId.equals(messages.get(i).getId()))
+        return messages.subList(i + 1, messages.size());
+    List<T> missed = new ArrayList<>();
+    for (T message : messages) {
+      UUID id = message.getId();
+      if (id.version() != 7 || !TimeUtil.timeOfUUIDv7(id).isBefore(lastTime)) missed.add(message);
+    }
+    return missed;
+  }
+}
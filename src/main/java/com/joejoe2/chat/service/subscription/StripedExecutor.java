@@ -0,0 +1,81 @@
+package com.joejoe2.chat.service.subscription;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor that runs tasks of the same key in submission order. Keys are hashed to a fixed number
+ * of stripes, each stripe is a serial queue drained by at most one task of the base executor at a
+ * time, so different stripes still run in parallel.
+ */
+public class StripedExecutor {
+  private static final Logger logger = LoggerFactory.getLogger(StripedExecutor.class);
+  /** max tasks run in one turn before the stripe yields its thread to other stripes */
+  private static final int BATCH = 64;
+
+  private final Stripe[] stripes;
+  private final Executor executor;
+
+  /**
+   * @param stripes number of stripes, usually close to the number of threads of the executor
+   * @param executor base executor
+   */
+  public StripedExecutor(int stripes, Executor executor) {
+    if (stripes <= 0) throw new IllegalArgumentException("stripes must be positive !");
+    this.stripes = new Stripe[stripes];
+    for (int i = 0; i < stripes; i++) this.stripes[i] = new Stripe();
+    this.executor = executor;
+  }
+
+  /**
+   * run the task after all previously submitted tasks of the same key
+   *
+   * @param key channel id or user id
+   * @param task task
+   */
+  public void execute(UUID key, Runnable task) {
+    Stripe stripe = stripes[(spread(key.hashCode())) % stripes.length];
+    stripe.tasks.offer(task);
+    if (stripe.scheduled.compareAndSet(false, true)) executor.execute(stripe);
+  }
+
+  public int getStripes() {
+    return stripes.length;
+  }
+
+  private static int spread(int hash) {
+    return (hash ^ (hash >>> 16)) & 0x7fffffff;
+  }
+
+  private class Stripe implements Runnable {
+    final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    @Override
+    public void run() {
+      while (true) {
+        Runnable task;
+        for (int i = 0; (task = tasks.poll()) != null; i++) {
+          try {
+            task.run();
+          } catch (Exception e) {
+            logger.error("striped task failed", e);
+          }
+          if (i + 1 >= BATCH && !tasks.isEmpty()) {
+            // still scheduled, continue later in submission order
+            executor.execute(this);
+            return;
+          }
+        }
+        scheduled.set(false);
+        // a task may be offered after the last poll but before the flag is cleared
+        if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) return;
+      }
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package com.joejoe2.chat.service.subscription;
+
+/** a client connection that receives messages from the registered channels or users */
+public interface Subscriber {
+  /**
+   * queue the message for delivery to the client, must not block the caller
+   *
+   * @param frame message shared by all subscribers, must not be modified
+   */
+  void deliver(SharedFrame frame);
+}
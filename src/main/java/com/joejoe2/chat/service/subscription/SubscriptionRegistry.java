@@ -0,0 +1,179 @@
+package com.joejoe2.chat.service.subscription;
+
+import com.joejoe2.chat.jfr.SubscriptionEvent;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of subscribers keyed by channel id or user id. Each key holds a copy-on-write array of
+ * subscribers, so fan-out can iterate the array without locking. Interest changes(first subscriber
+ * added or last subscriber removed) are reported to the {@link InterestListener} outside the map
+ * lock.
+ *
+ * <p>The numbers of subscribers and keys are counted on subscribe and unsubscribe, so reading them
+ * does not scan the registry.
+ */
+public class SubscriptionRegistry {
+  private static final Logger logger = LoggerFactory.getLogger(SubscriptionRegistry.class);
+  private static final Subscriber[] EMPTY = new Subscriber[0];
+  private static final int INTEREST_LOCKS = 64;
+
+  private final String name;
+  private final InterestListener interestListener;
+  private final ConcurrentHashMap<UUID, Subscriber[]> subscribers = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap.KeySetView<UUID, Boolean> interests =
+      ConcurrentHashMap.newKeySet();
+  private final Object[] interestLocks = new Object[INTEREST_LOCKS];
+  private final LongAdder subscriberCount = new LongAdder(), keyCount = new LongAdder();
+  private volatile HotKeys hotKeys;
+
+  /** listen to the interest changes of keys, ex. subscribe or unsubscribe nats subjects */
+  public interface InterestListener {
+    void onInterestChanged(UUID key, boolean interested);
+  }
+
+  /**
+   * @param name name of the registry used in logs
+   * @param interestListener listener of interest changes
+   */
+  public SubscriptionRegistry(String name, InterestListener interestListener) {
+    this.name = name;
+    this.interestListener = interestListener;
+    for (int i = 0; i < INTEREST_LOCKS; i++) interestLocks[i] = new Object();
+  }
+
+  /**
+   * register the subscriber to the key
+   *
+   * @param key channel id or user id
+   * @param subscriber subscriber
+   */
+  public void subscribe(UUID key, Subscriber subscriber) {
+    Subscriber[] updated =
+        subscribers.compute(
+            key,
+            (k, current) -> {
+              if (current == null) return new Subscriber[] {subscriber};
+              Subscriber[] next = Arrays.copyOf(current, current.length + 1);
+              next[current.length] = subscriber;
+              return next;
+            });
+    subscriberCount.increment();
+    if (updated.length == 1) {
+      keyCount.increment();
+      reconcileInterest(key);
+    }
+    HotKeys hot = hotKeys;
+    if (hot != null) hot.update(key);
+    record("subscribe", key, updated.length);
+    logger.debug("{} {} now has {} subscribers", name, key, updated.length);
+  }
+
+  /**
+   * remove the subscriber from the key, no op if the subscriber is not registered
+   *
+   * @param key channel id or user id
+   * @param subscriber subscriber
+   */
+  public void unsubscribe(UUID key, Subscriber subscriber) {
+    boolean[] removed = {false};
+    Subscriber[] updated =
+        subscribers.computeIfPresent(
+            key,
+            (k, current) -> {
+              int index = indexOf(current, subscriber);
+              if (index < 0) return current;
+              removed[0] = true;
+              if (current.length == 1) return null;
+              Subscriber[] next = new Subscriber[current.length - 1];
+              System.arraycopy(current, 0, next, 0, index);
+              System.arraycopy(current, index + 1, next, index, next.length - index);
+              return next;
+            });
+    if (!removed[0]) return;
+    subscriberCount.decrement();
+    if (updated == null) {
+      keyCount.decrement();
+      reconcileInterest(key);
+    }
+    HotKeys hot = hotKeys;
+    if (hot != null) hot.update(key);
+    record("unsubscribe", key, updated == null ? 0 : updated.length);
+    logger.debug("{} {} now has {} subscribers", name, key, updated == null ? 0 : updated.length);
+  }
+
+  /**
+   * get a snapshot of subscribers of the key, the returned array must not be modified
+   *
+   * @param key channel id or user id
+   * @return subscribers or an empty array
+   */
+  public Subscriber[] getSubscribers(UUID key) {
+    Subscriber[] current = subscribers.get(key);
+    return current == null ? EMPTY : current;
+  }
+
+  public boolean hasSubscribers(UUID key) {
+    return subscribers.containsKey(key);
+  }
+
+  /** number of subscribers of the key */
+  public int count(UUID key) {
+    return getSubscribers(key).length;
+  }
+
+  /** whether no key has any subscriber */
+  public boolean isEmpty() {
+    return subscribers.isEmpty();
+  }
+
+  /** total number of subscribers of all keys */
+  public int countSubscribers() {
+    return subscriberCount.intValue();
+  }
+
+  /** number of keys with subscribers */
+  public int countKeys() {
+    return keyCount.intValue();
+  }
+
+  /**
+   * track the hottest keys, keys subscribed before are tracked when their subscribers change
+   *
+   * @param hotKeys tracker of hot keys
+   */
+  public void trackHotKeys(HotKeys hotKeys) {
+    hotKeys.countBy(this::count);
+    this.hotKeys = hotKeys;
+  }
+
+  private void record(String action, UUID key, int subscribers) {
+    SubscriptionEvent event = new SubscriptionEvent();
+    if (!event.isEnabled()) return;
+    event.action = action;
+    event.key = key.toString();
+    event.finish(name, 0, subscribers);
+  }
+
+  private static int indexOf(Subscriber[] current, Subscriber subscriber) {
+    for (int i = 0; i < current.length; i++) if (current[i] == subscriber) return i;
+    return -1;
+  }
+
+  /**
+   * make the interest of the key consistent with the registry, interest changes of the same key are
+   * serialized by a striped lock instead of the map lock
+   */
+  private void reconcileInterest(UUID key) {
+    synchronized (interestLocks[(key.hashCode() & 0x7fffffff) % INTEREST_LOCKS]) {
+      boolean interested = subscribers.containsKey(key);
+      if (interested ? interests.add(key) : interests.remove(key)) {
+        interestListener.onInterestChanged(key, interested);
+      }
+    }
+  }
+}
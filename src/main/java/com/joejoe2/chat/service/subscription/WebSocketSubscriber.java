@@ -0,0 +1,71 @@
+package com.joejoe2.chat.service.subscription;
+
+import com.joejoe2.chat.service.nats.PayloadEncoding;
+import com.joejoe2.chat.utils.WebSocketUtil;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+public class WebSocketSubscriber extends QueuedSubscriber {
+  private final WebSocketSession session;
+  private final boolean binary;
+  private volatile boolean awaitingPong = false;
+  private volatile long pingAt;
+
+  public WebSocketSubscriber(
+      WebSocketSession session, OutboundQueueOptions options, Executor executor) {
+    super(options, executor);
+    this.session = session;
+    this.binary = WebSocketUtil.getEncoding(session) == PayloadEncoding.CBOR;
+  }
+
+  public WebSocketSession getSession() {
+    return session;
+  }
+
+  @Override
+  protected String transport() {
+    return DeliveryLatency.WEBSOCKET;
+  }
+
+  /** the frame is sent without blocking, the callback is called by the io thread */
+  @Override
+  protected void write(List<SharedFrame> frames, WriteCallback callback) {
+    if (binary)
+      WebSocketUtil.sendBinary(session, SharedFrame.webSocketBinaryFrame(frames), callback);
+    else WebSocketUtil.sendText(session, SharedFrame.webSocketFrame(frames), callback);
+  }
+
+  /** ping the peer, the pong is expected before the timeout of the heartbeat wheel */
+  @Override
+  protected void writeHeartbeat(WriteCallback callback) {
+    // a ping without an answer keeps its time, so the deadline is not extended
+    if (!awaitingPong) {
+      pingAt = System.nanoTime();
+      awaitingPong = true;
+    }
+    WebSocketUtil.sendPing(session, callback);
+  }
+
+  @Override
+  protected boolean isAlive(long timeoutNanos) {
+    return !awaitingPong || System.nanoTime() - pingAt < timeoutNanos;
+  }
+
+  /** the peer answered the ping, call it on pong messages */
+  public void onPong() {
+    awaitingPong = false;
+  }
+
+  @Override
+  protected void disconnect(String reason) {
+    WebSocketUtil.close(session, CloseStatus.POLICY_VIOLATION.withReason(reason));
+  }
+
+  /** a stalled connection cannot send the close frame either */
+  @Override
+  protected void abort(String reason) {
+    WebSocketUtil.abort(session);
+  }
+}
@@ -0,0 +1,14 @@
+package com.joejoe2.chat.service.subscription;
+
+/** completion of a write to a connection, one of the methods is called once */
+public interface WriteCallback {
+  /** the frame is written to the connection */
+  void completed();
+
+  /**
+   * the frame cannot be written
+   *
+   * @param e the error
+   */
+  void failed(Throwable e);
+}
@@ -0,0 +1,79 @@
+package com.joejoe2.chat.service.user;
+
+import com.joejoe2.chat.models.User;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Node-local directory of existing users, so the auth filter and services resolve a user id without
+ * hitting redis or the database on every request.
+ *
+ * <p>Entries are detached snapshots holding only the id and user name, they can be referenced by
+ * entities(ex. members of channels or senders of messages) but their associations are not loaded.
+ * Users are loaded on first use, absent users are not kept. Entries are evicted by LRU and reloaded
+ * after a ttl.
+ *
+ * <p>There is no invalidation, users are only created by this service and never updated or deleted
+ * by it, so a user changed in the database by other means(ex. a new user name) is stale in the
+ * directory for at most the ttl.
+ */
+public class UserDirectory {
+  private final Function<UUID, Optional<User>> loader;
+  private final long ttlNanos;
+  private final Map<UUID, Entry> entries;
+
+  private record Entry(User user, long loadedAt) {}
+
+  /**
+   * @param loader load a user from the database
+   * @param maxUsers max number of users in the directory
+   * @param ttlNanos max age of a loaded user
+   */
+  public UserDirectory(Function<UUID, Optional<User>> loader, int maxUsers, long ttlNanos) {
+    this.loader = loader;
+    this.ttlNanos = ttlNanos;
+    this.entries =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                return size() > maxUsers;
+              }
+            });
+  }
+
+  private static User snapshot(User user) {
+    return User.builder().id(user.getId()).userName(user.getUserName()).build();
+  }
+
+  /**
+   * find the user, load it if absent or expired
+   *
+   * @param userId user id
+   * @return snapshot of the user or empty if the user does not exist
+   */
+  public Optional<User> find(UUID userId) {
+    Entry entry = entries.get(userId);
+    if (entry != null && System.nanoTime() - entry.loadedAt < ttlNanos)
+      return Optional.of(entry.user);
+    Optional<User> user = loader.apply(userId).map(UserDirectory::snapshot);
+    user.ifPresent(u -> entries.put(userId, new Entry(u, System.nanoTime())));
+    return user;
+  }
+
+  /**
+   * add a user that is just created
+   *
+   * @param user user
+   * @return snapshot of the user
+   */
+  public User put(User user) {
+    User snapshot = snapshot(user);
+    entries.put(snapshot.getId(), new Entry(snapshot, System.nanoTime()));
+    return snapshot;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+}
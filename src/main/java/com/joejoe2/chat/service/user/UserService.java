@@ -5,26 +5,35 @@ import com.joejoe2.chat.exception.UserDoesNotExist;
 import com.joejoe2.chat.models.User;
 import com.joejoe2.chat.repository.user.UserRepository;
 import com.joejoe2.chat.validation.validator.UUIDValidator;
+import java.util.Optional;
 import java.util.UUID;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class UserService implements UserDetailsService {
   private final UserRepository userRepository;
+  private final UserDirectory userDirectory;
   private final UUIDValidator uuidValidator = UUIDValidator.getInstance();
 
-  public UserService(UserRepository userRepository) {
+  public UserService(UserRepository userRepository, UserDirectory userDirectory) {
     this.userRepository = userRepository;
+    this.userDirectory = userDirectory;
   }
 
-  @Transactional
+  /**
+   * get the user from the {@link UserDirectory}, associations of the returned user are not loaded
+   *
+   * @param userId user id
+   * @return detached user with id and user name
+   * @throws UserDoesNotExist if the user does not exist
+   */
   public User getUserById(String userId) throws UserDoesNotExist {
-    return userRepository
-        .findById(uuidValidator.validate(userId))
+    return userDirectory
+        .find(uuidValidator.validate(userId))
         .orElseThrow(
             () -> new UserDoesNotExist("user with id=%s does not exist !".formatted(userId)));
   }
@@ -38,14 +47,24 @@ public class UserService implements UserDetailsService {
     return new UserDetail(user);
   }
 
-  public void createUserIfAbsent(UserDetail userDetail) {
-    if (!userRepository.existsById(UUID.fromString(userDetail.getId()))) {
-      User user =
-          User.builder()
-              .id(UUID.fromString(userDetail.getId()))
-              .userName(userDetail.getUsername())
-              .build();
-      userRepository.save(user);
+  /**
+   * create the user of an access token on first sight, known users are resolved by the {@link
+   * UserDirectory} without hitting redis or the database
+   *
+   * @param userDetail user detail of the access token
+   * @return detached user with id and user name
+   */
+  public User createUserIfAbsent(UserDetail userDetail) {
+    UUID userId = UUID.fromString(userDetail.getId());
+    Optional<User> user = userDirectory.find(userId);
+    if (user.isPresent()) return user.get();
+    try {
+      return userDirectory.put(
+          userRepository.save(
+              User.builder().id(userId).userName(userDetail.getUsername()).build()));
+    } catch (DataIntegrityViolationException e) {
+      // created by a concurrent request
+      return userDirectory.find(userId).orElseThrow(() -> e);
     }
   }
 }
@@ -0,0 +1,98 @@
+package com.joejoe2.chat.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * build cbor frames from encoded messages without binding them to dto classes, transcoding keeps
+ * the value types of json(ex. uuids and timestamps are strings), so clients see the same values in
+ * both encodings
+ */
+public class CborUtil {
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+  private static final byte START_ARRAY = (byte) 0x9f, NULL = (byte) 0xf6, BREAK = (byte) 0xff;
+  private static final byte[] NULL_VALUE = "null".getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * transcode json to cbor token by token, values keep their json types(ex. uuids stay strings)
+   *
+   * @param json utf-8 json
+   * @return cbor bytes
+   */
+  public static byte[] fromJson(byte[] json) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+    try (JsonParser parser = JSON_FACTORY.createParser(json);
+        JsonGenerator generator = CBOR_FACTORY.createGenerator(out)) {
+      parser.nextToken();
+      generator.copyCurrentStructure(parser);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * transcode cbor to json token by token, the reverse of {@link #fromJson}
+   *
+   * @param cbor cbor bytes
+   * @return utf-8 json
+   */
+  public static byte[] toJson(byte[] cbor) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(cbor.length + 32);
+    try (JsonParser parser = CBOR_FACTORY.createParser(cbor);
+        JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+      parser.nextToken();
+      generator.copyCurrentStructure(parser);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * merge encoded messages into one cbor array frame
+   *
+   * @param payloads cbor of messages in order
+   * @return cbor bytes of an indefinite length array
+   */
+  public static byte[] arrayFrame(List<byte[]> payloads) {
+    int length = 2;
+    for (byte[] payload : payloads) length += payload.length;
+    byte[] frame = new byte[length];
+    frame[0] = START_ARRAY;
+    int offset = 1;
+    for (byte[] payload : payloads) {
+      System.arraycopy(payload, 0, frame, offset, payload.length);
+      offset += payload.length;
+    }
+    frame[offset] = BREAK;
+    return frame;
+  }
+
+  /**
+   * wrap an encoded message with its source tag like {@link FrameUtil#tagged}
+   *
+   * @param tag json source tag from {@link FrameUtil#sourceTag}
+   * @param payload cbor of a single message
+   * @return cbor bytes of the tagged message
+   */
+  public static byte[] tagged(byte[] tag, byte[] payload) {
+    // the tag with a null message is an indefinite length map ending with null and break
+    byte[] map = fromJson(FrameUtil.tagged(tag, NULL_VALUE));
+    if (map.length < 2 || map[map.length - 2] != NULL || map[map.length - 1] != BREAK)
+      throw new IllegalStateException("unexpected cbor of the source tag");
+    byte[] frame = new byte[map.length - 1 + payload.length];
+    System.arraycopy(map, 0, frame, 0, map.length - 2);
+    System.arraycopy(payload, 0, frame, map.length - 2, payload.length);
+    frame[frame.length - 1] = BREAK;
+    return frame;
+  }
+}
@@ -5,6 +5,16 @@ public class ChannelSubject {
   private static final String PRIVATE_CHANNEL = "chat.channel.private.user.";
 
   private static final String GROUP_CHANNEL = "chat.channel.GROUP.user.";
+  private static final String GROUP_CHANNEL_BROADCAST = "chat.channel.GROUP.channel.";
+  public static final String GROUP_CHANNEL_BROADCAST_WILDCARD = GROUP_CHANNEL_BROADCAST + "*";
+
+  /** invalidations of authorization indexes, the payload is the channel id */
+  public static final String GROUP_CHANNEL_AUTH_INVALIDATION = "chat.auth.invalidate.GROUP";
+
+  public static final String PRIVATE_CHANNEL_AUTH_INVALIDATION = "chat.auth.invalidate.private";
+
+  /** evictions of local cache tiers, see {@link com.joejoe2.chat.config.CacheConfig} */
+  public static final String CACHE_INVALIDATION = "chat.cache.invalidate";
 
   public static String publicChannelSubject(String channelId) {
     return PUBLIC_CHANNEL + channelId;
@@ -29,4 +39,16 @@ public class ChannelSubject {
   public static String groupChannelUserOfSubject(String subject) {
     return subject.replace(GROUP_CHANNEL, "");
   }
+
+  public static String groupChannelBroadcastSubject(String channelId) {
+    return GROUP_CHANNEL_BROADCAST + channelId;
+  }
+
+  public static boolean isGroupChannelBroadcastSubject(String subject) {
+    return subject.startsWith(GROUP_CHANNEL_BROADCAST);
+  }
+
+  public static String groupChannelOfBroadcastSubject(String subject) {
+    return subject.replace(GROUP_CHANNEL_BROADCAST, "");
+  }
 }
@@ -0,0 +1,169 @@
+package com.joejoe2.chat.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.web.socket.TextMessage;
+
+public class FrameUtil {
+  /**
+   * wrap a serialized message into a json array frame without parsing it
+   *
+   * @param payload utf-8 json of a single message
+   * @return utf-8 bytes of "[payload]"
+   */
+  public static byte[] arrayFrame(byte[] payload) {
+    byte[] frame = new byte[payload.length + 2];
+    frame[0] = '[';
+    System.arraycopy(payload, 0, frame, 1, payload.length);
+    frame[frame.length - 1] = ']';
+    return frame;
+  }
+
+  /**
+   * merge serialized messages into one json array frame without parsing them
+   *
+   * @param payloads utf-8 json of messages in order
+   * @return utf-8 bytes of "[payload1,payload2,...]"
+   */
+  public static byte[] arrayFrame(List<byte[]> payloads) {
+    if (payloads.size() == 1) return arrayFrame(payloads.get(0));
+    int length = payloads.size() + 1;
+    for (byte[] payload : payloads) length += payload.length;
+    if (payloads.isEmpty()) length++;
+    byte[] frame = new byte[length];
+    frame[0] = '[';
+    int offset = 1;
+    for (byte[] payload : payloads) {
+      if (offset > 1) frame[offset++] = ',';
+      System.arraycopy(payload, 0, frame, offset, payload.length);
+      offset += payload.length;
+    }
+    frame[offset] = ']';
+    return frame;
+  }
+
+  /**
+   * prefix of a message tagged with its source on a multiplexed connection, see {@link #tagged}
+   *
+   * @param source source type, ex. public, private or group
+   * @param channelId id of the public channel, or null for streams of the user
+   * @return utf-8 bytes of {"source":"type","channelId":"id","message":
+   */
+  public static byte[] sourceTag(String source, UUID channelId) {
+    String tag =
+        channelId == null
+            ? "{\"source\":\"%s\",\"message\":".formatted(source)
+            : "{\"source\":\"%s\",\"channelId\":\"%s\",\"message\":".formatted(source, channelId);
+    return tag.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * wrap a serialized message with its source tag without parsing it
+   *
+   * @param tag source tag from {@link #sourceTag}
+   * @param payload utf-8 json of a single message
+   * @return utf-8 bytes of "tag payload}"
+   */
+  public static byte[] tagged(byte[] tag, byte[] payload) {
+    byte[] frame = new byte[tag.length + payload.length + 1];
+    System.arraycopy(tag, 0, frame, 0, tag.length);
+    System.arraycopy(payload, 0, frame, tag.length, payload.length);
+    frame[frame.length - 1] = '}';
+    return frame;
+  }
+
+  public static TextMessage textFrame(byte[] payload) {
+    return new TextMessage(arrayFrame(payload));
+  }
+
+  public static TextMessage textFrame(List<byte[]> payloads) {
+    return new TextMessage(arrayFrame(payloads));
+  }
+
+  private static final byte[] SSE_PREFIX =
+      "data:[{\"payload\":\"[".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.UTF_8);
+
+  /** a serialized message escaped as part of a json string, see {@link #sseMessageEvent} */
+  public static class SsePayload {
+    private final byte[] escaped;
+    private final int length;
+
+    private SsePayload(byte[] escaped, int length) {
+      this.escaped = escaped;
+      this.length = length;
+    }
+  }
+
+  /**
+   * escape a serialized message to be embedded in a json string
+   *
+   * @param payload utf-8 json of a single message
+   * @return escaped payload with its length in bytes before escaping
+   */
+  public static SsePayload ssePayload(byte[] payload) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length + 16);
+    for (byte b : payload) {
+      if (b == '"' || b == '\\') {
+        out.write('\\');
+        out.write(b);
+      } else if (b >= 0 && b < 0x20) {
+        out.write('\\');
+        switch (b) {
+          case '\n' -> out.write('n');
+          case '\r' -> out.write('r');
+          case '\t' -> out.write('t');
+          case '\b' -> out.write('b');
+          case '\f' -> out.write('f');
+          default -> {
+            out.writeBytes(new byte[] {'u', '0', '0', HEX[b >> 4], HEX[b & 0xF]});
+          }
+        }
+      } else out.write(b);
+    }
+    return new SsePayload(out.toByteArray(), payload.length);
+  }
+
+  /**
+   * build the sse event of messages without serializing them again, the bytes are identical to
+   * {@code sseEmitter.send(List.of(textFrame(payloads)))}, which is
+   * data:[{"payload":"[payload1,...]","last":true,"payloadLength":n}]
+   *
+   * @param payloads escaped messages in order
+   * @return utf-8 bytes of the sse event
+   */
+  public static byte[] sseMessageEvent(List<SsePayload> payloads) {
+    return sseMessageEvent(payloads, null);
+  }
+
+  /**
+   * build the sse event of messages like {@link #sseMessageEvent(List)} with the event id, so the
+   * client can resume after it with Last-Event-ID
+   *
+   * @param payloads escaped messages in order
+   * @param id id of the last message, null to omit the id field
+   * @return utf-8 bytes of the sse event
+   */
+  public static byte[] sseMessageEvent(List<SsePayload> payloads, UUID id) {
+    // payloadLength of TextMessage is the utf-8 length of "[payload1,...]"
+    int payloadLength = 2 + Math.max(payloads.size() - 1, 0);
+    int length = SSE_PREFIX.length + payloads.size() + 64;
+    for (SsePayload payload : payloads) {
+      payloadLength += payload.length;
+      length += payload.escaped.length;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+    if (id != null) out.writeBytes(("id:" + id + "\n").getBytes(StandardCharsets.UTF_8));
+    out.writeBytes(SSE_PREFIX);
+    for (int i = 0; i < payloads.size(); i++) {
+      if (i > 0) out.write(',');
+      out.writeBytes(payloads.get(i).escaped);
+    }
+    out.writeBytes(
+        ("]\",\"last\":true,\"payloadLength\":" + payloadLength + "}]\n\n")
+            .getBytes(StandardCharsets.UTF_8));
+    return out.toByteArray();
+  }
+}
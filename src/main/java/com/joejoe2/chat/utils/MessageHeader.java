@@ -0,0 +1,96 @@
+package com.joejoe2.chat.utils;
+
+import com.joejoe2.chat.data.message.MessageDto;
+import com.joejoe2.chat.service.nats.PayloadEncoding;
+import io.nats.client.Message;
+import io.nats.client.impl.Headers;
+import java.util.UUID;
+
+/** routing metadata of chat messages carried in nats headers */
+public class MessageHeader {
+  public static final String CHANNEL_TYPE = "Chat-Channel-Type";
+  public static final String CHANNEL = "Chat-Channel";
+  public static final String MESSAGE_ID = "Chat-Message-Id";
+  public static final String MESSAGE_TYPE = "Chat-Message-Type";
+  /** the user affected by a group event, ex. the invitee or the one who leaves */
+  public static final String TARGET_USER = "Chat-Target-User";
+  /** encoding of the payload, absent means json */
+  public static final String ENCODING = "Chat-Encoding";
+  /** wall clock time of the publish in microseconds since epoch */
+  public static final String PUBLISHED_AT = "Chat-Published-At";
+  /** id of the node publishing the message */
+  public static final String ORIGIN = "Chat-Origin";
+
+  public static final String PUBLIC = "public";
+  public static final String PRIVATE = "private";
+  public static final String GROUP = "group";
+
+  public static Headers of(String channelType, MessageDto message) {
+    Headers headers = new Headers();
+    headers.put(CHANNEL_TYPE, channelType);
+    headers.put(CHANNEL, message.getChannel().toString());
+    headers.put(MESSAGE_ID, message.getId().toString());
+    headers.put(MESSAGE_TYPE, message.getMessageType().name());
+    return headers;
+  }
+
+  /**
+   * get the message id in the header
+   *
+   * @param msg nats message
+   * @return the message id or null if the message does not carry it
+   */
+  public static UUID getMessageId(Message msg) {
+    String id = get(msg, MESSAGE_ID);
+    return id == null ? null : UUID.fromString(id);
+  }
+
+  /**
+   * get the channel id in the header
+   *
+   * @param msg nats message
+   * @return the channel id or null if the message does not carry it
+   */
+  public static UUID getChannel(Message msg) {
+    String channel = get(msg, CHANNEL);
+    return channel == null ? null : UUID.fromString(channel);
+  }
+
+  /**
+   * get the encoding of the payload
+   *
+   * @param msg nats message
+   * @return the encoding, json if the message does not carry it
+   */
+  public static PayloadEncoding getEncoding(Message msg) {
+    return PayloadEncoding.of(get(msg, ENCODING));
+  }
+
+  /**
+   * get the publish time in the header
+   *
+   * @param msg nats message
+   * @return microseconds since epoch, or 0 if the message does not carry it
+   */
+  public static long getPublishedAt(Message msg) {
+    String publishedAt = get(msg, PUBLISHED_AT);
+    if (publishedAt == null) return 0;
+    try {
+      return Long.parseLong(publishedAt);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * get the first value of the header
+   *
+   * @param msg nats message
+   * @param name header name
+   * @return the value or null if the message does not carry the header
+   */
+  public static String get(Message msg, String name) {
+    if (!msg.hasHeaders()) return null;
+    return msg.getHeaders().getFirst(name);
+  }
+}
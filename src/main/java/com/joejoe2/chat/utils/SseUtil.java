@@ -1,10 +1,17 @@
 package com.joejoe2.chat.utils;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Set;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 public class SseUtil {
+  /** a comment event keeping the connection open, ignored by clients */
+  public static final byte[] HEARTBEAT_EVENT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
   public static void addSseCallbacks(SseEmitter sseEmitter, Runnable runnable) {
     sseEmitter.onCompletion(runnable);
   }
@@ -20,4 +27,15 @@ public class SseUtil {
   public static void sendMessageEvent(SseEmitter sseEmitter, Object data) throws IOException {
     sseEmitter.send(List.of(data));
   }
+
+  /**
+   * send a pre-encoded sse event as is without message converters
+   *
+   * @param sseEmitter sse emitter
+   * @param event utf-8 bytes of a complete sse event
+   * @throws IOException if the connection is broken
+   */
+  public static void sendRawEvent(SseEmitter sseEmitter, byte[] event) throws IOException {
+    sseEmitter.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(event, MediaType.TEXT_PLAIN)));
+  }
 }
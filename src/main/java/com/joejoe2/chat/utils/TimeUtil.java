@@ -1,8 +1,20 @@
 package com.joejoe2.chat.utils;
 
 import java.time.Instant;
+import java.util.UUID;
 
 public class TimeUtil {
+  /**
+   * get the creation time of a time based(version 7) uuid in milliseconds precision
+   *
+   * @param uuid version 7 uuid
+   * @return creation time
+   */
+  public static Instant timeOfUUIDv7(UUID uuid) {
+    if (uuid.version() != 7) throw new IllegalArgumentException("not a version 7 uuid !");
+    return Instant.ofEpochMilli(uuid.getMostSignificantBits() >>> 16);
+  }
+
   public static Instant roundToMicro(Instant instant) {
     long nano = instant.getNano() % 1000;
     if (nano >= 500) {
@@ -1,10 +1,33 @@
 package com.joejoe2.chat.utils;
 
+import com.joejoe2.chat.service.nats.PayloadEncoding;
+import com.joejoe2.chat.service.subscription.DeflateGuard;
+import com.joejoe2.chat.service.subscription.Subscriber;
+import com.joejoe2.chat.service.subscription.WebSocketSubscriber;
+import com.joejoe2.chat.service.subscription.WriteCallback;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.jsr.UndertowSession;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.xnio.IoUtils;
 
 public class WebSocketUtil {
+  private static final Logger logger = LoggerFactory.getLogger(WebSocketUtil.class);
+  private static final byte[] EMPTY_CBOR_ARRAY = {(byte) 0x80};
+  private static final byte[] EMPTY_JSON_ARRAY = {'[', ']'};
+
   public static void addFinishedCallbacks(WebSocketSession session, Runnable runnable) {
     session.getAttributes().put("finishedCallbacks", runnable);
   }
@@ -15,16 +38,178 @@ public class WebSocketUtil {
     }
   }
 
+  /** keep the subscriber of the connection, so inbound commands can reply through its queue */
+  public static void setSubscriber(WebSocketSession session, Subscriber subscriber) {
+    session.getAttributes().put("subscriber", subscriber);
+  }
+
+  public static Subscriber getSubscriber(WebSocketSession session) {
+    return (Subscriber) session.getAttributes().get("subscriber");
+  }
+
+  /**
+   * encoding of frames sent to the client, requested by the encoding query of the handshake, ex.
+   * ?encoding=cbor
+   */
+  public static PayloadEncoding getEncoding(WebSocketSession session) {
+    return PayloadEncoding.of((String) session.getAttributes().get("encoding"));
+  }
+
+  /** the peer answered a ping of the heartbeat, call it on pong messages */
+  public static void handlePong(WebSocketSession session) {
+    if (getSubscriber(session) instanceof WebSocketSubscriber subscriber) subscriber.onPong();
+  }
+
+  /**
+   * close the connection after a transport error, the finish callbacks will unsubscribe it
+   *
+   * @param session websocket session
+   * @param exception the error
+   */
+  public static void handleTransportError(WebSocketSession session, Throwable exception) {
+    logger.debug("transport error of session {}: {}", session.getId(), exception.getMessage());
+    close(session, CloseStatus.SERVER_ERROR);
+  }
+
+  /**
+   * send the empty frame of a new connection through the same path as messages, the connection is
+   * closed if it cannot be sent
+   */
   public static void sendConnectMessage(WebSocketSession session) {
+    WriteCallback callback =
+        new WriteCallback() {
+          @Override
+          public void completed() {}
+
+          @Override
+          public void failed(Throwable e) {
+            logger.debug("cannot connect session {}: {}", session.getId(), e.getMessage());
+            executeFinishedCallbacks(session);
+          }
+        };
+    if (getEncoding(session) == PayloadEncoding.CBOR)
+      sendBinary(session, ByteBuffer.wrap(EMPTY_CBOR_ARRAY), callback);
+    else sendText(session, ByteBuffer.wrap(EMPTY_JSON_ARRAY), callback);
+  }
+
+  /**
+   * send a pre-encoded text frame without blocking, on undertow the utf-8 bytes are written to the
+   * channel as is instead of being decoded to a String and encoded again for each session, and the
+   * size is passed to {@link DeflateGuard}
+   *
+   * <p>All frames of a session(messages, pings and the connect frame) are sent by this class, so
+   * the session has one send path and is not decorated.
+   *
+   * @param session websocket session
+   * @param payload utf-8 payload of the text frame
+   * @param callback completion of the write, called by the io thread on undertow
+   */
+  public static void sendText(
+      WebSocketSession session, ByteBuffer payload, WriteCallback callback) {
+    WebSocketChannel channel = channelOf(session);
+    if (channel == null) {
+      byte[] bytes = new byte[payload.remaining()];
+      payload.get(bytes);
+      sendBlocking(session, new TextMessage(bytes), callback);
+      return;
+    }
+    // undertow decides the compression when the frame channel is created by the calling thread
+    DeflateGuard.setPayloadSize(payload.remaining());
+    try {
+      WebSockets.sendText(payload, channel, adapt(callback));
+    } finally {
+      DeflateGuard.setPayloadSize(-1);
+    }
+  }
+
+  /**
+   * send a pre-encoded binary frame without blocking, like {@link #sendText}
+   *
+   * @param session websocket session
+   * @param payload payload of the binary frame
+   * @param callback completion of the write
+   */
+  public static void sendBinary(
+      WebSocketSession session, ByteBuffer payload, WriteCallback callback) {
+    WebSocketChannel channel = channelOf(session);
+    if (channel == null) {
+      sendBlocking(session, new BinaryMessage(payload), callback);
+      return;
+    }
+    DeflateGuard.setPayloadSize(payload.remaining());
     try {
-      session.sendMessage(new TextMessage("[]"));
+      WebSockets.sendBinary(payload, channel, adapt(callback));
+    } finally {
+      DeflateGuard.setPayloadSize(-1);
+    }
+  }
+
+  /**
+   * send a ping without blocking, like {@link #sendText}
+   *
+   * @param session websocket session
+   * @param callback completion of the write
+   */
+  public static void sendPing(WebSocketSession session, WriteCallback callback) {
+    WebSocketChannel channel = channelOf(session);
+    if (channel == null) sendBlocking(session, new PingMessage(), callback);
+    else WebSockets.sendPing(ByteBuffer.allocate(0), channel, adapt(callback));
+  }
+
+  /** undertow channel of the session, null if it is not served by undertow */
+  private static WebSocketChannel channelOf(WebSocketSession session) {
+    WebSocketSession delegate = WebSocketSessionDecorator.unwrap(session);
+    if (delegate instanceof NativeWebSocketSession nativeSession) {
+      UndertowSession undertowSession = nativeSession.getNativeSession(UndertowSession.class);
+      if (undertowSession != null) return undertowSession.getWebSocketChannel();
+    }
+    return null;
+  }
+
+  private static WebSocketCallback<Void> adapt(WriteCallback callback) {
+    return new WebSocketCallback<>() {
+      @Override
+      public void complete(WebSocketChannel channel, Void context) {
+        callback.completed();
+      }
+
+      @Override
+      public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+        callback.failed(throwable);
+      }
+    };
+  }
+
+  /** sessions of other containers are only written by blocking sends, one at a time */
+  private static void sendBlocking(
+      WebSocketSession session, WebSocketMessage<?> message, WriteCallback callback) {
+    try {
+      synchronized (session) {
+        session.sendMessage(message);
+      }
     } catch (IOException e) {
-      e.printStackTrace();
-      executeFinishedCallbacks(session);
+      callback.failed(e);
+      return;
     }
+    callback.completed();
+  }
+
+  /**
+   * close the connection without the closing handshake, ex. when its writes are stalled, the finish
+   * callbacks will unsubscribe it
+   */
+  public static void abort(WebSocketSession session) {
+    WebSocketChannel channel = channelOf(session);
+    if (channel == null) close(session, CloseStatus.SESSION_NOT_RELIABLE);
+    else IoUtils.safeClose(channel);
   }
 
-  public static void sendMessage(WebSocketSession session, TextMessage message) throws IOException {
-    session.sendMessage(message);
+  public static void close(WebSocketSession session, CloseStatus status) {
+    try {
+      session.close(status);
+    } catch (IOException e) {
+      e.printStackTrace();
+      executeFinishedCallbacks(session);
+    }
   }
 }
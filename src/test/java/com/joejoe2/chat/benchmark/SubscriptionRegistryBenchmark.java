@@ -0,0 +1,120 @@
+package com.joejoe2.chat.benchmark;
+
+import com.joejoe2.chat.service.subscription.SharedFrame;
+import com.joejoe2.chat.service.subscription.Subscriber;
+import com.joejoe2.chat.service.subscription.SubscriptionRegistry;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Subscribe/unsubscribe churn under contention, {@link SubscriptionRegistry} against the previous
+ * {@code Map<String, Set<Object>>} with synchronized sets. Run with {@code mvn test-compile
+ * exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.joejoe2.chat.benchmark.SubscriptionRegistryBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class SubscriptionRegistryBenchmark {
+  static class NoopSubscriber implements Subscriber {
+    @Override
+    public void deliver(SharedFrame frame) {}
+  }
+
+  @Param({"16", "1024"})
+  int keys;
+
+  UUID[] uuids;
+  String[] names;
+
+  SubscriptionRegistry registry;
+  Map<String, Set<Object>> legacy;
+
+  @Setup
+  public void setUp() {
+    uuids = new UUID[keys];
+    names = new String[keys];
+    for (int i = 0; i < keys; i++) {
+      uuids[i] = UUID.randomUUID();
+      names[i] = uuids[i].toString();
+    }
+    registry = new SubscriptionRegistry("benchmark", (key, interested) -> {});
+    legacy = new ConcurrentHashMap<>();
+    // a few long-lived subscribers per key for fan-out
+    for (int i = 0; i < keys; i++) {
+      for (int j = 0; j < 8; j++) {
+        Subscriber subscriber = new NoopSubscriber();
+        registry.subscribe(uuids[i], subscriber);
+        legacySubscribe(names[i], subscriber);
+      }
+    }
+  }
+
+  private void legacySubscribe(String key, Object subscriber) {
+    legacy.compute(
+        key,
+        (k, subscribers) -> {
+          if (subscribers == null) subscribers = Collections.synchronizedSet(new HashSet<>());
+          subscribers.add(subscriber);
+          return subscribers;
+        });
+  }
+
+  private void legacyUnsubscribe(String key, Object subscriber) {
+    legacy.compute(
+        key,
+        (k, subscribers) -> {
+          if (subscribers != null) subscribers.remove(subscriber);
+          if (subscribers == null || subscribers.isEmpty()) subscribers = null;
+          return subscribers;
+        });
+  }
+
+  @Benchmark
+  public void registryChurn() {
+    UUID key = uuids[ThreadLocalRandom.current().nextInt(keys)];
+    Subscriber subscriber = new NoopSubscriber();
+    registry.subscribe(key, subscriber);
+    registry.unsubscribe(key, subscriber);
+  }
+
+  @Benchmark
+  public void legacyChurn() {
+    String key = names[ThreadLocalRandom.current().nextInt(keys)];
+    Object subscriber = new Object();
+    legacySubscribe(key, subscriber);
+    legacyUnsubscribe(key, subscriber);
+  }
+
+  @Benchmark
+  public void registryFanOut(Blackhole blackhole) {
+    for (Subscriber subscriber :
+        registry.getSubscribers(uuids[ThreadLocalRandom.current().nextInt(keys)]))
+      blackhole.consume(subscriber);
+  }
+
+  @Benchmark
+  public void legacyFanOut(Blackhole blackhole) {
+    for (Object subscriber : legacy.get(names[ThreadLocalRandom.current().nextInt(keys)]).toArray())
+      blackhole.consume(subscriber);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(SubscriptionRegistryBenchmark.class.getSimpleName())
+                .build())
+        .run();
+  }
+}
@@ -0,0 +1,85 @@
+package com.joejoe2.chat.config;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class DeliveryConfigTest {
+  private static DeliveryConfig config(DeliveryConfig.ExecutorType type, int size) {
+    DeliveryConfig config = new DeliveryConfig();
+    ReflectionTestUtils.setField(config, "executorType", type);
+    ReflectionTestUtils.setField(config, "executorSize", size);
+    return config;
+  }
+
+  @Test
+  void fixedExecutor() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ExecutorService executor =
+        config(DeliveryConfig.ExecutorType.FIXED, 3).deliveryExecutor(registry);
+    try {
+      assertEquals(
+          3, registry.get("executor.pool.max").tag("name", "chat.delivery").gauge().value());
+      assertEquals(3, registry.get("chat.delivery.executor.size").gauge().value());
+
+      // blocked tasks occupy every thread of the pool
+      Set<Thread> threads = ConcurrentHashMap.newKeySet();
+      CountDownLatch started = new CountDownLatch(3), release = new CountDownLatch(1);
+      for (int i = 0; i < 3; i++)
+        executor.execute(
+            () -> {
+              threads.add(Thread.currentThread());
+              started.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      release.countDown();
+      assertEquals(3, threads.size());
+      for (Thread thread : threads) {
+        assertTrue(thread.isDaemon());
+        assertTrue(thread.getName().startsWith("chat-delivery-"));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  @EnabledForJreRange(max = JRE.JAVA_20)
+  void virtualExecutorRequiresJava21() {
+    DeliveryConfig config = config(DeliveryConfig.ExecutorType.VIRTUAL, 3);
+    IllegalStateException e =
+        assertThrows(
+            IllegalStateException.class, () -> config.deliveryExecutor(new SimpleMeterRegistry()));
+    assertTrue(e.getMessage().contains("java 21"));
+  }
+
+  @Test
+  @EnabledForJreRange(min = JRE.JAVA_21)
+  void virtualExecutor() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ExecutorService executor =
+        config(DeliveryConfig.ExecutorType.VIRTUAL, 3).deliveryExecutor(registry);
+    try {
+      // there is no size of virtual threads
+      assertNull(registry.find("chat.delivery.executor.size").gauge());
+      Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+      assertTrue((boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
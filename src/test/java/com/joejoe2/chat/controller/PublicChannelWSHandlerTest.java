@@ -134,4 +134,26 @@ class PublicChannelWSHandlerTest {
     assertEquals(messages, client.messages);
     client.closeBlocking();
   }
+
+  @Test
+  void publish() throws Exception {
+    String uri =
+        "ws://localhost:8081/ws/channel/public/subscribe?access_token="
+            + accessToken
+            + "&channelId="
+            + channel.getId();
+    WsClient client = new WsClient(URI.create(uri), new CountDownLatch(3));
+    client.connectBlocking(5, TimeUnit.SECONDS);
+    // publish over the connection, channelId defaults to the subscribed channel
+    client.send("{\"action\":\"publish\",\"id\":\"1\",\"message\":\"msg\"}");
+    client.send("{\"action\":\"publish\",\"id\":\"2\",\"message\":\" \"}");
+    // test success
+    client.countDownLatch.await(15, TimeUnit.SECONDS);
+    String received = String.join("", client.messages);
+    assertTrue(received.contains("\"event\":\"ack\",\"id\":\"1\""));
+    assertTrue(received.contains("\"content\":\"msg\""));
+    // test invalid message
+    assertTrue(received.contains("\"event\":\"error\",\"id\":\"2\""));
+    client.closeBlocking();
+  }
 }
@@ -0,0 +1,140 @@
+package com.joejoe2.chat.service.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+class TwoTierCacheTest {
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  ConcurrentMapCacheManager shared = new ConcurrentMapCacheManager();
+  List<TwoTierCache.Invalidation> broadcasts = new ArrayList<>();
+  TwoTierCacheManager manager =
+      new TwoTierCacheManager(shared, 16, TimeUnit.MINUTES.toNanos(10), broadcasts::add, registry);
+
+  private double requests(String tier, String result) {
+    return registry
+        .get("chat.cache.requests")
+        .tag("cache", "test")
+        .tag("tier", tier)
+        .tag("result", result)
+        .counter()
+        .count();
+  }
+
+  @Test
+  void readThroughTiers() {
+    Cache cache = manager.getCache("test");
+    assertSame(cache, manager.getCache("test"));
+    assertNull(cache.get("a"));
+    assertEquals(1, requests("shared", "miss"));
+
+    // written by another node
+    shared.getCache("test").put("a", 1);
+    assertEquals(1, cache.get("a", Integer.class));
+    assertEquals(1, requests("shared", "hit"));
+    // copied to the local tier
+    shared.getCache("test").evict("a");
+    assertEquals(1, cache.get("a", Integer.class));
+    assertEquals(1, requests("local", "hit"));
+    assertEquals(2, requests("local", "miss"));
+  }
+
+  @Test
+  void evictOnAllNodes() {
+    Cache cache = manager.getCache("test");
+    cache.put("a", 1);
+    cache.evict("a");
+    assertNull(cache.get("a"));
+    assertNull(shared.getCache("test").get("a"));
+    assertEquals(List.of(new TwoTierCache.Invalidation("test", "a")), broadcasts);
+
+    // invalidations of other nodes only drop local copies
+    cache.put("b", 2);
+    shared.getCache("test").evict("b");
+    manager.invalidateLocal(new TwoTierCache.Invalidation("test", "b"));
+    assertNull(cache.get("b"));
+    cache.put("c", 3);
+    shared.getCache("test").clear();
+    manager.invalidateLocal(new TwoTierCache.Invalidation("test", null));
+    assertNull(cache.get("c"));
+    manager.invalidateLocal(new TwoTierCache.Invalidation("unknown", null));
+    assertEquals(1, broadcasts.size());
+
+    cache.clear();
+    assertEquals(new TwoTierCache.Invalidation("test", null), broadcasts.get(1));
+  }
+
+  @Test
+  void singleFlightLoads() throws Exception {
+    Cache cache = manager.getCache("test");
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch loading = new CountDownLatch(1), release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      results.add(
+          executor.submit(
+              () ->
+                  cache.get(
+                      "a",
+                      () -> {
+                        loads.incrementAndGet();
+                        loading.countDown();
+                        release.await();
+                        return 1;
+                      })));
+      loading.await();
+      for (int i = 0; i < 7; i++)
+        results.add(
+            executor.submit(
+                () ->
+                    cache.get(
+                        "a",
+                        () -> {
+                          loads.incrementAndGet();
+                          return 2;
+                        })));
+      Thread.sleep(100);
+      release.countDown();
+      for (Future<Integer> result : results) assertEquals(1, result.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(1, loads.get());
+    assertEquals(1, shared.getCache("test").get("a").get());
+  }
+
+  @Test
+  void notCacheLoadRacingWithEviction() {
+    Cache cache = manager.getCache("test");
+    assertEquals(
+        1,
+        cache.get(
+            "a",
+            () -> {
+              // the source is changed and evicted during the load
+              cache.evict("a");
+              return 1;
+            }));
+    assertNull(cache.get("a"));
+    assertThrows(
+        Cache.ValueRetrievalException.class,
+        () ->
+            cache.get(
+                "b",
+                () -> {
+                  throw new IllegalStateException();
+                }));
+  }
+}
@@ -0,0 +1,116 @@
+package com.joejoe2.chat.service.channel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ChannelAuthorizationIndexTest {
+  UUID channel = UUID.randomUUID();
+
+  /** loader of the given members and restricted users */
+  private static ChannelAuthorizationIndex.Loader loader(
+      Collection<UUID> members, Collection<UUID> restricted, AtomicInteger loads) {
+    return new ChannelAuthorizationIndex.Loader() {
+      @Override
+      public Collection<UUID> members(UUID channelId) {
+        loads.incrementAndGet();
+        return members;
+      }
+
+      @Override
+      public Collection<UUID> restricted(UUID channelId) {
+        return restricted;
+      }
+    };
+  }
+
+  @Test
+  void checkMembersAndRestrictedUsers() {
+    List<UUID> members = new ArrayList<>();
+    for (int i = 0; i < 1024; i++) members.add(UUID.randomUUID());
+    // negative most significant bits are ordered before positive ones
+    members.add(new UUID(-1, 1));
+    members.add(new UUID(Long.MIN_VALUE, 0));
+    UUID banned = UUID.randomUUID();
+    AtomicInteger loads = new AtomicInteger();
+    ChannelAuthorizationIndex index =
+        new ChannelAuthorizationIndex(
+            loader(members, List.of(banned), loads), id -> {}, 16, TimeUnit.MINUTES.toNanos(10));
+
+    ChannelAuthorizationIndex.Access access = index.get(channel);
+    assertFalse(access.isEmpty());
+    for (UUID member : members) assertTrue(access.isMember(member));
+    assertFalse(access.isMember(banned));
+    assertFalse(access.isMember(UUID.randomUUID()));
+    assertTrue(access.isRestricted(banned));
+    assertFalse(access.isRestricted(members.get(0)));
+    assertEquals(new TreeSet<>(members), new TreeSet<>(access.members()));
+
+    assertSame(access, index.get(channel));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void invalidateAndExpire() {
+    UUID a = UUID.randomUUID();
+    AtomicInteger loads = new AtomicInteger();
+    List<UUID> broadcasts = new ArrayList<>();
+    ChannelAuthorizationIndex index =
+        new ChannelAuthorizationIndex(
+            loader(List.of(a), List.of(), loads),
+            broadcasts::add,
+            16,
+            TimeUnit.MINUTES.toNanos(10));
+
+    index.get(channel);
+    // without a transaction the channel is invalidated immediately
+    index.invalidate(channel);
+    assertEquals(List.of(channel), broadcasts);
+    index.get(channel);
+    assertEquals(2, loads.get());
+    // invalidations from other nodes are not broadcast again
+    index.invalidateLocal(channel);
+    index.get(channel);
+    assertEquals(3, loads.get());
+    assertEquals(1, broadcasts.size());
+
+    ChannelAuthorizationIndex expired =
+        new ChannelAuthorizationIndex(loader(List.of(a), List.of(), loads), id -> {}, 16, 0);
+    expired.get(channel);
+    expired.get(channel);
+    assertEquals(5, loads.get());
+  }
+
+  @Test
+  void notKeepLoadRacingWithInvalidation() {
+    UUID a = UUID.randomUUID();
+    AtomicInteger loads = new AtomicInteger();
+    ChannelAuthorizationIndex[] index = new ChannelAuthorizationIndex[1];
+    index[0] =
+        new ChannelAuthorizationIndex(
+            new ChannelAuthorizationIndex.Loader() {
+              @Override
+              public Collection<UUID> members(UUID channelId) {
+                // the mutation commits while the channel is being loaded
+                if (loads.incrementAndGet() == 1) index[0].invalidateLocal(channelId);
+                return List.of(a);
+              }
+
+              @Override
+              public Collection<UUID> restricted(UUID channelId) {
+                return List.of();
+              }
+            },
+            id -> {},
+            16,
+            TimeUnit.MINUTES.toNanos(10));
+
+    assertTrue(index[0].get(channel).isMember(a));
+    index[0].get(channel);
+    index[0].get(channel);
+    assertEquals(2, loads.get());
+  }
+}
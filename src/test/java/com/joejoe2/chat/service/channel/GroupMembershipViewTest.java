@@ -0,0 +1,132 @@
+package com.joejoe2.chat.service.channel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.joejoe2.chat.models.MessageType;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class GroupMembershipViewTest {
+  /** runs loads only when asked, like a busy delivery executor */
+  static class ManualExecutor implements Executor {
+    final Deque<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) task.run();
+    }
+  }
+
+  ManualExecutor loadExecutor = new ManualExecutor();
+
+  GroupMembershipView view(
+      AtomicInteger loads, Collection<UUID> members, int maxChannels, long ttl) {
+    return new GroupMembershipView(
+        id -> {
+          loads.incrementAndGet();
+          return members;
+        },
+        maxChannels,
+        ttl,
+        loadExecutor,
+        (key, task) -> task.run());
+  }
+
+  @Test
+  void loadOffTheStripeAndApplyEvents() {
+    UUID channel = UUID.randomUUID(), a = UUID.randomUUID(), b = UUID.randomUUID();
+    AtomicInteger loads = new AtomicInteger();
+    GroupMembershipView view = view(loads, List.of(a), 16, TimeUnit.MINUTES.toNanos(10));
+    List<Set<UUID>> delivered = new ArrayList<>();
+
+    // events are parked until the load completes, the caller is not blocked
+    view.apply(channel, MessageType.JOIN, b, true, delivered::add);
+    view.apply(channel, MessageType.MESSAGE, null, true, delivered::add);
+    assertTrue(delivered.isEmpty());
+    assertEquals(0, loads.get());
+    loadExecutor.runAll();
+    assertEquals(List.of(Set.of(a, b), Set.of(a, b)), delivered);
+
+    // loaded channels are applied in place
+    delivered.clear();
+    view.apply(channel, MessageType.INVITATION, UUID.randomUUID(), true, delivered::add);
+    view.apply(channel, MessageType.LEAVE, a, true, delivered::add);
+    assertEquals(List.of(Set.of(a, b), Set.of(b)), delivered);
+    assertEquals(1, loads.get());
+    assertTrue(loadExecutor.tasks.isEmpty());
+
+    // channels are not loaded if not requested
+    delivered.clear();
+    view.apply(UUID.randomUUID(), MessageType.MESSAGE, null, false, delivered::add);
+    assertEquals(List.of(Set.of()), delivered);
+    assertTrue(loadExecutor.tasks.isEmpty());
+  }
+
+  @Test
+  void evictAndExpire() {
+    UUID c1 = UUID.randomUUID(), c2 = UUID.randomUUID();
+    AtomicInteger loads = new AtomicInteger();
+    GroupMembershipView view = view(loads, List.of(), 1, TimeUnit.MINUTES.toNanos(10));
+    view.apply(c1, MessageType.MESSAGE, null, true, members -> {});
+    view.apply(c2, MessageType.MESSAGE, null, true, members -> {});
+    loadExecutor.runAll();
+    view.apply(c1, MessageType.MESSAGE, null, true, members -> {});
+    loadExecutor.runAll();
+    assertEquals(3, loads.get());
+
+    GroupMembershipView expired = view(loads, List.of(), 16, 0);
+    expired.apply(c1, MessageType.MESSAGE, null, true, members -> {});
+    loadExecutor.runAll();
+    expired.apply(c1, MessageType.MESSAGE, null, true, members -> {});
+    loadExecutor.runAll();
+    assertEquals(5, loads.get());
+  }
+
+  @Test
+  void notKeepFailedLoads() {
+    UUID channel = UUID.randomUUID(), a = UUID.randomUUID();
+    AtomicInteger loads = new AtomicInteger();
+    GroupMembershipView view =
+        new GroupMembershipView(
+            id -> {
+              if (loads.incrementAndGet() == 1) throw new IllegalStateException("db down");
+              return List.of(a);
+            },
+            16,
+            TimeUnit.MINUTES.toNanos(10),
+            loadExecutor,
+            (key, task) -> task.run());
+    List<Set<UUID>> delivered = new ArrayList<>();
+
+    view.apply(channel, MessageType.MESSAGE, null, true, delivered::add);
+    loadExecutor.runAll();
+    assertEquals(List.of(Set.of()), delivered);
+    view.apply(channel, MessageType.MESSAGE, null, true, delivered::add);
+    loadExecutor.runAll();
+    assertEquals(List.of(Set.of(), Set.of(a)), delivered);
+    assertEquals(2, loads.get());
+
+    GroupMembershipView rejected =
+        new GroupMembershipView(
+            id -> List.of(a),
+            16,
+            TimeUnit.MINUTES.toNanos(10),
+            command -> {
+              throw new RejectedExecutionException();
+            },
+            (key, task) -> task.run());
+    delivered.clear();
+    rejected.apply(channel, MessageType.MESSAGE, null, true, delivered::add);
+    rejected.apply(channel, MessageType.MESSAGE, null, true, delivered::add);
+    assertEquals(List.of(Set.of(), Set.of()), delivered);
+  }
+}
@@ -7,12 +7,16 @@ import com.joejoe2.chat.data.PageRequest;
 import com.joejoe2.chat.data.SliceList;
 import com.joejoe2.chat.data.UserPublicProfile;
 import com.joejoe2.chat.data.channel.profile.PrivateChannelProfile;
+import com.joejoe2.chat.data.message.PrivateMessageDto;
 import com.joejoe2.chat.exception.AlreadyExist;
 import com.joejoe2.chat.exception.InvalidOperation;
+import com.joejoe2.chat.models.PrivateChannel;
 import com.joejoe2.chat.models.User;
 import com.joejoe2.chat.repository.channel.PrivateChannelRepository;
 import com.joejoe2.chat.repository.message.PrivateMessageRepository;
 import com.joejoe2.chat.repository.user.UserRepository;
+import com.joejoe2.chat.service.message.PrivateMessageService;
+import java.time.Instant;
 import java.util.*;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -24,7 +28,9 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @SpringBootTest
 @ActiveProfiles("test")
@@ -34,6 +40,8 @@ class PrivateChannelServiceTest {
   @Autowired PrivateChannelRepository channelRepository;
   @Autowired PrivateMessageRepository messageRepository;
   @Autowired UserRepository userRepository;
+  @Autowired PrivateMessageService messageService;
+  @Autowired PlatformTransactionManager transactionManager;
 
   User userA, userB, userC, userD;
 
@@ -214,6 +222,52 @@ class PrivateChannelServiceTest {
     assertFalse(channelRepository.getById(UUID.fromString(channel.getId())).isBlocked(userA));
   }
 
+  @Test
+  void blockOverlappingSend() throws Exception {
+    PrivateChannelProfile profile =
+        channelService.createChannelBetween(userA.getId().toString(), userB.getId().toString());
+    UUID channelId = UUID.fromString(profile.getId());
+    PrivateMessageDto first =
+        messageService.createMessage(userA.getId().toString(), profile.getId(), "first");
+    PrivateMessageDto[] second = new PrivateMessageDto[1];
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    // the block loads the channel before a send and saves it after the send is committed
+    transaction.executeWithoutResult(
+        status -> {
+          PrivateChannel stale = channelRepository.findById(channelId).get();
+          assertEquals(first.getId(), stale.getLastMessage().getId());
+          try {
+            second[0] =
+                messageService.createMessage(userB.getId().toString(), profile.getId(), "second");
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+          stale.block(stale.anotherMember(userA), true);
+          channelRepository.saveAndFlush(stale);
+        });
+    // the block does not write back the last message it loaded
+    transaction.executeWithoutResult(
+        status -> {
+          PrivateChannel channel = channelRepository.findById(channelId).get();
+          assertTrue(channel.isBlocked(userB));
+          assertEquals(second[0].getId(), channel.getLastMessage().getId());
+          // an older message never moves it back
+          assertEquals(
+              0,
+              channelRepository.advanceLastMessage(
+                  channelId, first.getId(), Instant.parse(first.getUpdateAt())));
+        });
+    // messages sent after the block still advance it
+    channelService.block(userA.getId().toString(), profile.getId(), false);
+    PrivateMessageDto third =
+        messageService.createMessage(userB.getId().toString(), profile.getId(), "third");
+    transaction.executeWithoutResult(
+        status ->
+            assertEquals(
+                third.getId(),
+                channelRepository.findById(channelId).get().getLastMessage().getId()));
+  }
+
   @Test
   void getChannelsBlockedByUser() throws Exception {
     // prepare channels
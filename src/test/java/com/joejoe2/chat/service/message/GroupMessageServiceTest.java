@@ -7,7 +7,9 @@ import com.joejoe2.chat.data.PageRequest;
 import com.joejoe2.chat.data.SliceList;
 import com.joejoe2.chat.data.channel.profile.GroupChannelProfile;
 import com.joejoe2.chat.data.message.GroupMessageDto;
+import com.joejoe2.chat.exception.ChannelDoesNotExist;
 import com.joejoe2.chat.exception.InvalidOperation;
+import com.joejoe2.chat.models.GroupChannel;
 import com.joejoe2.chat.models.User;
 import com.joejoe2.chat.repository.channel.GroupChannelRepository;
 import com.joejoe2.chat.repository.message.GroupMessageRepository;
@@ -17,6 +19,9 @@ import com.joejoe2.chat.service.nats.NatsService;
 import com.joejoe2.chat.utils.ChannelSubject;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -85,6 +90,49 @@ public class GroupMessageServiceTest {
     assertTrue(messageRepository.existsById(message.getId()));
   }
 
+  @Test
+  void createMessageKeepsChannelVersion() throws Exception {
+    // prepare
+    GroupChannelProfile channel = channelService.createChannel(userA.getId().toString(), "test");
+    UUID channelId = UUID.fromString(channel.getId());
+    Instant version = channelRepository.findById(channelId).get().getVersion();
+    // test
+    GroupMessageDto message =
+        messageService.createMessage(userA.getId().toString(), channel.getId(), "test");
+    GroupChannel updated = channelRepository.findById(channelId).get();
+    assertEquals(version, updated.getVersion());
+    assertEquals(message.getId(), updated.getLastMessage().getId());
+    assertEquals(message.getUpdateAt(), updated.getUpdateAt().toString());
+  }
+
+  @Test
+  void createMessageConcurrently() throws Exception {
+    // prepare
+    GroupChannelProfile channel = channelService.createChannel(userA.getId().toString(), "test");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<GroupMessageDto>> futures = new ArrayList<>();
+    // test without optimistic lock failures
+    for (int i = 0; i < 80; i++) {
+      String content = "msg" + i;
+      futures.add(
+          executor.submit(
+              () ->
+                  messageService.createMessage(
+                      userA.getId().toString(), channel.getId(), content)));
+    }
+    GroupMessageDto newest = null;
+    for (Future<GroupMessageDto> future : futures) {
+      GroupMessageDto message = future.get();
+      if (newest == null
+          || Instant.parse(message.getUpdateAt()).isAfter(Instant.parse(newest.getUpdateAt())))
+        newest = message;
+    }
+    executor.shutdown();
+    assertEquals(80, messageRepository.count());
+    GroupChannel updated = channelRepository.findById(UUID.fromString(channel.getId())).get();
+    assertEquals(newest.getUpdateAt(), updated.getUpdateAt().toString());
+  }
+
   @Test
   void createMessageWithError() throws Exception {
     // prepare
@@ -97,6 +145,12 @@ public class GroupMessageServiceTest {
     assertThrows(
         InvalidOperation.class,
         () -> messageService.createMessage(userB.getId().toString(), channel.getId(), "test"));
+    // test with not exist channel
+    assertThrows(
+        ChannelDoesNotExist.class,
+        () ->
+            messageService.createMessage(
+                userA.getId().toString(), UUID.randomUUID().toString(), "test"));
   }
 
   @Test
@@ -0,0 +1,169 @@
+package com.joejoe2.chat.service.message;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.joejoe2.chat.data.SliceList;
+import com.joejoe2.chat.data.message.PublicMessageDto;
+import com.joejoe2.chat.models.MessageType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class MessageTailCacheTest {
+  ObjectMapper objectMapper = new ObjectMapper();
+  UUID channel = UUID.randomUUID();
+  Instant start = Instant.parse("2024-01-01T00:00:00Z");
+
+  private MessageTailCache<PublicMessageDto> cache(int size) {
+    return new MessageTailCache<>(
+        "test",
+        PublicMessageDto.class,
+        objectMapper,
+        size,
+        16,
+        Duration.ofMinutes(1),
+        Duration.ZERO,
+        new SimpleMeterRegistry());
+  }
+
+  private PublicMessageDto message(int second) {
+    PublicMessageDto message = new PublicMessageDto();
+    message.setId(UUID.randomUUID());
+    message.setChannel(channel);
+    message.setMessageType(MessageType.MESSAGE);
+    message.setContent("msg" + second);
+    message.setCreateAt(start.plusSeconds(second).toString());
+    message.setUpdateAt(start.plusSeconds(second).toString());
+    return message;
+  }
+
+  /** messages of seconds [0, count) */
+  private List<PublicMessageDto> history(int count) {
+    List<PublicMessageDto> messages = new ArrayList<>();
+    for (int i = 0; i < count; i++) messages.add(message(i));
+    return messages;
+  }
+
+  /** loader of the newest messages in descending order */
+  private MessageTailCache.Loader<PublicMessageDto> loader(
+      List<PublicMessageDto> history, AtomicInteger loads) {
+    return limit -> {
+      loads.incrementAndGet();
+      List<PublicMessageDto> newest =
+          new ArrayList<>(history.subList(Math.max(0, history.size() - limit), history.size()));
+      Collections.reverse(newest);
+      return newest;
+    };
+  }
+
+  private static List<String> contents(SliceList<PublicMessageDto> slice) {
+    return slice.getList().stream().map(PublicMessageDto::getContent).toList();
+  }
+
+  @Test
+  void disabledOrUntracked() {
+    AtomicInteger loads = new AtomicInteger();
+    assertNull(cache(0).getPage(channel, channel, 0, 2, null, loader(history(3), loads)));
+    assertNull(cache(4).getPage(channel, channel, 0, 2, null, loader(history(3), loads)));
+    assertEquals(0, loads.get());
+  }
+
+  @Test
+  void notReadMessagesWithoutTail() throws Exception {
+    AtomicInteger reads = new AtomicInteger();
+    byte[] json = objectMapper.writeValueAsBytes(message(0));
+    cache(0).append(null, () -> json);
+    MessageTailCache<PublicMessageDto> cache = cache(4);
+    cache.append(
+        channel,
+        () -> {
+          reads.incrementAndGet();
+          return json;
+        });
+    assertEquals(0, reads.get());
+
+    cache.track(channel, true);
+    cache.getPage(channel, channel, 0, 2, null, loader(history(1), new AtomicInteger()));
+    cache.append(
+        channel,
+        () -> {
+          reads.incrementAndGet();
+          return json;
+        });
+    assertEquals(1, reads.get());
+  }
+
+  @Test
+  void servePagesOfTail() throws Exception {
+    MessageTailCache<PublicMessageDto> cache = cache(4);
+    List<PublicMessageDto> history = history(10);
+    AtomicInteger loads = new AtomicInteger();
+    cache.track(channel, true);
+
+    SliceList<PublicMessageDto> first =
+        cache.getPage(channel, channel, 0, 2, null, loader(history, loads));
+    assertEquals(List.of("msg8", "msg9"), contents(first));
+    assertTrue(first.isHasNext());
+    // the oldest message of the tail may share its timestamp with older ones
+    assertNull(cache.getPage(channel, channel, 1, 2, null, loader(history, loads)));
+    assertEquals(1, loads.get());
+
+    // new messages from nats
+    PublicMessageDto latest = message(10);
+    byte[] json = objectMapper.writeValueAsBytes(latest);
+    cache.append(channel, () -> json);
+    cache.append(null, () -> json);
+    assertEquals(
+        List.of("msg9", "msg10"),
+        contents(cache.getPage(channel, channel, 0, 2, null, loader(history, loads))));
+    assertEquals(
+        List.of("msg9", "msg10"),
+        contents(
+            cache.getPage(channel, channel, 0, 5, start.plusSeconds(9), loader(history, loads))));
+    // since older than the tail
+    assertNull(cache.getPage(channel, channel, 0, 5, start.plusSeconds(6), loader(history, loads)));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void serveWholeChannel() {
+    MessageTailCache<PublicMessageDto> cache = cache(4);
+    AtomicInteger loads = new AtomicInteger();
+    cache.track(channel, true);
+
+    SliceList<PublicMessageDto> first =
+        cache.getPage(channel, channel, 0, 2, null, loader(history(3), loads));
+    assertEquals(List.of("msg1", "msg2"), contents(first));
+    assertTrue(first.isHasNext());
+    SliceList<PublicMessageDto> second =
+        cache.getPage(channel, channel, 1, 2, null, loader(history(3), loads));
+    assertEquals(List.of("msg0"), contents(second));
+    assertFalse(second.isHasNext());
+    assertTrue(
+        cache.getPage(channel, channel, 2, 2, null, loader(history(3), loads)).getList().isEmpty());
+  }
+
+  @Test
+  void reloadAfterFeedIsInterrupted() {
+    MessageTailCache<PublicMessageDto> cache = cache(4);
+    AtomicInteger loads = new AtomicInteger();
+    cache.track(channel, true);
+    assertNotNull(cache.getPage(channel, channel, 0, 2, null, loader(history(3), loads)));
+
+    cache.track(channel, false);
+    assertNull(cache.getPage(channel, channel, 0, 2, null, loader(history(3), loads)));
+    // messages may be missed while the feed is not tracked
+    cache.track(channel, true);
+    assertEquals(
+        List.of("msg3", "msg4"),
+        contents(cache.getPage(channel, channel, 0, 2, null, loader(history(5), loads))));
+    assertEquals(2, loads.get());
+  }
+}
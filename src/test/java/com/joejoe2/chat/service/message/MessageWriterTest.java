@@ -0,0 +1,98 @@
+package com.joejoe2.chat.service.message;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class MessageWriterTest {
+  private MessageWriter<String> writer(
+      MessageWriter.Sink<String> sink, MessageAckMode ackMode, Duration window, int maxBatch) {
+    return new MessageWriter<>(
+        "test", sink, ackMode, window, maxBatch, 1024, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void groupConcurrentWrites() throws Exception {
+    List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+    MessageWriter<String> writer =
+        writer(batches::add, MessageAckMode.DURABLE, Duration.ofMillis(50), 8);
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        String message = "msg" + i;
+        results.add(executor.submit(() -> writer.write(message)));
+      }
+      for (int i = 0; i < 16; i++) assertEquals("msg" + i, results.get(i).get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+      writer.close();
+    }
+    // all messages are acked after their batches are inserted
+    assertEquals(16, batches.stream().mapToInt(List::size).sum());
+    assertTrue(batches.size() < 16);
+    assertTrue(batches.stream().allMatch(batch -> batch.size() <= 8));
+  }
+
+  @Test
+  void rejectOnlyFailedMessages() throws Exception {
+    List<String> inserted = Collections.synchronizedList(new ArrayList<>());
+    MessageWriter<String> writer =
+        writer(
+            batch -> {
+              if (batch.contains("bad")) throw new IllegalArgumentException("bad message");
+              inserted.addAll(batch);
+            },
+            MessageAckMode.DURABLE,
+            Duration.ofMillis(50),
+            8);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      Future<String> first = executor.submit(() -> writer.write("first"));
+      Future<String> bad = executor.submit(() -> writer.write("bad"));
+      Future<String> last = executor.submit(() -> writer.write("last"));
+      assertEquals("first", first.get(5, TimeUnit.SECONDS));
+      assertEquals("last", last.get(5, TimeUnit.SECONDS));
+      Exception e = assertThrows(Exception.class, () -> bad.get(5, TimeUnit.SECONDS));
+      assertInstanceOf(IllegalArgumentException.class, e.getCause());
+    } finally {
+      executor.shutdown();
+      writer.close();
+    }
+    assertEquals(List.of("first", "last"), inserted.stream().sorted().toList());
+  }
+
+  @Test
+  void ackAfterEnqueue() throws Exception {
+    CountDownLatch blocked = new CountDownLatch(1);
+    List<String> inserted = Collections.synchronizedList(new ArrayList<>());
+    MessageWriter<String> writer =
+        writer(
+            batch -> {
+              blocked.await();
+              inserted.addAll(batch);
+            },
+            MessageAckMode.ENQUEUE,
+            Duration.ZERO,
+            8);
+    // returns while the insert is blocked
+    assertEquals("a", writer.write("a"));
+    assertEquals("b", writer.write("b"));
+    assertTrue(inserted.isEmpty());
+    blocked.countDown();
+    // queued messages are written before the writer is closed
+    writer.close();
+    assertEquals(List.of("a", "b"), inserted);
+    assertThrows(IllegalStateException.class, () -> writer.write("c"));
+  }
+}
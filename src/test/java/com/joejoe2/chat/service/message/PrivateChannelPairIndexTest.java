@@ -0,0 +1,40 @@
+package com.joejoe2.chat.service.message;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Set;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class PrivateChannelPairIndexTest {
+  @Test
+  void recipients() {
+    PrivateChannelPairIndex index = new PrivateChannelPairIndex(16);
+    UUID channel = UUID.randomUUID(), a = UUID.randomUUID(), b = UUID.randomUUID();
+
+    // unknown channel is resolved from the message without being recorded
+    UUID c = UUID.randomUUID();
+    assertArrayEquals(new UUID[] {a, c}, index.recipients(channel, a, c));
+    assertArrayEquals(new UUID[] {a, b}, index.recipients(channel, a, b));
+
+    index.put(channel, a, b);
+    // either direction
+    assertArrayEquals(new UUID[] {b, a}, index.recipients(channel, b, a));
+    // known members take precedence
+    assertEquals(Set.of(a, b), Set.of(index.recipients(channel, a, a)));
+    assertEquals(Set.of(a, b), Set.of(index.recipients(channel, a, c)));
+  }
+
+  @Test
+  void put() {
+    PrivateChannelPairIndex index = new PrivateChannelPairIndex(1);
+    UUID channel = UUID.randomUUID(), a = UUID.randomUUID(), b = UUID.randomUUID();
+    index.put(channel, a, b);
+    assertEquals(Set.of(a, b), Set.of(index.recipients(channel, a, UUID.randomUUID())));
+
+    // evicted by another channel
+    index.put(UUID.randomUUID(), a, b);
+    UUID c = UUID.randomUUID();
+    assertArrayEquals(new UUID[] {a, c}, index.recipients(channel, a, c));
+  }
+}
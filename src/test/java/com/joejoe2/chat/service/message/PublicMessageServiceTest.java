@@ -114,6 +114,45 @@ class PublicMessageServiceTest {
         sliceList.getList().stream().map(PublicMessageDto::getContent).toList());
   }
 
+  @Test
+  void getMessagesAfter() throws Exception {
+    // prepare channel
+    PublicChannelProfile channel = channelService.createChannel("test");
+    // prepare messages
+    List<String> messages = new LinkedList<>();
+    for (int i = 0; i < 10; i++) {
+      PublicMessageDto message =
+          messageService.createMessage(userA.getId().toString(), channel.getId(), "a" + i);
+      // sequence numbers of the channel start from 1 without gaps
+      assertEquals(i + 1, message.getSeq());
+      messages.add("a" + i);
+    }
+    // test IllegalArgument
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            messageService.getMessagesAfter(
+                channel.getId(), -1, PageRequest.builder().page(0).size(10).build()));
+    // test success
+    SliceList<PublicMessageDto> sliceList =
+        messageService.getMessagesAfter(
+            channel.getId(), 3, PageRequest.builder().page(0).size(4).build());
+    assertTrue(sliceList.isHasNext());
+    assertEquals(
+        messages.subList(3, 7),
+        sliceList.getList().stream().map(PublicMessageDto::getContent).toList());
+    assertEquals(
+        List.of(4L, 5L, 6L, 7L),
+        sliceList.getList().stream().map(PublicMessageDto::getSeq).toList());
+    sliceList =
+        messageService.getMessagesAfter(
+            channel.getId(), 7, PageRequest.builder().page(0).size(4).build());
+    assertFalse(sliceList.isHasNext());
+    assertEquals(
+        messages.subList(7, 10),
+        sliceList.getList().stream().map(PublicMessageDto::getContent).toList());
+  }
+
   @Test
   void getMessagesSince() throws Exception {
     // prepare channel
@@ -0,0 +1,55 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class DeflateGuardTest {
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  AtomicReference<Double> cpuLoad = new AtomicReference<>(0.0);
+  DeflateGuard guard = new DeflateGuard(100, 0.8, cpuLoad::get, Duration.ZERO, registry);
+
+  @AfterEach
+  void clearPayloadSize() {
+    DeflateGuard.setPayloadSize(-1);
+  }
+
+  @Test
+  void skipSmallMessages() {
+    DeflateGuard.setPayloadSize(99);
+    assertFalse(guard.shouldCompress());
+    DeflateGuard.setPayloadSize(100);
+    assertTrue(guard.shouldCompress());
+    // size of messages not sent by WebSocketUtil is unknown
+    DeflateGuard.setPayloadSize(-1);
+    assertTrue(guard.shouldCompress());
+    assertEquals(
+        1, registry.get("chat.ws.deflate.skipped").tag("reason", "small").counter().count());
+  }
+
+  @Test
+  void turnOffUnderHighCpuLoad() {
+    cpuLoad.set(0.9);
+    assertFalse(guard.shouldCompress());
+    assertEquals(0, registry.get("chat.ws.deflate.enabled").gauge().value());
+    // turned on again after the load drops below the budget by the hysteresis
+    cpuLoad.set(0.78);
+    assertFalse(guard.shouldCompress());
+    cpuLoad.set(0.7);
+    assertTrue(guard.shouldCompress());
+    assertEquals(1, registry.get("chat.ws.deflate.enabled").gauge().value());
+  }
+
+  @Test
+  void record() {
+    guard.record(1000, 200, 5000);
+    assertEquals(
+        1000, registry.get("chat.ws.deflate.bytes").tag("type", "input").counter().count());
+    assertEquals(800, registry.get("chat.ws.deflate.bytes").tag("type", "saved").counter().count());
+    assertEquals(1, registry.get("chat.ws.deflate.time").timer().count());
+  }
+}
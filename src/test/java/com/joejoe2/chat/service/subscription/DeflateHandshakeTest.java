@@ -0,0 +1,46 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.undertow.websockets.WebSocketExtension;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class DeflateHandshakeTest {
+  DeflateGuard guard = new DeflateGuard(0, 1, new SimpleMeterRegistry());
+
+  private static String negotiate(DeflateHandshake handshake, String offer) {
+    WebSocketExtension negotiated = handshake.accept(WebSocketExtension.parse(offer).get(0));
+    return negotiated == null ? null : WebSocketExtension.toExtensionHeader(List.of(negotiated));
+  }
+
+  @Test
+  void withContextTakeover() {
+    DeflateHandshake handshake = new DeflateHandshake(6, true, guard);
+    assertEquals("permessage-deflate", negotiate(handshake, "permessage-deflate"));
+    assertEquals(
+        "permessage-deflate", negotiate(handshake, "permessage-deflate; client_max_window_bits"));
+    assertEquals(
+        "permessage-deflate; client_no_context_takeover",
+        negotiate(handshake, "permessage-deflate; client_no_context_takeover"));
+    assertNull(negotiate(handshake, "permessage-deflate; server_no_context_takeover"));
+    assertNull(negotiate(handshake, "permessage-deflate; server_max_window_bits=10"));
+    assertNull(negotiate(handshake, "x-webkit-deflate-frame"));
+  }
+
+  @Test
+  void withoutContextTakeover() {
+    DeflateHandshake handshake = new DeflateHandshake(6, false, guard);
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover",
+        negotiate(handshake, "permessage-deflate"));
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover",
+        negotiate(handshake, "permessage-deflate; server_no_context_takeover"));
+    // the offer is not changed by previous negotiations
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover",
+        negotiate(handshake, "permessage-deflate"));
+  }
+}
@@ -0,0 +1,79 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.joejoe2.chat.service.nats.PayloadEncoding;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class DeliveryLatencyTest {
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private static SharedFrame frame(String origin, long publishedAtMicros) {
+    return SharedFrame.of(
+        "{}".getBytes(StandardCharsets.UTF_8),
+        PayloadEncoding.JSON,
+        UUID.randomUUID(),
+        new DeliveryLatency.Trace(
+            "public",
+            origin,
+            publishedAtMicros,
+            publishedAtMicros + 3000,
+            System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2)));
+  }
+
+  private Timer timer(String stage, String transport, String origin) {
+    return registry
+        .find("chat.message.latency")
+        .tag("stage", stage)
+        .tag("type", "public")
+        .tag("transport", transport)
+        .tag("origin", origin)
+        .timer();
+  }
+
+  @Test
+  void recordStages() {
+    DeliveryLatency latency = new DeliveryLatency(true, "node-a", registry);
+    long now = DeliveryLatency.nowMicros();
+    SharedFrame local = frame("node-a", now - 10_000), remote = frame("node-b", now);
+
+    latency.recordReceive(local);
+    assertEquals(3, timer("receive", "none", "local").totalTime(TimeUnit.MILLISECONDS), 0.001);
+
+    latency.recordWrite(
+        List.of(local, remote.tagged("x".getBytes()), new SharedFrame("{}".getBytes())),
+        DeliveryLatency.WEBSOCKET,
+        System.nanoTime());
+    assertEquals(2, timer("queue", "websocket", "none").count());
+    assertTrue(timer("queue", "websocket", "none").max(TimeUnit.MILLISECONDS) >= 2);
+    assertEquals(1, timer("write", "websocket", "none").count());
+    assertTrue(timer("end_to_end", "websocket", "local").max(TimeUnit.MILLISECONDS) >= 10);
+    assertEquals(1, timer("end_to_end", "websocket", "remote").count());
+  }
+
+  @Test
+  void skewedClocksAreClamped() {
+    DeliveryLatency latency = new DeliveryLatency(true, "node-a", registry);
+    latency.recordWrite(
+        List.of(frame("node-b", DeliveryLatency.nowMicros() + 60_000_000)),
+        DeliveryLatency.SSE,
+        System.nanoTime());
+    assertEquals(0, timer("end_to_end", "sse", "remote").totalTime(TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  void disabled() {
+    DeliveryLatency latency = new DeliveryLatency(false, "node-a", registry);
+    SharedFrame frame = frame("node-a", DeliveryLatency.nowMicros());
+    latency.recordReceive(frame);
+    latency.recordWrite(List.of(frame), DeliveryLatency.SSE, System.nanoTime());
+    latency.recordPublish("public", System.nanoTime());
+    assertTrue(registry.find("chat.message.latency").timers().isEmpty());
+  }
+}
@@ -0,0 +1,90 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.jupiter.api.Test;
+
+class HeartbeatWheelTest {
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  QueuedSubscriberTest.ManualExecutor executor = new QueuedSubscriberTest.ManualExecutor();
+  HeartbeatWheel wheel =
+      new HeartbeatWheel(Duration.ofSeconds(2), 2, Duration.ofSeconds(1), null, registry);
+  OutboundQueueOptions options =
+      new OutboundQueueOptions(
+          8,
+          SlowConsumerPolicy.DROP_OLDEST,
+          Duration.ZERO,
+          1000,
+          null,
+          wheel,
+          null,
+          Duration.ZERO,
+          registry);
+
+  static class HeartbeatSubscriber extends QueuedSubscriberTest.RecordingSubscriber {
+    boolean alive = true, broken = false;
+
+    HeartbeatSubscriber(OutboundQueueOptions options, Executor executor) {
+      super(options, executor);
+    }
+
+    @Override
+    protected void writeHeartbeat() throws IOException {
+      if (broken) throw new IOException("broken pipe");
+      written.add("heartbeat");
+    }
+
+    @Override
+    protected boolean isAlive(long timeoutNanos) {
+      return alive;
+    }
+  }
+
+  private void tickAll() {
+    wheel.tick();
+    wheel.tick();
+    executor.runAll();
+  }
+
+  @Test
+  void heartbeatAfterQueuedMessages() {
+    HeartbeatSubscriber subscriber = new HeartbeatSubscriber(options, executor);
+    subscriber.startHeartbeat();
+    subscriber.deliver(new SharedFrame("1".getBytes(StandardCharsets.UTF_8)));
+    tickAll();
+    assertEquals(List.of("1", "heartbeat"), subscriber.written);
+    assertEquals(1, wheel.size());
+  }
+
+  @Test
+  void reapDeadSubscriber() {
+    HeartbeatSubscriber dead = new HeartbeatSubscriber(options, executor),
+        alive = new HeartbeatSubscriber(options, executor);
+    dead.startHeartbeat();
+    alive.startHeartbeat();
+    dead.alive = false;
+    tickAll();
+    assertEquals("heartbeat timeout", dead.disconnectReason);
+    assertTrue(dead.written.isEmpty());
+    assertEquals(1, registry.get("chat.subscriber.reaped").counter().count());
+    assertEquals(1, wheel.size());
+  }
+
+  @Test
+  void removeSubscriberAfterWriteFailure() {
+    HeartbeatSubscriber subscriber = new HeartbeatSubscriber(options, executor);
+    subscriber.startHeartbeat();
+    subscriber.broken = true;
+    tickAll();
+    assertEquals("write failure", subscriber.disconnectReason);
+    // closed subscribers are removed on their next tick
+    tickAll();
+    assertEquals(0, wheel.size());
+  }
+}
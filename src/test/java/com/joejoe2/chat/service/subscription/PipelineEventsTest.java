@@ -0,0 +1,96 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.joejoe2.chat.jfr.ChatEvent;
+import com.joejoe2.chat.service.nats.PayloadEncoding;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+class PipelineEventsTest {
+  private static List<RecordedEvent> record(Runnable action) throws Exception {
+    Path file = Files.createTempFile("chat", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("com.joejoe2.chat.Subscription");
+      recording.enable("com.joejoe2.chat.Send");
+      recording.start();
+      action.run();
+      recording.stop();
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void utf8Length() {
+    for (String s : List.of("", "abc", "é", "中文", "😀a"))
+      assertEquals(s.getBytes(StandardCharsets.UTF_8).length, ChatEvent.utf8Length(s));
+  }
+
+  @Test
+  void subscriptionAndSend() throws Exception {
+    UUID key = UUID.randomUUID();
+    SubscriptionRegistry registry = new SubscriptionRegistry("PublicChannel", (k, i) -> {});
+    QueuedSubscriberTest.ManualExecutor executor = new QueuedSubscriberTest.ManualExecutor();
+    QueuedSubscriberTest.RecordingSubscriber subscriber =
+        new QueuedSubscriberTest.RecordingSubscriber(
+            new OutboundQueueOptions(
+                8,
+                SlowConsumerPolicy.DROP_OLDEST,
+                Duration.ZERO,
+                1000,
+                null,
+                new SimpleMeterRegistry()),
+            executor);
+    byte[] json = "{\"content\":\"hi\"}".getBytes(StandardCharsets.UTF_8);
+
+    List<RecordedEvent> events =
+        record(
+            () -> {
+              registry.subscribe(key, subscriber);
+              subscriber.deliver(
+                  SharedFrame.of(
+                      json,
+                      PayloadEncoding.JSON,
+                      null,
+                      new DeliveryLatency.Trace("public", null, 0, 0, System.nanoTime())));
+              subscriber.deliver(new SharedFrame(json));
+              executor.runAll();
+              registry.unsubscribe(key, subscriber);
+            });
+
+    List<RecordedEvent> subscriptions =
+        events.stream()
+            .filter(e -> e.getEventType().getName().equals("com.joejoe2.chat.Subscription"))
+            .toList();
+    assertEquals(2, subscriptions.size());
+    assertEquals("subscribe", subscriptions.get(0).getString("action"));
+    assertEquals(1, subscriptions.get(0).getInt("subscribers"));
+    assertEquals("unsubscribe", subscriptions.get(1).getString("action"));
+    assertEquals(0, subscriptions.get(1).getInt("subscribers"));
+    assertEquals("PublicChannel", subscriptions.get(1).getString("channelType"));
+    assertEquals(key.toString(), subscriptions.get(1).getString("key"));
+
+    RecordedEvent send =
+        events.stream()
+            .filter(e -> e.getEventType().getName().equals("com.joejoe2.chat.Send"))
+            .findFirst()
+            .orElseThrow();
+    assertEquals("public", send.getString("channelType"));
+    assertEquals(2, send.getInt("messages"));
+    assertEquals(2 * json.length, send.getInt("payloadSize"));
+    assertEquals("other", send.getString("transport"));
+    assertNull(send.getString("failure"));
+  }
+}
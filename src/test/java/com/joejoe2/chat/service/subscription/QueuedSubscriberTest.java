@@ -0,0 +1,398 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class QueuedSubscriberTest {
+  /** executor that only runs tasks when asked, so the queue can be filled before draining */
+  static class ManualExecutor implements Executor {
+    final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public synchronized void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    synchronized void runAll() {
+      while (!tasks.isEmpty()) tasks.remove(0).run();
+    }
+  }
+
+  static class RecordingSubscriber extends BlockingQueuedSubscriber {
+    final List<String> written = new ArrayList<>();
+    final List<Integer> batches = new ArrayList<>();
+    String disconnectReason;
+
+    RecordingSubscriber(OutboundQueueOptions options, Executor executor) {
+      this(options, executor, Runnable::run);
+    }
+
+    RecordingSubscriber(OutboundQueueOptions options, Executor executor, Executor writeExecutor) {
+      super(options, executor, writeExecutor);
+    }
+
+    @Override
+    protected void write(List<SharedFrame> frames) {
+      for (SharedFrame frame : frames)
+        written.add(new String(frame.json(), StandardCharsets.UTF_8));
+      batches.add(frames.size());
+    }
+
+    @Override
+    protected void disconnect(String reason) {
+      disconnectReason = reason;
+    }
+  }
+
+  /** subscriber whose writes are only completed when asked, like a client with a full tcp window */
+  static class StalledSubscriber extends RecordingSubscriber {
+    final List<WriteCallback> pending = new ArrayList<>();
+    final CountDownLatch disconnected = new CountDownLatch(1);
+
+    StalledSubscriber(OutboundQueueOptions options, Executor executor) {
+      super(options, executor);
+    }
+
+    @Override
+    protected void write(List<SharedFrame> frames, WriteCallback callback) {
+      synchronized (this) {
+        super.write(frames);
+        pending.add(callback);
+      }
+    }
+
+    void completeAll() {
+      List<WriteCallback> callbacks;
+      synchronized (this) {
+        callbacks = new ArrayList<>(pending);
+        pending.clear();
+      }
+      callbacks.forEach(WriteCallback::completed);
+    }
+
+    @Override
+    protected void disconnect(String reason) {
+      super.disconnect(reason);
+      disconnected.countDown();
+    }
+  }
+
+  private static OutboundQueueOptions options(
+      int capacity, SlowConsumerPolicy policy, Duration window, SimpleMeterRegistry registry) {
+    return new OutboundQueueOptions(capacity, policy, window, 1000, null, registry);
+  }
+
+  private static SharedFrame payload(int i) {
+    return new SharedFrame(String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static RecordingSubscriber fill(
+      SlowConsumerPolicy policy, SimpleMeterRegistry registry, ManualExecutor executor) {
+    RecordingSubscriber subscriber =
+        new RecordingSubscriber(options(3, policy, Duration.ZERO, registry), executor);
+    for (int i = 0; i < 5; i++) subscriber.deliver(payload(i));
+    return subscriber;
+  }
+
+  private static double overflows(SimpleMeterRegistry registry, SlowConsumerPolicy policy) {
+    return registry
+        .get("chat.subscriber.queue.overflow")
+        .tag("policy", policy.name())
+        .counter()
+        .count();
+  }
+
+  @Test
+  void dropOldest() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ManualExecutor executor = new ManualExecutor();
+    RecordingSubscriber subscriber = fill(SlowConsumerPolicy.DROP_OLDEST, registry, executor);
+    // only one drain task is scheduled
+    assertEquals(1, executor.tasks.size());
+    executor.runAll();
+    assertEquals(List.of("2", "3", "4"), subscriber.written);
+    // queued messages are coalesced into one frame
+    assertEquals(List.of(3), subscriber.batches);
+    assertEquals(2, overflows(registry, SlowConsumerPolicy.DROP_OLDEST));
+    assertNull(subscriber.disconnectReason);
+  }
+
+  @Test
+  void dropNewest() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ManualExecutor executor = new ManualExecutor();
+    RecordingSubscriber subscriber = fill(SlowConsumerPolicy.DROP_NEWEST, registry, executor);
+    executor.runAll();
+    assertEquals(List.of("0", "1", "2"), subscriber.written);
+    assertEquals(2, overflows(registry, SlowConsumerPolicy.DROP_NEWEST));
+    assertNull(subscriber.disconnectReason);
+  }
+
+  @Test
+  void disconnect() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ManualExecutor executor = new ManualExecutor();
+    RecordingSubscriber subscriber = fill(SlowConsumerPolicy.DISCONNECT, registry, executor);
+    executor.runAll();
+    assertTrue(subscriber.written.isEmpty());
+    assertEquals("slow consumer", subscriber.disconnectReason);
+    assertEquals(1, overflows(registry, SlowConsumerPolicy.DISCONNECT));
+    // closed subscriber ignores further messages
+    subscriber.deliver(payload(5));
+    assertTrue(executor.tasks.isEmpty());
+  }
+
+  @Test
+  void holdAndResume() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ManualExecutor executor = new ManualExecutor();
+    RecordingSubscriber subscriber =
+        new RecordingSubscriber(
+            options(4, SlowConsumerPolicy.DROP_OLDEST, Duration.ZERO, registry), executor);
+    subscriber.hold();
+    UUID replayed = UUID.randomUUID();
+    subscriber.deliver(new SharedFrame("2".getBytes(StandardCharsets.UTF_8), replayed));
+    subscriber.deliver(payload(3));
+    // nothing is written while the replay is loaded
+    assertTrue(executor.tasks.isEmpty());
+
+    subscriber.resume(
+        List.of(
+            payload(0),
+            payload(1),
+            new SharedFrame("2".getBytes(StandardCharsets.UTF_8), replayed)));
+    executor.runAll();
+    // replayed messages go first without duplicates
+    assertEquals(List.of("0", "1", "2", "3"), subscriber.written);
+
+    subscriber.hold();
+    subscriber.deliver(payload(4));
+    subscriber.deliver(payload(5));
+    subscriber.resume(List.of(payload(1), payload(2), payload(3)));
+    executor.runAll();
+    // the oldest replayed messages are dropped if the queue overflows
+    assertEquals(List.of("0", "1", "2", "3", "2", "3", "4", "5"), subscriber.written);
+    assertEquals(1, overflows(registry, SlowConsumerPolicy.DROP_OLDEST));
+  }
+
+  @Test
+  void stalledSubscriberNotDelayOthers() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    OutboundQueueOptions options =
+        options(4, SlowConsumerPolicy.DROP_OLDEST, Duration.ZERO, registry);
+    // a single delivery thread
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      StalledSubscriber stalled = new StalledSubscriber(options, executor);
+      CountDownLatch received = new CountDownLatch(3);
+      RecordingSubscriber healthy =
+          new RecordingSubscriber(options, executor) {
+            @Override
+            protected void write(List<SharedFrame> frames) {
+              super.write(frames);
+              frames.forEach(frame -> received.countDown());
+            }
+          };
+      stalled.deliver(payload(0));
+      executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+      // the write of the stalled subscriber is in flight without holding the thread
+      for (int i = 1; i < 5; i++) stalled.deliver(payload(i));
+      for (int i = 0; i < 3; i++) healthy.deliver(payload(i));
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+      assertEquals(List.of("0", "1", "2"), healthy.written);
+      assertEquals(List.of("0"), stalled.written);
+      assertEquals(4, stalled.pending());
+
+      // the queue of the stalled subscriber overflows without affecting others
+      stalled.deliver(payload(5));
+      assertEquals(1, overflows(registry, SlowConsumerPolicy.DROP_OLDEST));
+      stalled.completeAll();
+      executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+      assertEquals(List.of("0", "2", "3", "4", "5"), stalled.written);
+      assertNull(stalled.disconnectReason);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void blockingWriteNotHoldDeliveryThread() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    OutboundQueueOptions options =
+        options(4, SlowConsumerPolicy.DROP_OLDEST, Duration.ZERO, registry);
+    // a single delivery thread
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    try {
+      CountDownLatch release = new CountDownLatch(1);
+      RecordingSubscriber blocked =
+          new RecordingSubscriber(options, executor, writeExecutor) {
+            @Override
+            protected void write(List<SharedFrame> frames) {
+              super.write(frames);
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            }
+          };
+      CountDownLatch received = new CountDownLatch(3);
+      RecordingSubscriber healthy =
+          new RecordingSubscriber(options, executor) {
+            @Override
+            protected void write(List<SharedFrame> frames) {
+              super.write(frames);
+              frames.forEach(frame -> received.countDown());
+            }
+          };
+      blocked.deliver(payload(0));
+      executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+      // the blocking write holds the write thread only
+      for (int i = 0; i < 3; i++) healthy.deliver(payload(i));
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+      assertEquals(List.of("0", "1", "2"), healthy.written);
+
+      blocked.deliver(payload(1));
+      release.countDown();
+      for (int i = 0; i < 100 && blocked.written.size() < 2; i++) Thread.sleep(10);
+      assertEquals(List.of("0", "1"), blocked.written);
+    } finally {
+      executor.shutdownNow();
+      writeExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  void blockedCloseNotHoldDeliveryThread() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    // a single delivery thread
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    ExecutorService writeExecutor = Executors.newCachedThreadPool();
+    CountDownLatch release = new CountDownLatch(1), closing = new CountDownLatch(1);
+    try {
+      OutboundQueueOptions options =
+          new OutboundQueueOptions(
+              4,
+              SlowConsumerPolicy.DROP_OLDEST,
+              Duration.ZERO,
+              1000,
+              timer,
+              null,
+              null,
+              Duration.ofMillis(50),
+              registry);
+      // like an sse emitter, the close waits for the lock held by the stalled write
+      Object lock = new Object();
+      RecordingSubscriber stalled =
+          new RecordingSubscriber(options, executor, writeExecutor) {
+            @Override
+            protected void write(List<SharedFrame> frames) {
+              synchronized (lock) {
+                try {
+                  release.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+              }
+            }
+
+            @Override
+            protected void disconnect(String reason) {
+              closing.countDown();
+              synchronized (lock) {
+                super.disconnect(reason);
+              }
+            }
+          };
+      CountDownLatch received = new CountDownLatch(3);
+      RecordingSubscriber healthy =
+          new RecordingSubscriber(options, executor) {
+            @Override
+            protected void write(List<SharedFrame> frames) {
+              super.write(frames);
+              frames.forEach(frame -> received.countDown());
+            }
+          };
+      stalled.deliver(payload(0));
+      // the write timeout aborts the stalled subscriber and its close blocks
+      assertTrue(closing.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 3; i++) healthy.deliver(payload(i));
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+      assertEquals(List.of("0", "1", "2"), healthy.written);
+      assertNull(stalled.disconnectReason);
+      release.countDown();
+      for (int i = 0; i < 100 && stalled.disconnectReason == null; i++) Thread.sleep(10);
+      assertEquals("write timeout", stalled.disconnectReason);
+    } finally {
+      release.countDown();
+      timer.shutdownNow();
+      executor.shutdownNow();
+      writeExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  void writeTimeoutAbortsConnection() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    ManualExecutor executor = new ManualExecutor();
+    try {
+      OutboundQueueOptions options =
+          new OutboundQueueOptions(
+              4,
+              SlowConsumerPolicy.DROP_OLDEST,
+              Duration.ZERO,
+              1000,
+              timer,
+              null,
+              null,
+              Duration.ofMillis(50),
+              registry);
+      StalledSubscriber stalled = new StalledSubscriber(options, executor);
+      stalled.deliver(payload(0));
+      executor.runAll();
+      // the disconnection is executed on the executor
+      for (int i = 0; i < 100 && stalled.disconnected.getCount() > 0; i++) {
+        Thread.sleep(10);
+        executor.runAll();
+      }
+      assertEquals("write timeout", stalled.disconnectReason);
+      assertEquals(1, registry.get("chat.subscriber.write.timeout").counter().count());
+      // late completions and messages are ignored
+      stalled.completeAll();
+      stalled.deliver(payload(1));
+      executor.runAll();
+      assertEquals(List.of("0"), stalled.written);
+    } finally {
+      timer.shutdownNow();
+    }
+  }
+
+  @Test
+  void batchWindowGrowsWithRate() {
+    OutboundQueueOptions options =
+        options(3, SlowConsumerPolicy.DROP_OLDEST, Duration.ofMillis(5), new SimpleMeterRegistry());
+    // less than one more message is expected within the window
+    assertEquals(0, options.batchWindowNanos(1));
+    assertEquals(0, options.batchWindowNanos(100));
+    long half = options.batchWindowNanos(500), full = options.batchWindowNanos(1000);
+    assertTrue(half > 0 && half < full);
+    assertEquals(Duration.ofMillis(5).toNanos(), full);
+    assertEquals(full, options.batchWindowNanos(100000));
+  }
+}
@@ -0,0 +1,127 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.joejoe2.chat.service.nats.PayloadEncoding;
+import com.joejoe2.chat.utils.CborUtil;
+import com.joejoe2.chat.utils.FrameUtil;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class SharedFrameTest {
+  ObjectMapper objectMapper = new ObjectMapper();
+
+  private static byte[] json(String content) throws Exception {
+    return new ObjectMapper().writeValueAsBytes(new Object[] {content});
+  }
+
+  private static String string(ByteBuffer buffer) {
+    return StandardCharsets.UTF_8.decode(buffer).toString();
+  }
+
+  /** the bytes must be identical to sseEmitter.send(List.of(textFrame(payloads))) */
+  private String legacySseEvent(List<byte[]> payloads) throws Exception {
+    return "data:"
+        + objectMapper.writeValueAsString(List.of(FrameUtil.textFrame(payloads)))
+        + "\n\n";
+  }
+
+  @Test
+  void sseEventIsIdenticalToConverterOutput() throws Exception {
+    byte[] a = json("quote \" backslash \\ newline \n tab \t"),
+        b = json("unicode \u4e2d\u6587 emoji \ud83d\ude00 control \u0001");
+    SharedFrame frameA = new SharedFrame(a), frameB = new SharedFrame(b);
+
+    assertEquals(legacySseEvent(List.of(a)), new String(frameA.sseEvent(), StandardCharsets.UTF_8));
+    assertEquals(
+        legacySseEvent(List.of(a, b)),
+        new String(SharedFrame.sseEvent(List.of(frameA, frameB)), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void webSocketFrame() throws Exception {
+    byte[] a = json("a"), b = json("b");
+    SharedFrame frameA = new SharedFrame(a), frameB = new SharedFrame(b);
+
+    assertEquals(FrameUtil.textFrame(a).getPayload(), string(frameA.webSocketFrame()));
+    assertEquals(
+        FrameUtil.textFrame(List.of(a, b)).getPayload(),
+        string(SharedFrame.webSocketFrame(List.of(frameA, frameB))));
+  }
+
+  @Test
+  void encodedOnce() throws Exception {
+    SharedFrame frame = new SharedFrame(json("a"));
+    assertSame(frame.sseEvent(), frame.sseEvent());
+    // each subscriber gets its own view of the same bytes
+    ByteBuffer first = frame.webSocketFrame(), second = frame.webSocketFrame();
+    assertNotSame(first, second);
+    string(first);
+    assertEquals(FrameUtil.textFrame(json("a")).getPayload(), string(second));
+  }
+
+  @Test
+  void sseEventId() throws Exception {
+    UUID a = UUID.randomUUID(), b = UUID.randomUUID();
+    SharedFrame frameA = new SharedFrame(json("a"), a), frameB = new SharedFrame(json("b"), b);
+
+    assertEquals(
+        "id:" + a + "\n" + legacySseEvent(List.of(json("a"))),
+        new String(frameA.sseEvent(), StandardCharsets.UTF_8));
+    // a coalesced event is identified by its last message
+    assertEquals(
+        "id:" + b + "\n" + legacySseEvent(List.of(json("a"), json("b"))),
+        new String(SharedFrame.sseEvent(List.of(frameA, frameB)), StandardCharsets.UTF_8));
+    assertTrue(
+        new String(
+                SharedFrame.sseEvent(List.of(frameB, new SharedFrame(json("c")))),
+                StandardCharsets.UTF_8)
+            .startsWith("id:" + b + "\n"));
+    assertEquals(a, frameA.tagged(FrameUtil.sourceTag("private", null)).id());
+  }
+
+  @Test
+  void tagged() throws Exception {
+    UUID channelId = UUID.randomUUID();
+    SharedFrame frame = new SharedFrame(json("a"));
+    SharedFrame tagged = frame.tagged(FrameUtil.sourceTag("public", channelId));
+
+    assertEquals(
+        "[{\"source\":\"public\",\"channelId\":\"" + channelId + "\",\"message\":[\"a\"]}]",
+        string(tagged.webSocketFrame()));
+    // subscribers of the same source share the tagged frame
+    assertSame(tagged, frame.tagged(FrameUtil.sourceTag("public", channelId)));
+    assertEquals(
+        "[{\"source\":\"private\",\"message\":[\"a\"]}]",
+        string(frame.tagged(FrameUtil.sourceTag("private", null)).webSocketFrame()));
+  }
+
+  @Test
+  void webSocketBinaryFrame() throws Exception {
+    ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    UUID channelId = UUID.randomUUID();
+    byte[] tag = FrameUtil.sourceTag("public", channelId);
+    SharedFrame frameA = new SharedFrame(json("a")),
+        frameB = SharedFrame.of(CborUtil.fromJson(json("b")), PayloadEncoding.CBOR, null, null);
+
+    assertEquals(
+        objectMapper.readTree(FrameUtil.arrayFrame(List.of(json("a"), json("b")))),
+        cborMapper.readTree(toBytes(SharedFrame.webSocketBinaryFrame(List.of(frameA, frameB)))));
+    // frames received in cbor are transcoded to json for text subscribers
+    assertEquals(FrameUtil.textFrame(json("b")).getPayload(), string(frameB.webSocketFrame()));
+    assertEquals(
+        objectMapper.readTree(string(frameB.tagged(tag).webSocketFrame())),
+        cborMapper.readTree(toBytes(frameB.tagged(tag).webSocketBinaryFrame())));
+  }
+
+  private static byte[] toBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
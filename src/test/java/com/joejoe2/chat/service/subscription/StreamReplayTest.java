@@ -0,0 +1,140 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.uuid.Generators;
+import com.joejoe2.chat.data.message.PublicMessageDto;
+import com.joejoe2.chat.utils.TimeUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class StreamReplayTest {
+  ObjectMapper objectMapper = new ObjectMapper();
+
+  private static PublicMessageDto message(String content) {
+    PublicMessageDto message = new PublicMessageDto();
+    message.setId(Generators.timeBasedEpochGenerator().generate());
+    message.setContent(content);
+    return message;
+  }
+
+  private static List<String> contents(List<PublicMessageDto> messages) {
+    return messages.stream().map(PublicMessageDto::getContent).toList();
+  }
+
+  @Test
+  void parseToken() {
+    UUID id = Generators.timeBasedEpochGenerator().generate();
+    assertEquals(id, StreamReplay.parseToken(id.toString()));
+    assertNull(StreamReplay.parseToken(null));
+    assertNull(StreamReplay.parseToken(""));
+    assertNull(StreamReplay.parseToken("invalid"));
+    assertNull(StreamReplay.parseToken(UUID.randomUUID().toString()));
+  }
+
+  @Test
+  void missed() throws Exception {
+    List<PublicMessageDto> messages = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      messages.add(message("msg" + i));
+      Thread.sleep(2);
+    }
+    UUID last = messages.get(1).getId();
+    Instant lastTime = TimeUtil.timeOfUUIDv7(last);
+    assertEquals(List.of("msg2", "msg3"), contents(StreamReplay.missed(messages, last, lastTime)));
+    // the last received message is not in the window, ex. it is deleted
+    assertEquals(
+        List.of("msg2", "msg3"),
+        contents(StreamReplay.missed(messages.subList(2, 4), last, lastTime)));
+    assertEquals(
+        List.of("msg1", "msg2", "msg3"),
+        contents(StreamReplay.missed(messages, UUID.randomUUID(), lastTime)));
+  }
+
+  @Test
+  void replay() {
+    QueuedSubscriberTest.ManualExecutor executor = new QueuedSubscriberTest.ManualExecutor();
+    QueuedSubscriberTest.RecordingSubscriber subscriber =
+        new QueuedSubscriberTest.RecordingSubscriber(
+            new OutboundQueueOptions(
+                8,
+                SlowConsumerPolicy.DROP_OLDEST,
+                Duration.ZERO,
+                1000,
+                null,
+                new SimpleMeterRegistry()),
+            executor);
+    PublicMessageDto received = message("received"), missed = message("missed");
+    subscriber.hold();
+    subscriber.deliver(new SharedFrame("\"live\"".getBytes(StandardCharsets.UTF_8)));
+    StreamReplay.replay(
+        subscriber,
+        received.getId(),
+        8,
+        (since, limit) -> {
+          assertTrue(since.isBefore(TimeUtil.timeOfUUIDv7(received.getId())));
+          assertEquals(8, limit);
+          return List.of(received, missed);
+        },
+        objectMapper);
+    executor.runAll();
+    assertEquals(2, subscriber.written.size());
+    assertTrue(subscriber.written.get(0).contains("\"missed\""));
+    assertEquals("\"live\"", subscriber.written.get(1));
+
+    // the subscriber is resumed even if the replay fails
+    subscriber.hold();
+    subscriber.deliver(new SharedFrame("\"next\"".getBytes(StandardCharsets.UTF_8)));
+    StreamReplay.replay(
+        subscriber,
+        received.getId(),
+        8,
+        (since, limit) -> {
+          throw new IllegalStateException("database is down");
+        },
+        objectMapper);
+    executor.runAll();
+    assertEquals("\"next\"", subscriber.written.get(2));
+  }
+
+  @Test
+  void signalTruncatedGap() throws Exception {
+    QueuedSubscriberTest.ManualExecutor executor = new QueuedSubscriberTest.ManualExecutor();
+    QueuedSubscriberTest.RecordingSubscriber subscriber =
+        new QueuedSubscriberTest.RecordingSubscriber(
+            new OutboundQueueOptions(
+                3,
+                SlowConsumerPolicy.DROP_OLDEST,
+                Duration.ZERO,
+                1000,
+                null,
+                new SimpleMeterRegistry()),
+            executor);
+    PublicMessageDto received = message("received");
+    List<PublicMessageDto> messages = new ArrayList<>();
+    for (int i = 0; i < 4; i++) messages.add(message("msg" + i));
+    assertFalse(StreamReplay.isTruncated(messages.subList(0, 2), received.getId(), 3));
+    assertFalse(StreamReplay.isTruncated(List.of(received, messages.get(0)), received.getId(), 2));
+
+    // only the newest messages fit in the queue, the received one is not reached
+    subscriber.hold();
+    StreamReplay.replay(
+        subscriber, received.getId(), 3, (since, limit) -> messages.subList(1, 4), objectMapper);
+    executor.runAll();
+    assertEquals(3, subscriber.written.size());
+    JsonNode gap = objectMapper.readTree(subscriber.written.get(0));
+    assertEquals(StreamReplay.GAP, gap.get("messageType").asText());
+    assertEquals(received.getId().toString(), gap.get("lastMessageId").asText());
+    assertEquals(messages.get(2).getId().toString(), gap.get("nextMessageId").asText());
+    assertTrue(subscriber.written.get(1).contains("\"msg2\""));
+    assertTrue(subscriber.written.get(2).contains("\"msg3\""));
+  }
+}
@@ -0,0 +1,58 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+class StripedExecutorTest {
+  @Test
+  void orderedPerKey() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    StripedExecutor executor = new StripedExecutor(4, pool);
+    UUID[] keys = new UUID[16];
+    Map<UUID, List<Integer>> received = new ConcurrentHashMap<>();
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = UUID.randomUUID();
+      received.put(keys[i], Collections.synchronizedList(new ArrayList<>()));
+    }
+    int perKey = 1000;
+    CountDownLatch done = new CountDownLatch(keys.length * perKey);
+    for (int i = 0; i < perKey; i++) {
+      for (UUID key : keys) {
+        int seq = i;
+        executor.execute(
+            key,
+            () -> {
+              received.get(key).add(seq);
+              done.countDown();
+            });
+      }
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    pool.shutdown();
+
+    for (UUID key : keys) {
+      List<Integer> seqs = received.get(key);
+      assertEquals(perKey, seqs.size());
+      for (int i = 0; i < perKey; i++) assertEquals(i, seqs.get(i));
+    }
+  }
+
+  @Test
+  void failedTaskDoesNotBlockStripe() throws Exception {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    StripedExecutor executor = new StripedExecutor(1, pool);
+    UUID key = UUID.randomUUID();
+    CountDownLatch done = new CountDownLatch(1);
+    executor.execute(
+        key,
+        () -> {
+          throw new RuntimeException("fail");
+        });
+    executor.execute(key, done::countDown);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,134 @@
+package com.joejoe2.chat.service.subscription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+class SubscriptionRegistryTest {
+  static Subscriber subscriber() {
+    return new Subscriber() {
+      @Override
+      public void deliver(SharedFrame frame) {}
+    };
+  }
+
+  @Test
+  void subscribeAndUnsubscribe() {
+    List<String> interests = new ArrayList<>();
+    SubscriptionRegistry registry =
+        new SubscriptionRegistry(
+            "test", (key, interested) -> interests.add(key + ":" + interested));
+    UUID key = UUID.randomUUID();
+    Subscriber s1 = subscriber(), s2 = subscriber();
+
+    registry.subscribe(key, s1);
+    registry.subscribe(key, s2);
+    assertArrayEquals(new Subscriber[] {s1, s2}, registry.getSubscribers(key));
+    assertEquals(2, registry.countSubscribers());
+    assertEquals(1, registry.countKeys());
+    assertEquals(List.of(key + ":true"), interests);
+
+    // unknown subscriber is ignored
+    registry.unsubscribe(key, subscriber());
+    registry.unsubscribe(key, s1);
+    assertArrayEquals(new Subscriber[] {s2}, registry.getSubscribers(key));
+    registry.unsubscribe(key, s2);
+    assertEquals(0, registry.getSubscribers(key).length);
+    assertFalse(registry.hasSubscribers(key));
+    assertEquals(0, registry.countSubscribers());
+    assertEquals(0, registry.countKeys());
+    assertEquals(List.of(key + ":true", key + ":false"), interests);
+  }
+
+  @Test
+  void hotKeys() {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    SubscriptionRegistry registry = new SubscriptionRegistry("test", (key, interested) -> {});
+    registry.trackHotKeys(new HotKeys(2, "test.top", "key", meterRegistry));
+    UUID cold = UUID.randomUUID(), warm = UUID.randomUUID(), hot = UUID.randomUUID();
+    Subscriber coldSubscriber = subscriber();
+    registry.subscribe(cold, coldSubscriber);
+    for (int i = 0; i < 2; i++) registry.subscribe(warm, subscriber());
+    for (int i = 0; i < 3; i++) registry.subscribe(hot, subscriber());
+
+    // the coldest key is replaced
+    assertEquals(2, meterRegistry.find("test.top").gauges().size());
+    assertEquals(3, meterRegistry.get("test.top").tag("key", hot.toString()).gauge().value());
+    assertEquals(2, meterRegistry.get("test.top").tag("key", warm.toString()).gauge().value());
+    assertNull(meterRegistry.find("test.top").tag("key", cold.toString()).gauge());
+
+    // a tracked key leaves when it has no subscriber
+    for (Subscriber subscriber : registry.getSubscribers(warm))
+      registry.unsubscribe(warm, subscriber);
+    assertEquals(1, meterRegistry.find("test.top").gauges().size());
+    registry.subscribe(cold, subscriber());
+    assertEquals(2, meterRegistry.get("test.top").tag("key", cold.toString()).gauge().value());
+  }
+
+  @Test
+  void hotKeysInterleavedUpdates() throws Exception {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    HotKeys hotKeys = new HotKeys(2, "test.top", "key", meterRegistry);
+    Map<UUID, Integer> counts = new ConcurrentHashMap<>();
+    hotKeys.countBy(key -> counts.getOrDefault(key, 0));
+    UUID key = UUID.randomUUID();
+    // a subscribe and the following unsubscribe, whose updates are applied in reverse order
+    counts.put(key, 1);
+    counts.put(key, 0);
+    hotKeys.update(key);
+    hotKeys.update(key);
+    assertTrue(hotKeys.top().isEmpty());
+    assertNull(meterRegistry.find("test.top").gauge());
+
+    // concurrent subscribes and unsubscribes of the same key leave no gauge behind
+    SubscriptionRegistry registry = new SubscriptionRegistry("test", (k, interested) -> {});
+    registry.trackHotKeys(hotKeys);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int i = 0; i < 10000; i++) {
+                  Subscriber subscriber = subscriber();
+                  registry.subscribe(key, subscriber);
+                  registry.unsubscribe(key, subscriber);
+                }
+              }));
+    }
+    for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+    executor.shutdown();
+    assertTrue(hotKeys.top().isEmpty());
+    assertNull(meterRegistry.find("test.top").gauge());
+  }
+
+  @Test
+  void concurrentChurn() throws Exception {
+    Map<UUID, Boolean> interests = new ConcurrentHashMap<>();
+    SubscriptionRegistry registry =
+        new SubscriptionRegistry("test", (key, interested) -> interests.put(key, interested));
+    List<UUID> keys = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int i = 0; i < 10000; i++) {
+                  UUID key = keys.get(i % keys.size());
+                  Subscriber subscriber = subscriber();
+                  registry.subscribe(key, subscriber);
+                  registry.unsubscribe(key, subscriber);
+                }
+              }));
+    }
+    for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+    executor.shutdown();
+
+    assertEquals(0, registry.countSubscribers());
+    for (UUID key : keys) assertNotEquals(Boolean.TRUE, interests.get(key));
+  }
+}
@@ -0,0 +1,87 @@
+package com.joejoe2.chat.service.user;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.joejoe2.chat.models.User;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class UserDirectoryTest {
+  User user = User.builder().id(UUID.randomUUID()).userName("user").build();
+
+  @Test
+  void keepSnapshotsOfExistingUsers() {
+    user.setGroupChannels(new HashSet<>());
+    AtomicInteger loads = new AtomicInteger();
+    UserDirectory directory =
+        new UserDirectory(
+            id -> {
+              loads.incrementAndGet();
+              return id.equals(user.getId()) ? Optional.of(user) : Optional.empty();
+            },
+            16,
+            TimeUnit.MINUTES.toNanos(10));
+
+    User found = directory.find(user.getId()).orElseThrow();
+    assertEquals(user, found);
+    assertNotSame(user, found);
+    // associations are not kept
+    assertNull(found.getGroupChannels());
+    assertSame(found, directory.find(user.getId()).orElseThrow());
+    assertEquals(1, loads.get());
+
+    // absent users are not kept
+    UUID absent = UUID.randomUUID();
+    assertTrue(directory.find(absent).isEmpty());
+    assertTrue(directory.find(absent).isEmpty());
+    assertEquals(3, loads.get());
+    assertEquals(1, directory.size());
+
+    // created users are found without a load
+    User created = User.builder().id(UUID.randomUUID()).userName("created").build();
+    assertEquals(created, directory.put(created));
+    assertEquals(created, directory.find(created.getId()).orElseThrow());
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  void evictAndExpire() {
+    AtomicInteger loads = new AtomicInteger();
+    UserDirectory directory =
+        new UserDirectory(
+            id -> {
+              loads.incrementAndGet();
+              return Optional.of(User.builder().id(id).userName(id.toString()).build());
+            },
+            2,
+            TimeUnit.MINUTES.toNanos(10));
+
+    directory.find(user.getId());
+    assertEquals(1, loads.get());
+
+    // the least recently used user is evicted
+    UUID a = UUID.randomUUID(), b = UUID.randomUUID();
+    directory.find(a);
+    directory.find(user.getId());
+    directory.find(b);
+    assertEquals(2, directory.size());
+    directory.find(user.getId());
+    assertEquals(3, loads.get());
+    directory.find(a);
+    assertEquals(4, loads.get());
+
+    UserDirectory expired =
+        new UserDirectory(
+            id -> {
+              loads.incrementAndGet();
+              return Optional.of(user);
+            },
+            16,
+            0);
+    expired.find(user.getId());
+    expired.find(user.getId());
+    assertEquals(6, loads.get());
+  }
+}
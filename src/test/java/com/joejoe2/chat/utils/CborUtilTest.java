@@ -0,0 +1,49 @@
+package com.joejoe2.chat.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class CborUtilTest {
+  ObjectMapper jsonMapper = new ObjectMapper();
+  ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+  private static byte[] utf8(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void transcode() throws Exception {
+    byte[] json =
+        utf8("{\"id\":\"" + UUID.randomUUID() + "\",\"content\":\"中文\",\"n\":1,\"a\":[]}");
+    byte[] cbor = CborUtil.fromJson(json);
+
+    assertEquals(jsonMapper.readTree(json), cborMapper.readTree(cbor));
+    assertEquals(jsonMapper.readTree(json), jsonMapper.readTree(CborUtil.toJson(cbor)));
+  }
+
+  @Test
+  void arrayFrame() throws Exception {
+    byte[] a = CborUtil.fromJson(utf8("{\"a\":1}")), b = CborUtil.fromJson(utf8("\"b\""));
+
+    assertEquals(
+        jsonMapper.readTree("[{\"a\":1},\"b\"]"),
+        cborMapper.readTree(CborUtil.arrayFrame(List.of(a, b))));
+    assertEquals(jsonMapper.readTree("[]"), cborMapper.readTree(CborUtil.arrayFrame(List.of())));
+  }
+
+  @Test
+  void tagged() throws Exception {
+    UUID channelId = UUID.randomUUID();
+    byte[] tag = FrameUtil.sourceTag("public", channelId), message = utf8("{\"content\":\"a\"}");
+
+    assertEquals(
+        jsonMapper.readTree(FrameUtil.tagged(tag, message)),
+        cborMapper.readTree(CborUtil.tagged(tag, CborUtil.fromJson(message))));
+  }
+}
@@ -0,0 +1,31 @@
+package com.joejoe2.chat.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class FrameUtilTest {
+  @Test
+  void arrayFrame() {
+    byte[] payload = "{\"content\":\"msg\"}".getBytes(StandardCharsets.UTF_8);
+    assertEquals(
+        "[{\"content\":\"msg\"}]",
+        new String(FrameUtil.arrayFrame(payload), StandardCharsets.UTF_8));
+    assertEquals("[{\"content\":\"msg\"}]", FrameUtil.textFrame(payload).getPayload());
+  }
+
+  @Test
+  void mergedArrayFrame() {
+    byte[] a = "{\"content\":\"a\"}".getBytes(StandardCharsets.UTF_8);
+    byte[] b = "{\"content\":\"b\"}".getBytes(StandardCharsets.UTF_8);
+    assertEquals(
+        "[{\"content\":\"a\"},{\"content\":\"b\"}]",
+        new String(FrameUtil.arrayFrame(List.of(a, b)), StandardCharsets.UTF_8));
+    assertEquals(
+        "[{\"content\":\"a\"}]",
+        new String(FrameUtil.arrayFrame(List.of(a)), StandardCharsets.UTF_8));
+    assertEquals("[]", new String(FrameUtil.arrayFrame(List.of()), StandardCharsets.UTF_8));
+  }
+}
@@ -2,7 +2,10 @@ package com.joejoe2.chat.utils;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.fasterxml.uuid.Generators;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
 import org.junit.jupiter.api.Test;
 
 class TimeUtilTest {
@@ -14,4 +17,14 @@ class TimeUtilTest {
     assertEquals(up.plusNanos(400), TimeUtil.roundToMicro(up));
     assertEquals(down.plusNanos(-400), TimeUtil.roundToMicro(down));
   }
+
+  @Test
+  void timeOfUUIDv7() {
+    Instant before = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    UUID uuid = Generators.timeBasedEpochGenerator().generate();
+    Instant time = TimeUtil.timeOfUUIDv7(uuid);
+    assertFalse(time.isBefore(before));
+    assertFalse(time.isAfter(Instant.now()));
+    assertThrows(IllegalArgumentException.class, () -> TimeUtil.timeOfUUIDv7(UUID.randomUUID()));
+  }
 }
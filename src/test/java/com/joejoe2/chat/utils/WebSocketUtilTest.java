@@ -0,0 +1,57 @@
+package com.joejoe2.chat.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.joejoe2.chat.service.subscription.WriteCallback;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+class WebSocketUtilTest {
+  /** records results of writes */
+  static class RecordingCallback implements WriteCallback {
+    final List<String> results = new ArrayList<>();
+
+    @Override
+    public void completed() {
+      results.add("completed");
+    }
+
+    @Override
+    public void failed(Throwable e) {
+      results.add("failed");
+    }
+  }
+
+  @Test
+  void sendThroughSessionsOfOtherContainers() throws Exception {
+    WebSocketSession session = mock(WebSocketSession.class);
+    when(session.getAttributes()).thenReturn(new HashMap<>());
+    RecordingCallback callback = new RecordingCallback();
+
+    WebSocketUtil.sendText(
+        session, ByteBuffer.wrap("[1]".getBytes(StandardCharsets.UTF_8)), callback);
+    WebSocketUtil.sendPing(session, callback);
+    WebSocketUtil.sendConnectMessage(session);
+    ArgumentCaptor<WebSocketMessage<?>> messages = ArgumentCaptor.forClass(WebSocketMessage.class);
+    verify(session, times(3)).sendMessage(messages.capture());
+    assertEquals(new TextMessage("[1]"), messages.getAllValues().get(0));
+    assertInstanceOf(PingMessage.class, messages.getAllValues().get(1));
+    assertEquals(new TextMessage("[]"), messages.getAllValues().get(2));
+    assertEquals(List.of("completed", "completed"), callback.results);
+
+    doThrow(new IOException("broken pipe")).when(session).sendMessage(any());
+    WebSocketUtil.sendPing(session, callback);
+    assertEquals(List.of("completed", "completed", "failed"), callback.results);
+  }
+}